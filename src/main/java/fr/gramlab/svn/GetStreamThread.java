@@ -20,6 +20,7 @@
  */
 package fr.gramlab.svn;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -27,10 +28,14 @@ import java.io.OutputStream;
 import fr.umlv.unitex.process.NullOutputStream;
 
 
+/**
+ * Reads a whole stream, so that its content can be obtained once it has
+ * ended. It can be started as a thread, or run by a StreamPump.
+ */
 public class GetStreamThread extends Thread {
 	private final InputStream in;
 	private final OutputStream out;
-	private StringBuilder builder=new StringBuilder();
+	private final ByteArrayOutputStream content=new ByteArrayOutputStream();
 
 	public GetStreamThread(InputStream _in) {
 		this(_in,new NullOutputStream());
@@ -47,10 +52,10 @@ public class GetStreamThread extends Thread {
 	public void run() {
 		try {
 			int c;
-			byte[] buffer=new byte[4096];
+			byte[] buffer=new byte[8192];
 			while ((c = in.read(buffer)) != -1) {
 				out.write(buffer,0,c);
-				builder.append(new String(buffer,0,c));
+				content.write(buffer,0,c);
 			}
 			if (!out.equals(System.out) && !out.equals(System.err)) {
 				out.close();
@@ -58,11 +63,26 @@ public class GetStreamThread extends Thread {
 		} catch (IOException e) {
 			/* Nothing to do */
 		}
-		done=true;
+		synchronized (content) {
+			done=true;
+			content.notifyAll();
+		}
 	}
 	
+	/**
+	 * Blocks until the end of the stream, and returns its content.
+	 */
 	public String getStreamContent() {
-		while (!done) {/* */}
-		return builder.toString();
+		synchronized (content) {
+			while (!done) {
+				try {
+					content.wait();
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+			/* Decoded at once, so that no char is split between two reads */
+			return new String(content.toByteArray());
+		}
 	}
 }
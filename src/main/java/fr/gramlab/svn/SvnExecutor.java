@@ -9,9 +9,9 @@ import java.util.Scanner;
 import fr.gramlab.project.GramlabProject;
 import fr.umlv.unitex.console.Couple;
 import fr.umlv.unitex.files.FileUtil;
-import fr.umlv.unitex.process.EatStreamThread;
 import fr.umlv.unitex.process.Launcher;
 import fr.umlv.unitex.process.ProcessInfoThread;
+import fr.umlv.unitex.process.StreamPump;
 import fr.umlv.unitex.process.commands.SvnCommand;
 import fr.umlv.unitex.process.list.ProcessOutputList;
 
@@ -24,12 +24,12 @@ public class SvnExecutor {
 		try {
 			Process p=Runtime.getRuntime().exec(c.getCommandArguments());
 			if (list==null) {
-				new EatStreamThread(p.getInputStream(),null).start();
+				StreamPump.eat(p.getInputStream());
 			} else {
-				new ProcessInfoThread(list,p.getInputStream(),null,false).start();
+				StreamPump.execute(new ProcessInfoThread(list,p.getInputStream(),null,false));
 			}
 			GetStreamThread waiter=new GetStreamThread(p.getErrorStream());
-			waiter.start();
+			StreamPump.execute(waiter);
 			int ret=p.waitFor();
 			if (ret==0) return new SvnCommandResult(SvnOpResult.OK,"");
 			return getSvnError(waiter.getStreamContent());			
@@ -50,8 +50,8 @@ public class SvnExecutor {
 			Process p=Runtime.getRuntime().exec(c.getCommandArguments());
 			GetStreamThread waiterOut=new GetStreamThread(p.getInputStream());
 			GetStreamThread waiterErr=new GetStreamThread(p.getErrorStream());
-			waiterOut.start();
-			waiterErr.start();
+			StreamPump.execute(waiterOut);
+			StreamPump.execute(waiterErr);
 			int ret=p.waitFor();
 			if (ret==0) return waiterOut.getStreamContent();
 			return null;			
@@ -116,8 +116,8 @@ public class SvnExecutor {
 			Process p=Runtime.getRuntime().exec(c.getCommandArguments(),null,dir);
 			GetStreamThread waiterOut=new GetStreamThread(p.getInputStream());
 			GetStreamThread waiterErr=new GetStreamThread(p.getErrorStream());
-			waiterOut.start();
-			waiterErr.start();
+			StreamPump.execute(waiterOut);
+			StreamPump.execute(waiterErr);
 			p.waitFor();
 			SvnCommandResult result=getSvnError(waiterErr.getStreamContent());
 			if (result.getOp()!=SvnOpResult.NOT_A_WORKING_COPY) {
@@ -200,8 +200,8 @@ public class SvnExecutor {
 			Process p=Runtime.getRuntime().exec(c.getCommandArguments(),null,project.getProjectDirectory());
 			GetStreamThread waiterOut=new GetStreamThread(p.getInputStream());
 			GetStreamThread waiterErr=new GetStreamThread(p.getErrorStream());
-			waiterOut.start();
-			waiterErr.start();
+			StreamPump.execute(waiterOut);
+			StreamPump.execute(waiterErr);
 			p.waitFor();
 			SvnCommandResult result=getSvnError(waiterErr.getStreamContent());
 			if (p.exitValue()==0 || result.getOp()==SvnOpResult.OK) {
@@ -282,8 +282,8 @@ public class SvnExecutor {
 			Process p=Runtime.getRuntime().exec(c.getCommandArguments(),null,dir);
 			GetStreamThread waiterOut=new GetStreamThread(p.getInputStream());
 			GetStreamThread waiterErr=new GetStreamThread(p.getErrorStream());
-			waiterOut.start();
-			waiterErr.start();
+			StreamPump.execute(waiterOut);
+			StreamPump.execute(waiterErr);
 			p.waitFor();
 			SvnCommandResult result=getSvnError(waiterErr.getStreamContent());
 			if (p.exitValue()==0 || result.getOp()==SvnOpResult.OK) {
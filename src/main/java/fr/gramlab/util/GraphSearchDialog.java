@@ -13,6 +13,11 @@ import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -20,10 +25,14 @@ import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingWorker;
 import javax.swing.event.InternalFrameAdapter;
 import javax.swing.event.InternalFrameEvent;
 
@@ -34,6 +43,9 @@ import fr.gramlab.workspace.ProjectAdapter;
 import fr.umlv.unitex.common.project.manager.GlobalProjectManager;
 import fr.umlv.unitex.frames.FrameUtil;
 import fr.umlv.unitex.frames.GraphFrame;
+import fr.umlv.unitex.frames.InternalFrameManager;
+import fr.umlv.unitex.graphtools.FindAndReplaceQuery;
+import fr.umlv.unitex.graphtools.GraphTokenIndex;
 
 @SuppressWarnings("serial")
 public class GraphSearchDialog extends JDialog {
@@ -168,10 +180,113 @@ public class GraphSearchDialog extends JDialog {
 			}
 		});
 		p.add(find,gbc);
+		JButton findAll=new JButton("Find in all graphs");
+		findAll.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (!init || pattern.getText().equals("")) {
+					JOptionPane.showMessageDialog(null, "You must type an expression to look for",
+							"Error", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+				findInAllGraphs(pattern.getText());
+			}
+		});
+		p.add(findAll,gbc);
 		KeyUtil.addCloseDialogListener(p);
 		KeyUtil.addCRListener(pattern,find);
 		KeyUtil.addCRListener(find);
 		return p;
 	}
 	
+	/**
+	 * Looks for the pattern in all the graphs of the project, or of the
+	 * directory of the graph if there is no project. The search uses the
+	 * token index of the directory, so that only the graphs that may
+	 * contain the pattern are read. Like {@link GraphFrame#find(String)},
+	 * the pattern is a case sensitive substring of the box contents.
+	 */
+	void findInAllGraphs(String text) {
+		final File dir;
+		if (project!=null) {
+			dir=project.getSrcDirectory();
+		} else if (frame.getGraph()!=null) {
+			dir=frame.getGraph().getParentFile();
+		} else {
+			JOptionPane.showMessageDialog(null, "There is no directory to look in",
+					"Error", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		final FindAndReplaceQuery query=new FindAndReplaceQuery(text,false,true,false,false);
+		new SwingWorker<Map<File,BitSet>,Void>() {
+			@Override
+			protected Map<File,BitSet> doInBackground() throws Exception {
+				final GraphTokenIndex index=GraphTokenIndex.getIndex(dir);
+				index.update();
+				return index.search(query,null);
+			}
+			
+			@Override
+			protected void done() {
+				final Map<File,BitSet> result;
+				try {
+					result=get();
+				} catch (InterruptedException e) {
+					return;
+				} catch (ExecutionException e) {
+					e.printStackTrace();
+					return;
+				}
+				if (result.isEmpty()) {
+					JOptionPane.showMessageDialog(null, "Pattern not found!",
+							"", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+				showGraphList(query.getSearch(),dir,result);
+			}
+		}.execute();
+	}
+
+	void showGraphList(String text,File dir,Map<File,BitSet> result) {
+		final ArrayList<File> graphs=new ArrayList<File>();
+		final ArrayList<String> labels=new ArrayList<String>();
+		final String prefix=dir.getAbsolutePath()+File.separator;
+		for (Map.Entry<File,BitSet> e:result.entrySet()) {
+			final int n=e.getValue().cardinality();
+			String name=e.getKey().getAbsolutePath();
+			if (name.startsWith(prefix)) {
+				name=name.substring(prefix.length());
+			}
+			graphs.add(e.getKey());
+			labels.add(name+" ("+n+(n==1?" box)":" boxes)"));
+		}
+		final JDialog d=new JDialog(this,"Graphs containing: "+text,false);
+		final JList<String> list=new JList<String>(labels.toArray(new String[labels.size()]));
+		list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		list.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount()!=2) {
+					return;
+				}
+				final int i=list.locationToIndex(e.getPoint());
+				if (i==-1) {
+					return;
+				}
+				if (project!=null) {
+					project.openFile(graphs.get(i),false);
+				} else {
+					GlobalProjectManager.search(graphs.get(i))
+						.getFrameManagerAs(InternalFrameManager.class)
+						.newGraphFrame(graphs.get(i));
+				}
+			}
+		});
+		d.setContentPane(new JScrollPane(list));
+		d.pack();
+		d.setLocationRelativeTo(this);
+		d.setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+		d.setVisible(true);
+	}
+	
 }
@@ -20,38 +20,185 @@
  */
 package fr.umlv.unitex.concord;
 
+import java.awt.Color;
 import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
 import java.io.File;
 
 import javax.swing.DefaultListCellRenderer;
+import javax.swing.JComponent;
 import javax.swing.JList;
+import javax.swing.JViewport;
+import javax.swing.ListCellRenderer;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import fr.umlv.unitex.config.ConfigManager;
 
 /**
  * This class provides a text component that can display in read-only large HTML
- * concordance files.
+ * concordance files. Lines are not rendered as HTML: they are split into left
+ * context, match and right context, that are drawn directly. Only the lines
+ * with other markup, like colored outputs, go through the HTML renderer. The
+ * rows around the visible ones are decoded in background.
  * 
  * @author Sébastien Paumier
  */
 public class BigConcordance extends JList {
+	/**
+	 * Number of rows to prefetch before and after the visible ones
+	 */
+	private static final int PREFETCH_MARGIN = 200;
+
+	private JViewport viewport;
+	private final ChangeListener viewportListener = new ChangeListener() {
+		@Override
+		public void stateChanged(ChangeEvent e) {
+			prefetchVisibleRows();
+		}
+	};
+
 	private BigConcordance(ConcordanceAsListModel m) {
 		super(m);
+		setCellRenderer(new ConcordanceRowRenderer());
 		setFont(ConfigManager.getManager().getConcordanceFont(null));
-		setCellRenderer(new DefaultListCellRenderer() {
+	}
+
+	/**
+	 * Rows all have the same height and width, so that the list does not have
+	 * to render every row to compute its size. The width is then enlarged
+	 * each time a wider row is painted.
+	 */
+	@Override
+	public void setFont(Font font) {
+		super.setFont(font);
+		if (font != null) {
+			setFixedCellHeight(getFontMetrics(font).getHeight() + 2);
+		}
+		setFixedCellWidth(1);
+	}
+
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		if (getParent() instanceof JViewport) {
+			viewport = (JViewport) getParent();
+			viewport.addChangeListener(viewportListener);
+		}
+	}
+
+	@Override
+	public void removeNotify() {
+		if (viewport != null) {
+			viewport.removeChangeListener(viewportListener);
+			viewport = null;
+		}
+		super.removeNotify();
+	}
+
+	void prefetchVisibleRows() {
+		final int first = getFirstVisibleIndex();
+		if (first == -1) {
+			return;
+		}
+		final int last = getLastVisibleIndex();
+		((ConcordanceAsListModel) getModel()).prefetch(
+				first - PREFETCH_MARGIN, last + PREFETCH_MARGIN);
+	}
+
+	/**
+	 * Draws the three parts of a concordance row. The match is displayed like
+	 * a link. Rows with markup are rendered as HTML, to keep their styles.
+	 */
+	class ConcordanceRowRenderer extends JComponent implements
+			ListCellRenderer<Object> {
+		private static final long serialVersionUID = 1L;
+		private final Color linkColor = Color.BLUE;
+		private final DefaultListCellRenderer htmlRenderer = new DefaultListCellRenderer();
+		private ConcordanceRow row;
+		private boolean selected;
+
+		ConcordanceRowRenderer() {
+			setOpaque(true);
+		}
+
+		@Override
+		public Component getListCellRendererComponent(JList<?> list,
+				Object value, int index, boolean isSelected,
+				boolean cellHasFocus) {
+			row = ((ConcordanceAsListModel) list.getModel()).getRow(index);
+			if (row.hasMarkup()) {
+				htmlRenderer.getListCellRendererComponent(list, "<html><body>"
+						+ row.getHtml() + "</body></html>", index, isSelected,
+						cellHasFocus);
+				updateCellWidth(htmlRenderer.getPreferredSize().width);
+				return htmlRenderer;
+			}
+			selected = isSelected;
+			setFont(list.getFont());
+			setBackground(isSelected ? list.getSelectionBackground() : list
+					.getBackground());
+			setForeground(isSelected ? list.getSelectionForeground() : list
+					.getForeground());
+			return this;
+		}
+
+		@Override
+		public Dimension getPreferredSize() {
+			final FontMetrics metrics = getFontMetrics(getFont());
+			final int width = metrics.stringWidth(row.getLeft())
+					+ metrics.stringWidth(row.getMatch())
+					+ metrics.stringWidth(row.getRight()) + 4;
+			updateCellWidth(width);
+			return new Dimension(width, metrics.getHeight() + 2);
+		}
+
+		@Override
+		protected void paintComponent(Graphics g) {
+			g.setColor(getBackground());
+			g.fillRect(0, 0, getWidth(), getHeight());
+			if (row == null) {
+				return;
+			}
+			g.setFont(getFont());
+			final FontMetrics metrics = g.getFontMetrics();
+			final int y = 1 + metrics.getAscent();
+			int x = 2;
+			g.setColor(getForeground());
+			g.drawString(row.getLeft(), x, y);
+			x += metrics.stringWidth(row.getLeft());
+			final int matchWidth = metrics.stringWidth(row.getMatch());
+			if (!selected) {
+				g.setColor(linkColor);
+			}
+			g.drawString(row.getMatch(), x, y);
+			g.drawLine(x, y + 1, x + matchWidth - 1, y + 1);
+			x += matchWidth;
+			g.setColor(getForeground());
+			g.drawString(row.getRight(), x, y);
+			final int width = x + metrics.stringWidth(row.getRight()) + 2;
+			updateCellWidth(width);
+		}
+	}
+
+	/**
+	 * As the width of the rows is fixed, we enlarge it when we meet a wider
+	 * row. This is done later, since it is not allowed while painting.
+	 */
+	void updateCellWidth(final int width) {
+		if (width <= getFixedCellWidth()) {
+			return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
 			@Override
-			public Component getListCellRendererComponent(JList list,
-					Object value, int index, boolean isSelected,
-					boolean cellHasFocus) {
-				super.getListCellRendererComponent(list, value, index,
-						isSelected, cellHasFocus);
-				final StringBuilder builder = new StringBuilder();
-				builder.append("<html><body>");
-				final String s = (String) value;
-				builder.append(s);
-				builder.append("</body></html>");
-				setText(builder.toString());
-				return this;
+			public void run() {
+				if (width > getFixedCellWidth()) {
+					setFixedCellWidth(width);
+				}
 			}
 		});
 	}
@@ -62,9 +209,19 @@ public class BigConcordance extends JList {
 
 	public void load(File f) {
 		final ConcordanceAsListModel model = (ConcordanceAsListModel) getModel();
+		setFixedCellWidth(1);
 		model.load(f);
 	}
 
+	/**
+	 * Displays only the lines accepted by the given filter, or all the lines
+	 * if it is null.
+	 */
+	public void setFilter(ConcordanceFilter filter) {
+		clearSelection();
+		((ConcordanceAsListModel) getModel()).setFilter(filter);
+	}
+
 	public void reset() {
 		final ConcordanceAsListModel model = (ConcordanceAsListModel) getModel();
 		model.reset();
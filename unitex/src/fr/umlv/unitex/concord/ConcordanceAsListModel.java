@@ -21,20 +21,28 @@
 package fr.umlv.unitex.concord;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.ref.PhantomReference;
-import java.lang.ref.ReferenceQueue;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.AbstractListModel;
 import javax.swing.SwingWorker;
 
+import fr.umlv.unitex.io.Encoding;
+import fr.umlv.unitex.io.LineHandler;
+import fr.umlv.unitex.io.MappedFile;
+import fr.umlv.unitex.io.ParallelLineScanner;
 import fr.umlv.unitex.text.Interval;
+import fr.umlv.unitex.utils.ComputePool;
 
 /**
  * This is a model for representing an HTML concordance file as the list of its
@@ -52,93 +60,143 @@ public class ConcordanceAsListModel extends AbstractListModel {
 	int HTML_START_LINES = 7;
 	private int HTML_END_LINES = 2;
 	private int HTML_CONTROL_LINES = HTML_START_LINES + HTML_END_LINES;
-	MappedByteBuffer buffer;
-	private int dataLength;
-	private SwingWorker<Void, Integer> worker;
+	MappedFile mappedFile;
+	private long dataLength;
+	private SwingWorker<Void, long[]> worker;
 	Interval selection;
-	private FileChannel channel;
-	private FileInputStream stream;
 	private File file;
 	static final Charset utf8 = Charset.forName("UTF-8");
-	private int[] endOfLines;
+	private long[] endOfLines;
 	private int numberOfEOL;
+	/**
+	 * Decoded rows are kept in a LRU cache, so that repainting or scrolling
+	 * back does not decode them again.
+	 */
+	private static final int ROW_CACHE_SIZE = 4096;
+	private final LinkedHashMap<Integer, ConcordanceRow> rows = new LinkedHashMap<Integer, ConcordanceRow>(
+			2 * ROW_CACHE_SIZE, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<Integer, ConcordanceRow> eldest) {
+			return size() > ROW_CACHE_SIZE;
+		}
+	};
+	/*
+	 * Incremented each time the file changes, so that rows decoded by a late
+	 * prefetch task are not mixed with the ones of the new file
+	 */
+	private int generation = 0;
+	private static final ExecutorService prefetcher = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread t = new Thread(r, "Concordance prefetch");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+	private final AtomicInteger prefetchRequest = new AtomicInteger();
+	/**
+	 * When a filter is set, only the rows whose numbers are in view are
+	 * displayed. The view is filled progressively by filterWorker.
+	 */
+	private ConcordanceFilter filter;
+	private int[] view;
+	private int viewSize;
+	private SwingWorker<Void, int[]> filterWorker;
+	private static final int FILTER_CHUNK_SIZE = 4096;
 
-	public void load(File f) {
+	public void load(final File f) {
 		this.file = f;
-		setDataLength((int) file.length());
-		endOfLines = new int[0];
+		setDataLength(file.length());
+		endOfLines = new long[0];
 		numberOfEOL = 0;
+		clearRows();
+		final MappedFile previous = mappedFile;
 		try {
-			stream = new FileInputStream(file);
-		} catch (final FileNotFoundException e) {
-			e.printStackTrace();
-			return;
-		}
-		channel = stream.getChannel();
-		try {
-			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
-					getDataLength());
+			mappedFile = MappedFile.open(file);
 		} catch (final IOException e) {
 			e.printStackTrace();
 			return;
 		}
-		worker = new SwingWorker<Void, Integer>() {
+		if (worker != null) {
+			worker.cancel(true);
+			worker = null;
+		}
+		if (previous != null) {
+			previous.release();
+		}
+		/*
+		 * The worker must not use the mappedFile field, that is released by
+		 * reset, so it holds its own reference to the mapping
+		 */
+		final MappedFile parsedFile = mappedFile.retain();
+		final AtomicBoolean owned = new AtomicBoolean(false);
+		worker = new SwingWorker<Void, long[]>() {
 			@Override
 			protected Void doInBackground() throws Exception {
-				int lastStart = 0;
-				for (int pos = 0; pos < getDataLength(); pos = pos + 1) {
-					final int a = 0xFF & buffer.get(pos);
-					if (a == '\n') {
-						// if we have an end-of-line
-						publish(pos);
-						setProgress(100 * pos / getDataLength());
-						lastStart = pos + 1;
+				if (!owned.compareAndSet(false, true)) {
+					return null;
+				}
+				try {
+					return scan();
+				} finally {
+					parsedFile.release();
+				}
+			}
+
+			private Void scan() {
+				final long length = getDataLength();
+				final EndOfLineCollector collector = new EndOfLineCollector();
+				final ParallelLineScanner scanner = new ParallelLineScanner(
+						Encoding.UTF8, parsedFile);
+				try {
+					for (int i = 0; i < scanner.getChunkCount(); i++) {
+						if (isCancelled()) {
+							return null;
+						}
+						final ParallelLineScanner.Chunk chunk = scanner
+								.getChunk(i);
+						chunk.replay(collector);
+						if (collector.size > 0) {
+							publish(collector.toArray());
+						}
+						setProgress((int) (chunk.getEnd() * 100 / length));
 					}
+				} catch (final CancellationException e) {
+					return null;
+				} finally {
+					scanner.cancelAndWait();
 				}
-				if (lastStart < (getDataLength() - 1)) {
-					publish(getDataLength() - 1);
-					setProgress(100);
+				if (collector.last < length - 2) {
+					/* If the file does not end with a new line */
+					collector.newLine(length - 1, 0);
+					publish(collector.toArray());
 				}
-				/*
-				 * We publish a negative position in order to inform the
-				 * progress method that there are no more ends of line.
-				 */
-				publish(-1);
+				setProgress(100);
 				return null;
 			}
 
 			@SuppressWarnings("synthetic-access")
 			@Override
-			protected void process(java.util.List<Integer> chunks) {
+			protected void process(java.util.List<long[]> chunks) {
 				final int oldSize = numberOfEOL;
-				int newSize = oldSize + chunks.size();
-				int multiplier = 1;
+				int newSize = oldSize;
+				for (final long[] chunk : chunks) {
+					newSize += chunk.length;
+				}
 				/*
 				 * We check if it is necessary to enlarge the EOL array
 				 */
-				if (endOfLines.length == 0) {
-					endOfLines = new int[1];
-				}
-				while (multiplier * endOfLines.length < newSize) {
-					multiplier = 2 * multiplier;
-				}
-				int[] temp = endOfLines;
-				if (multiplier != 1) {
-					temp = Arrays.copyOf(endOfLines, multiplier
-							* endOfLines.length);
+				long[] temp = endOfLines;
+				if (newSize > temp.length) {
+					temp = Arrays.copyOf(endOfLines,
+							Math.max(newSize, 2 * endOfLines.length));
 				}
 				int insertPos = oldSize;
-				for (final Integer i : chunks) {
-					if (i < 0) {
-						/*
-						 * We assume that a negative position means the end of
-						 * the new lines, and, so, we resize the array.
-						 */
-						temp = Arrays.copyOf(temp, insertPos);
-						newSize = insertPos;
-						break;
-					}
-					temp[insertPos++] = i;
+				for (final long[] chunk : chunks) {
+					System.arraycopy(chunk, 0, temp, insertPos, chunk.length);
+					insertPos += chunk.length;
 				}
 				/*
 				 * If we keep the following instructions in this order, there is
@@ -146,12 +204,53 @@ public class ConcordanceAsListModel extends AbstractListModel {
 				 */
 				endOfLines = temp;
 				numberOfEOL = newSize;
-				fireIntervalAdded(this, oldSize, newSize - 1);
+				if (view == null) {
+					fireIntervalAdded(this, oldSize, newSize - 1);
+				}
+			}
+
+			@Override
+			protected void done() {
+				/* The worker may have been cancelled before starting */
+				if (owned.compareAndSet(false, true)) {
+					parsedFile.release();
+				}
+				if (!isCancelled() && worker == this) {
+					if (filter != null) {
+						/* The filter was only applied on the first rows */
+						setFilter(filter);
+					}
+				}
 			}
 		};
 		worker.execute();
 	}
 
+	/**
+	 * Accumulates the positions of the ends of line found by
+	 * Encoding.scanLines.
+	 */
+	static class EndOfLineCollector implements LineHandler {
+		long[] positions = new long[1024];
+		int size = 0;
+		long last = -1;
+
+		@Override
+		public void newLine(long position, int chars) {
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, 2 * size);
+			}
+			positions[size++] = position;
+			last = position;
+		}
+
+		long[] toArray() {
+			final long[] result = Arrays.copyOf(positions, size);
+			size = 0;
+			return result;
+		}
+	}
+
 	public ConcordanceAsListModel() {
 		super();
 	}
@@ -164,6 +263,17 @@ public class ConcordanceAsListModel extends AbstractListModel {
 
 	@Override
 	public int getSize() {
+		if (view != null) {
+			return viewSize;
+		}
+		return getRowCount();
+	}
+
+	/**
+	 * Returns the number of rows of the concordance, regardless of the
+	 * filter.
+	 */
+	public int getRowCount() {
 		final int size = numberOfEOL - HTML_CONTROL_LINES;
 		if (size < 0)
 			return 0;
@@ -174,23 +284,22 @@ public class ConcordanceAsListModel extends AbstractListModel {
 	 * Returns the text corresponding to the paragraph #i.
 	 */
 	String getElementReallyAt(int i) {
-		final Interval interval = getInterval(i);
-		final long start = interval.getStartInBytes() + 15; // we don't want
-		// neither the
-		// <tr><td nowrap>
-		final long end = interval.getEndInBytes() - 12; // nor the
-		// </td></tr>\r\n
-		final byte[] tmp = new byte[(int) (end - start + 1)];
-		int z = 0;
-		for (long pos = start; pos <= end; pos++) {
-			tmp[z++] = buffer.get((int) pos);
-		}
-		return new String(tmp, utf8);
+		return getElementReallyAt(mappedFile, endOfLines, i);
+	}
+
+	private static String getElementReallyAt(MappedFile file,
+			long[] endOfLines, int i) {
+		final long end = endOfLines[i];
+		final long start = (i == 0) ? 0 : (endOfLines[i - 1] + 1);
+		/*
+		 * We want neither the <tr><td nowrap> nor the </td></tr>\r\n
+		 */
+		return file.getString(start + 15, end - 11, utf8);
 	}
 
 	Interval getInterval(int i) {
-		final int end = endOfLines[i];
-		final int start = (i == 0) ? 0 : (endOfLines[i - 1] + 1);
+		final long end = endOfLines[i];
+		final long start = (i == 0) ? 0 : (endOfLines[i - 1] + 1);
 		return new Interval(start, end, -1, -1);
 	}
 
@@ -199,8 +308,97 @@ public class ConcordanceAsListModel extends AbstractListModel {
 	 */
 	@Override
 	public Object getElementAt(int i) {
-		final int realIndex = i + HTML_START_LINES;
-		return getElementReallyAt(realIndex);
+		return getRow(i).getHtml();
+	}
+
+	/**
+	 * Returns the concordance line #i of the view, split into its left
+	 * context, match and right context.
+	 */
+	public ConcordanceRow getRow(int index) {
+		final int i = (view == null) ? index : view[index];
+		synchronized (rows) {
+			final ConcordanceRow row = rows.get(i);
+			if (row != null) {
+				return row;
+			}
+		}
+		final ConcordanceRow row = ConcordanceRow
+				.parse(getElementReallyAt(i + HTML_START_LINES));
+		synchronized (rows) {
+			rows.put(i, row);
+		}
+		return row;
+	}
+
+	/**
+	 * Decodes in background the rows of the view from first to last
+	 * (inclusive) that are not in the cache yet. A new call cancels the
+	 * previous prefetch, since the user has probably scrolled away.
+	 */
+	public void prefetch(int first, int last) {
+		if (mappedFile == null) {
+			return;
+		}
+		final int from = Math.max(0, first);
+		final int to = Math.min(Math.min(last, getSize() - 1), from
+				+ ROW_CACHE_SIZE / 2);
+		if (from > to) {
+			return;
+		}
+		final int[] ids = new int[to - from + 1];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = (view == null) ? from + i : view[from + i];
+		}
+		/*
+		 * The previous tasks are not cancelled through their Future, because
+		 * they must run to release their reference to the mapping. They stop
+		 * as soon as they see that a newer request has been made
+		 */
+		final int request = prefetchRequest.incrementAndGet();
+		final MappedFile file = mappedFile.retain();
+		final long[] eol = endOfLines;
+		final int g = generation;
+		final int offset = HTML_START_LINES;
+		prefetcher.execute(new Runnable() {
+			@SuppressWarnings("synthetic-access")
+			@Override
+			public void run() {
+				try {
+					for (final int i : ids) {
+						if (request != prefetchRequest.get()) {
+							return;
+						}
+						synchronized (rows) {
+							if (g != generation) {
+								return;
+							}
+							if (rows.containsKey(i)) {
+								continue;
+							}
+						}
+						final ConcordanceRow row = ConcordanceRow
+								.parse(getElementReallyAt(file, eol, i + offset));
+						synchronized (rows) {
+							if (g != generation) {
+								return;
+							}
+							rows.put(i, row);
+						}
+					}
+				} finally {
+					file.release();
+				}
+			}
+		});
+	}
+
+	private void clearRows() {
+		prefetchRequest.incrementAndGet();
+		synchronized (rows) {
+			generation++;
+			rows.clear();
+		}
 	}
 
 	/**
@@ -212,44 +410,191 @@ public class ConcordanceAsListModel extends AbstractListModel {
 
 	
 	public void reset() {
-		if (buffer != null) {
-			ReferenceQueue<MappedByteBuffer> queue=new ReferenceQueue<MappedByteBuffer>();
-			new PhantomReference<MappedByteBuffer>(buffer,queue);
-			buffer = null;
-			while (queue.poll()!=null) {
-				System.gc();
+		if (worker != null) {
+			worker.cancel(true);
+			worker = null;
+		}
+		cancelFilter();
+		filter = null;
+		view = null;
+		viewSize = 0;
+		clearRows();
+		if (mappedFile != null) {
+			mappedFile.release();
+			mappedFile = null;
+		}
+	}
+
+	public ConcordanceFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * Displays only the rows accepted by the given filter, or all the rows if
+	 * it is null. Rows are tested in parallel in background, and the view is
+	 * filled progressively. Setting a new filter cancels the previous one.
+	 */
+	public void setFilter(final ConcordanceFilter f) {
+		cancelFilter();
+		filter = f;
+		final int oldSize = getSize();
+		view = new int[1024];
+		viewSize = 0;
+		if (oldSize > 0) {
+			fireIntervalRemoved(this, 0, oldSize - 1);
+		}
+		if (f == null || mappedFile == null) {
+			view = null;
+			if (getSize() > 0) {
+				fireIntervalAdded(this, 0, getSize() - 1);
+			}
+			return;
+		}
+		final MappedFile file = mappedFile.retain();
+		final AtomicBoolean owned = new AtomicBoolean(false);
+		final long[] eol = endOfLines;
+		final int n = getRowCount();
+		final int offset = HTML_START_LINES;
+		filterWorker = new SwingWorker<Void, int[]>() {
+			@Override
+			protected Void doInBackground() throws Exception {
+				if (!owned.compareAndSet(false, true)) {
+					return null;
+				}
+				final FilterChunk[] chunks = new FilterChunk[(n
+						+ FILTER_CHUNK_SIZE - 1)
+						/ FILTER_CHUNK_SIZE];
+				final AtomicBoolean stop = new AtomicBoolean(false);
+				for (int i = 0; i < chunks.length; i++) {
+					chunks[i] = new FilterChunk(file, eol, offset, f, i
+							* FILTER_CHUNK_SIZE, Math.min(n, (i + 1)
+							* FILTER_CHUNK_SIZE), stop);
+					ComputePool.get().execute(chunks[i]);
+				}
 				try {
-					Thread.sleep(500);
-				} catch (InterruptedException e) {
-					/* do nothing */
+					/*
+					 * Chunks are published in order, so that the view is
+					 * sorted like the concordance
+					 */
+					for (int i = 0; i < chunks.length; i++) {
+						if (isCancelled()) {
+							return null;
+						}
+						final int[] hits = chunks[i].join();
+						if (hits.length > 0) {
+							publish(hits);
+						}
+						setProgress((int) ((i + 1) * 100L / chunks.length));
+					}
+				} catch (final CancellationException e) {
+					return null;
+				} finally {
+					stop.set(true);
+					for (final FilterChunk c : chunks) {
+						if (c != null) {
+							c.quietlyJoin();
+						}
+					}
+					file.release();
 				}
-				Thread.yield();
+				return null;
 			}
-		}
-		if (channel != null) {
-			try {
-				channel.close();
-			} catch (final IOException e) {
-				e.printStackTrace();
+
+			@SuppressWarnings("synthetic-access")
+			@Override
+			protected void process(java.util.List<int[]> chunks) {
+				if (filterWorker != this) {
+					return;
+				}
+				final int size = viewSize;
+				int newSize = size;
+				for (final int[] chunk : chunks) {
+					newSize += chunk.length;
+				}
+				int[] temp = view;
+				if (newSize > temp.length) {
+					temp = Arrays.copyOf(view, Math.max(newSize,
+							2 * view.length));
+				}
+				int insertPos = size;
+				for (final int[] chunk : chunks) {
+					System.arraycopy(chunk, 0, temp, insertPos, chunk.length);
+					insertPos += chunk.length;
+				}
+				view = temp;
+				viewSize = newSize;
+				fireIntervalAdded(this, size, newSize - 1);
 			}
-			channel = null;
+
+			@Override
+			protected void done() {
+				if (owned.compareAndSet(false, true)) {
+					file.release();
+				}
+			}
+		};
+		filterWorker.execute();
+	}
+
+	private void cancelFilter() {
+		if (filterWorker != null) {
+			filterWorker.cancel(true);
+			filterWorker = null;
+		}
+	}
+
+	/**
+	 * Tests the rows from start (inclusive) to end (exclusive) and returns
+	 * the numbers of the accepted ones.
+	 */
+	static class FilterChunk extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		private final MappedFile file;
+		private final long[] endOfLines;
+		private final int offset;
+		private final ConcordanceFilter filter;
+		private final int start;
+		private final int end;
+		private final AtomicBoolean stop;
+
+		FilterChunk(MappedFile file, long[] endOfLines, int offset,
+				ConcordanceFilter filter, int start, int end,
+				AtomicBoolean stop) {
+			this.file = file;
+			this.endOfLines = endOfLines;
+			this.offset = offset;
+			this.filter = filter;
+			this.start = start;
+			this.end = end;
+			this.stop = stop;
 		}
-		if (stream != null) {
-			try {
-				stream.close();
-			} catch (final IOException e) {
-				e.printStackTrace();
+
+		@Override
+		protected int[] compute() {
+			int[] hits = new int[64];
+			int n = 0;
+			for (int i = start; i < end; i++) {
+				if (stop.get()) {
+					break;
+				}
+				final ConcordanceRow row = ConcordanceRow
+						.parse(getElementReallyAt(file, endOfLines, i + offset));
+				if (filter.accept(row)) {
+					if (n == hits.length) {
+						hits = Arrays.copyOf(hits, 2 * n);
+					}
+					hits[n++] = i;
+				}
 			}
-			stream = null;
+			return Arrays.copyOf(hits, n);
 		}
-		System.gc();
 	}
 
-	public void setDataLength(int dataLength) {
+	public void setDataLength(long dataLength) {
 		this.dataLength = dataLength;
 	}
 
-	public int getDataLength() {
+	public long getDataLength() {
 		return dataLength;
 	}
 }
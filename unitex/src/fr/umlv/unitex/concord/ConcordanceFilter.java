@@ -0,0 +1,93 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.concord;
+
+import java.util.regex.Pattern;
+
+/**
+ * This is a predicate used to narrow the lines displayed by a concordance
+ * frame, without running Concord again. It is tested on the plain text of the
+ * lines, as displayed by BigConcordance.
+ */
+public class ConcordanceFilter {
+	public enum Type {
+		/**
+		 * Case-insensitive search of the text in the whole line
+		 */
+		SUBSTRING,
+		/**
+		 * Search of a regular expression in the whole line
+		 */
+		REGEX,
+		/**
+		 * Case-insensitive search of the text in the match only
+		 */
+		MATCH
+	}
+
+	private final Type type;
+	private final String text;
+	private final Pattern pattern;
+
+	/**
+	 * @throws java.util.regex.PatternSyntaxException
+	 *             if type is REGEX and text is not a valid regular expression
+	 */
+	public ConcordanceFilter(Type type, String text) {
+		this.type = type;
+		this.text = text;
+		this.pattern = (type == Type.REGEX) ? Pattern.compile(text) : null;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * This method may be called concurrently from several threads.
+	 */
+	public boolean accept(ConcordanceRow row) {
+		switch (type) {
+		case REGEX:
+			return pattern.matcher(
+					row.getLeft() + row.getMatch() + row.getRight()).find();
+		case MATCH:
+			return containsIgnoreCase(row.getMatch(), text);
+		default:
+			return containsIgnoreCase(
+					row.getLeft() + row.getMatch() + row.getRight(), text);
+		}
+	}
+
+	private static boolean containsIgnoreCase(String s, String sub) {
+		final int max = s.length() - sub.length();
+		for (int i = 0; i <= max; i++) {
+			if (s.regionMatches(true, i, sub, 0, sub.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
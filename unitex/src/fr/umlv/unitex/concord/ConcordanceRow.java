@@ -0,0 +1,196 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.concord;
+
+/**
+ * This is a concordance line split into its left context, match and right
+ * context, as plain text. HTML tags and comments are removed and entities are
+ * decoded, so that the line can be drawn without an HTML renderer. The raw
+ * HTML line is kept, since the frames parse the link of the match, and since
+ * lines with markup, like the colors of outputs, must be rendered as HTML.
+ */
+public class ConcordanceRow {
+	private final String html;
+	private final String left;
+	private final String match;
+	private final String right;
+	private final boolean markup;
+
+	private ConcordanceRow(String html, String left, String match,
+			String right, boolean markup) {
+		this.html = html;
+		this.left = left;
+		this.match = match;
+		this.right = right;
+		this.markup = markup;
+	}
+
+	public String getHtml() {
+		return html;
+	}
+
+	public String getLeft() {
+		return left;
+	}
+
+	public String getMatch() {
+		return match;
+	}
+
+	public String getRight() {
+		return right;
+	}
+
+	/**
+	 * Returns true if the line contains HTML tags other than the link of the
+	 * match, so that its plain text does not show it as it should be.
+	 */
+	public boolean hasMarkup() {
+		return markup;
+	}
+
+	/**
+	 * Splits the given HTML concordance line around its &lt;a href...&gt;
+	 * link. If there is no link, the whole line is considered as left context.
+	 */
+	public static ConcordanceRow parse(String html) {
+		final int a = html.indexOf("<a ");
+		if (a == -1) {
+			return new ConcordanceRow(html, toText(html, 0, html.length()),
+					"", "", hasTags(html, 0, html.length()));
+		}
+		final int matchStart = html.indexOf('>', a) + 1;
+		int matchEnd = html.indexOf("</a>", matchStart);
+		if (matchStart == 0 || matchEnd == -1) {
+			return new ConcordanceRow(html, toText(html, 0, html.length()),
+					"", "", true);
+		}
+		final String left = toText(html, 0, a);
+		final String match = toText(html, matchStart, matchEnd);
+		final boolean markup = hasTags(html, 0, a)
+				|| hasTags(html, matchStart, matchEnd);
+		matchEnd += 4;
+		final String right = toText(html, matchEnd, html.length());
+		return new ConcordanceRow(html, left, match, right, markup
+				|| hasTags(html, matchEnd, html.length()));
+	}
+
+	/**
+	 * Returns true if the given HTML fragment contains a tag. Comments are not
+	 * displayed, so they are not considered as tags.
+	 */
+	static boolean hasTags(String html, int start, int end) {
+		int i = html.indexOf('<', start);
+		while (i != -1 && i < end) {
+			if (!html.startsWith("<!--", i)) {
+				return true;
+			}
+			final int pos = html.indexOf("-->", i + 4);
+			if (pos == -1) {
+				return false;
+			}
+			i = html.indexOf('<', pos + 3);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the text of the given HTML fragment, as an HTML renderer would
+	 * display it: tags and comments are ignored, entities are decoded and
+	 * sequences of white spaces are displayed as a single space.
+	 */
+	static String toText(String html, int start, int end) {
+		final StringBuilder b = new StringBuilder(end - start);
+		boolean space = false;
+		int i = start;
+		while (i < end) {
+			final char c = html.charAt(i);
+			if (c == '<') {
+				if (html.startsWith("<!--", i)) {
+					final int pos = html.indexOf("-->", i + 4);
+					i = (pos == -1 || pos >= end) ? end : pos + 3;
+				} else {
+					final int pos = html.indexOf('>', i + 1);
+					i = (pos == -1 || pos >= end) ? end : pos + 1;
+				}
+				continue;
+			}
+			if (Character.isWhitespace(c)) {
+				if (!space) {
+					b.append(' ');
+					space = true;
+				}
+				i++;
+				continue;
+			}
+			space = false;
+			if (c == '&') {
+				final int pos = html.indexOf(';', i + 1);
+				if (pos != -1 && pos < end && pos - i <= 10) {
+					final int decoded = decodeEntity(html, i + 1, pos);
+					if (decoded != -1) {
+						b.append((char) decoded);
+						i = pos + 1;
+						continue;
+					}
+				}
+			}
+			b.append(c);
+			i++;
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Returns the char corresponding to the entity between start and end, or
+	 * -1 if it is not known.
+	 */
+	private static int decodeEntity(String s, int start, int end) {
+		final String name = s.substring(start, end);
+		if ("amp".equals(name))
+			return '&';
+		if ("lt".equals(name))
+			return '<';
+		if ("gt".equals(name))
+			return '>';
+		if ("quot".equals(name))
+			return '"';
+		if ("apos".equals(name))
+			return '\'';
+		if ("nbsp".equals(name))
+			return ' ';
+		if (name.length() > 1 && name.charAt(0) == '#') {
+			try {
+				final int n;
+				if (name.charAt(1) == 'x' || name.charAt(1) == 'X') {
+					n = Integer.parseInt(name.substring(2), 16);
+				} else {
+					n = Integer.parseInt(name.substring(1));
+				}
+				if (n >= 0 && n <= Character.MAX_VALUE)
+					return n;
+			} catch (final NumberFormatException e) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+}
@@ -22,7 +22,8 @@ package fr.umlv.unitex.console;
 
 public class ConsoleEntry {
 	private final String content;
-	private String error;
+	/* Built incrementally, since programs may print many error lines */
+	private StringBuilder error;
 	/* 0=no error button, 1=error down button, 2=error up button, 3=nothing */
 	private int status;
 	private final boolean systemMsg;
@@ -66,18 +67,19 @@ public class ConsoleEntry {
 
 	public void addErrorMessage(String s) {
 		if (error == null) {
-			error = s;
+			error = new StringBuilder(s);
 			status = 1;
 		} else {
-			if (!error.endsWith("\r\n") && !error.endsWith("\n")) {
-				error = error + "\n";
+			if (error.length() == 0
+					|| error.charAt(error.length() - 1) != '\n') {
+				error.append('\n');
 			}
-			error = error + s;
+			error.append(s);
 		}
 	}
 
 	public String getErrorMessage() {
-		return error;
+		return (error == null) ? null : error.toString();
 	}
 
 	@Override
@@ -99,6 +101,7 @@ public class ConsoleEntry {
 	public void setErrorStreamEnded(boolean errorStreamEnded) {
 		synchronized (lock) {
 			this.errorStreamEnded = errorStreamEnded;
+			lock.notifyAll();
 		}
 	}
 
@@ -111,6 +114,28 @@ public class ConsoleEntry {
 	public void setNormalStreamEnded(boolean normalStreamEnded) {
 		synchronized (lock) {
 			this.normalStreamEnded = normalStreamEnded;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Blocks until both the normal and the error streams of the command have
+	 * been read entirely, or until the given delay has expired.
+	 * 
+	 * @return true if both streams have ended
+	 */
+	public boolean waitForStreamsEnded(long timeoutMillis)
+			throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (lock) {
+			while (!normalStreamEnded || !errorStreamEnded) {
+				final long delay = deadline - System.currentTimeMillis();
+				if (delay <= 0) {
+					return false;
+				}
+				lock.wait(delay);
+			}
+			return true;
 		}
 	}
 
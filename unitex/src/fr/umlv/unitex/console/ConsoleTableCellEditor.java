@@ -36,9 +36,15 @@ import fr.umlv.unitex.frames.ConsoleFrame;
 public class ConsoleTableCellEditor extends AbstractCellEditor implements
 		TableCellEditor {
 	private final JButton button;
-	private int currentRow = -1;
+	private final ConsoleTableModel model;
+	/*
+	 * The entry being edited. We do not keep its row, since it changes when
+	 * older entries are removed from the table
+	 */
+	private ConsoleEntry currentEntry;
 
 	public ConsoleTableCellEditor(final ConsoleTableModel model) {
+		this.model = model;
 		button = new JButton();
 		button.setHorizontalAlignment(SwingConstants.CENTER);
 		button.setBorderPainted(false);
@@ -49,16 +55,17 @@ public class ConsoleTableCellEditor extends AbstractCellEditor implements
 			@Override
 			@SuppressWarnings("synthetic-access")
 			public void actionPerformed(ActionEvent e) {
-				if (button.getIcon() == ConsoleFrame.statusErrorDown) {
+				final ConsoleEntry entry = currentEntry;
+				final int currentRow = (entry == null) ? -1 : model
+						.indexOf(entry);
+				if (currentRow == -1) {
+					/* The entry has been removed meanwhile */
+				} else if (button.getIcon() == ConsoleFrame.statusErrorDown) {
 					/* If we want to show an error message */
-					final ConsoleEntry entry = model
-							.getConsoleEntry(currentRow);
 					Console.addCommand(entry.getErrorMessage(), false,
 							currentRow + 1, false, null);
 					entry.setStatus(2);
 				} else {
-					final ConsoleEntry entry = model
-							.getConsoleEntry(currentRow);
 					/*
 					 * We reset the error button of the father to the down
 					 * position
@@ -76,7 +83,7 @@ public class ConsoleTableCellEditor extends AbstractCellEditor implements
 			boolean isSelected, int row, int column) {
 		final Integer i = (Integer) value;
 		if (i == 0 || i == 3) {
-			currentRow = -1;
+			currentEntry = null;
 			return null;
 		}
 		if (i == 1) {
@@ -85,7 +92,7 @@ public class ConsoleTableCellEditor extends AbstractCellEditor implements
 		if (i == 2) {
 			button.setIcon(ConsoleFrame.statusErrorUp);
 		}
-		currentRow = row;
+		currentEntry = model.getConsoleEntry(row);
 		return button;
 	}
 
@@ -20,14 +20,33 @@
  */
 package fr.umlv.unitex.console;
 
+import java.io.File;
 import java.util.ArrayList;
 
 import javax.swing.table.AbstractTableModel;
 
+/**
+ * The entries of the console. Their number is bounded: when there are too
+ * many of them, the oldest ones are written into a {@link SpillFile} with their
+ * error messages, and removed from the table.
+ */
 public class ConsoleTableModel extends AbstractTableModel {
+	public static final int DEFAULT_MAX_ENTRIES = 5000;
+
 	private final ArrayList<ConsoleEntry> data;
+	private final int maxEntries;
+	private final SpillFile spill = new SpillFile("unitex-console");
 
 	public ConsoleTableModel() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	public ConsoleTableModel(int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Invalid maximum size: "
+					+ maxEntries);
+		}
+		this.maxEntries = maxEntries;
 		data = new ArrayList<ConsoleEntry>();
 	}
 
@@ -75,9 +94,61 @@ public class ConsoleTableModel extends AbstractTableModel {
 				+ columnIndex);
 	}
 
-	public void addConsoleEntry(int index, ConsoleEntry e) {
+	/**
+	 * Inserts the given entry at the given index. This may remove the oldest
+	 * entries, and so the entry may not be at this index anymore afterwards.
+	 * 
+	 * @return the index of the entry, or -1 if it has been removed as well
+	 */
+	public int addConsoleEntry(int index, ConsoleEntry e) {
 		data.add(index, e);
 		fireTableRowsInserted(index, index);
+		if (data.size() > maxEntries) {
+			return index - removeOldestEntries();
+		}
+		return index;
+	}
+
+	/**
+	 * @return the number of entries removed
+	 */
+	private int removeOldestEntries() {
+		int n = 0;
+		while (data.size() - n > maxEntries) {
+			final ConsoleEntry e = data.get(n++);
+			spill(e);
+			if (e.getStatus() == 2 && n < data.size()) {
+				/*
+				 * The error message is displayed in the next row, that must
+				 * be removed as well
+				 */
+				n++;
+			}
+		}
+		data.subList(0, n).clear();
+		spill.flush();
+		fireTableRowsDeleted(0, n - 1);
+		return n;
+	}
+
+	private void spill(ConsoleEntry e) {
+		final String id = e.getlogID();
+		spill.write((id == null) ? e.getContent() : "[" + id + "] "
+				+ e.getContent());
+		if (e.getStatus() == 1 || e.getStatus() == 2) {
+			final String error = e.getErrorMessage();
+			if (error != null) {
+				spill.write(error);
+			}
+		}
+	}
+
+	/**
+	 * Returns the file that contains the entries that have been removed
+	 * because there were too many of them, or null if there is none.
+	 */
+	public File getSpillFile() {
+		return spill.getFile();
 	}
 
 	@Override
@@ -104,6 +175,14 @@ public class ConsoleTableModel extends AbstractTableModel {
 		return data.get(index);
 	}
 
+	/**
+	 * Returns the index of the given entry, or -1 if it is not in the table
+	 * anymore.
+	 */
+	public int indexOf(ConsoleEntry e) {
+		return data.indexOf(e);
+	}
+
 	public void removeEntry(int index) {
 		data.remove(index);
 		fireTableRowsDeleted(index, index);
@@ -0,0 +1,125 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.console;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * This is a text file in which the console models write the lines they drop
+ * when they reach their maximum size, so that long sessions use a bounded
+ * amount of memory without losing anything. The file is created in the
+ * temporary directory at the first write, and deleted when the program exits.
+ * If it cannot be written, lines are just dropped. A file that is still open
+ * when the program exits is closed first, since an open file cannot be
+ * deleted on some systems.
+ */
+public class SpillFile {
+	private final String prefix;
+	private File file;
+	private Writer writer;
+	private boolean failed = false;
+	private boolean closed = false;
+	private Thread closeOnExit;
+
+	public SpillFile(String prefix) {
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Appends the given line to the file. The file is only flushed by
+	 * {@link #flush()}, so that a batch of lines costs a single write.
+	 */
+	public synchronized void write(String line) {
+		if (failed || closed) {
+			return;
+		}
+		try {
+			if (writer == null) {
+				file = File.createTempFile(prefix, ".txt");
+				file.deleteOnExit();
+				writer = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(file), "UTF8"));
+				/*
+				 * Shutdown hooks are run before the files are deleted
+				 */
+				closeOnExit = new Thread() {
+					@Override
+					public void run() {
+						close();
+					}
+				};
+				Runtime.getRuntime().addShutdownHook(closeOnExit);
+			}
+			writer.write(line);
+			writer.write('\n');
+		} catch (final IOException e) {
+			failed = true;
+		}
+	}
+
+	public synchronized void flush() {
+		if (writer == null || failed || closed) {
+			return;
+		}
+		try {
+			writer.flush();
+		} catch (final IOException e) {
+			failed = true;
+		}
+	}
+
+	/**
+	 * Closes the file. It is kept until the program exits, so that its path
+	 * can still be given to the user, but nothing more is written into it.
+	 */
+	public synchronized void close() {
+		closed = true;
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.close();
+		} catch (final IOException e) {
+			failed = true;
+		}
+		writer = null;
+		if (closeOnExit != null && Thread.currentThread() != closeOnExit) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(closeOnExit);
+			} catch (final IllegalStateException e) {
+				/* The program is exiting, so the hook is running anyway */
+			}
+		}
+		closeOnExit = null;
+	}
+
+	/**
+	 * Returns the file, or null if nothing has been written yet.
+	 */
+	public synchronized File getFile() {
+		return failed ? null : file;
+	}
+}
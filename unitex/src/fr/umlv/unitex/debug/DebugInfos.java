@@ -33,6 +33,7 @@ import fr.umlv.unitex.files.FileUtil;
 import fr.umlv.unitex.graphrendering.GenericGraphBox;
 import fr.umlv.unitex.io.Encoding;
 import fr.umlv.unitex.io.GraphIO;
+import fr.umlv.unitex.io.GraphModel;
 
 public class DebugInfos {
 	public File concordIndFile = null;
@@ -144,6 +145,22 @@ public class DebugInfos {
 		return gio;
 	}
 
+	/**
+	 * Returns a lightweight description of the graph #n, for callers that do
+	 * not display it. Unlike getGraphIO, it does not show any error message:
+	 * it just returns null if the graph cannot be debugged. Graphs are taken
+	 * from the cache shared with the other tools.
+	 * 
+	 * Note: n must be in [1;number of graphs]
+	 */
+	public GraphModel getGraphModel(int n) {
+		final File f = graphs.get(n - 1);
+		if (f == null || f.lastModified() > concordIndFile.lastModified()) {
+			return null;
+		}
+		return GraphModel.get(f);
+	}
+
 	public int getEpsilonLineInInitialState(int graph) {
 		final GraphIO gio = getGraphIO(graph);
 		if (gio == null)
@@ -61,7 +61,6 @@ public class CheckResultFrame extends TabbableInternalFrame {
 			public void internalFrameClosing(InternalFrameEvent e) {
 				text.reset();
 				setVisible(false);
-				System.gc();
 			}
 		});
 	}
@@ -26,29 +26,40 @@ import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Point;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.beans.PropertyVetoException;
 import java.io.File;
+import java.util.regex.PatternSyntaxException;
 
 import javax.swing.BorderFactory;
+import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTable;
+import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
 import javax.swing.ScrollPaneConstants;
+import javax.swing.Timer;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.InternalFrameAdapter;
 import javax.swing.event.InternalFrameEvent;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.table.DefaultTableCellRenderer;
 
 import fr.umlv.unitex.common.project.manager.GlobalProjectManager;
 import fr.umlv.unitex.concord.BigConcordance;
+import fr.umlv.unitex.concord.ConcordanceFilter;
 import fr.umlv.unitex.config.ConfigManager;
 import fr.umlv.unitex.config.PreferencesListener;
 import fr.umlv.unitex.config.PreferencesManager;
@@ -67,6 +78,10 @@ import fr.umlv.unitex.utils.KeyUtil;
 public class ConcordanceFrame extends TabbableInternalFrame {
 	final BigConcordance list;
 	private final JLabel numberOfMatches = new JLabel("");
+	private String title = "";
+	final JTextField filterText = new JTextField(15);
+	final JComboBox<String> filterType = new JComboBox<String>(new String[] {
+			"Substring", "Regex", "Match only" });
 	final JComponent invisible = new JComponent() {
 		@Override
 		protected void paintComponent(Graphics g) {
@@ -124,6 +139,7 @@ public class ConcordanceFrame extends TabbableInternalFrame {
 		final JPanel up = new JPanel(new BorderLayout());
 		up.setBorder(new EmptyBorder(2, 2, 2, 2));
 		up.add(numberOfMatches, BorderLayout.CENTER);
+		up.add(createFilterPanel(), BorderLayout.EAST);
 		top.add(up, BorderLayout.NORTH);
 		if (index == null) {
 			setContentPane(top);
@@ -169,6 +185,94 @@ public class ConcordanceFrame extends TabbableInternalFrame {
 		load(f, widthInChars);
 	}
 
+	/**
+	 * Builds the box that allows to narrow the displayed lines. The filter is
+	 * applied shortly after the user stops typing.
+	 */
+	private JPanel createFilterPanel() {
+		final JPanel p = new JPanel(new BorderLayout(4, 0));
+		p.add(new JLabel("Filter:"), BorderLayout.WEST);
+		p.add(filterText, BorderLayout.CENTER);
+		p.add(filterType, BorderLayout.EAST);
+		final Color normal = filterText.getForeground();
+		final Timer timer = new Timer(250, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				final String s = filterText.getText();
+				filterText.setForeground(normal);
+				if (s.length() == 0) {
+					list.setFilter(null);
+					return;
+				}
+				final ConcordanceFilter.Type type;
+				switch (filterType.getSelectedIndex()) {
+				case 1:
+					type = ConcordanceFilter.Type.REGEX;
+					break;
+				case 2:
+					type = ConcordanceFilter.Type.MATCH;
+					break;
+				default:
+					type = ConcordanceFilter.Type.SUBSTRING;
+				}
+				try {
+					list.setFilter(new ConcordanceFilter(type, s));
+				} catch (final PatternSyntaxException e2) {
+					filterText.setForeground(Color.RED);
+				}
+			}
+		});
+		timer.setRepeats(false);
+		filterText.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				timer.restart();
+			}
+
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				timer.restart();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				timer.restart();
+			}
+		});
+		filterType.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				timer.restart();
+			}
+		});
+		list.getModel().addListDataListener(new ListDataListener() {
+			void updateLabel() {
+				if (filterText.getText().length() == 0) {
+					numberOfMatches.setText(title);
+				} else {
+					numberOfMatches.setText(title + " ("
+							+ list.getModel().getSize() + " shown)");
+				}
+			}
+
+			@Override
+			public void intervalRemoved(ListDataEvent e) {
+				updateLabel();
+			}
+
+			@Override
+			public void intervalAdded(ListDataEvent e) {
+				updateLabel();
+			}
+
+			@Override
+			public void contentsChanged(ListDataEvent e) {
+				updateLabel();
+			}
+		});
+		return p;
+	}
+
 	private JSplitPane createDebugFrame(JPanel concordPanel) {
 		final JTable table = new JTable(model);
 		table.setDefaultRenderer(String.class, new DefaultTableCellRenderer() {
@@ -223,7 +327,8 @@ public class ConcordanceFrame extends TabbableInternalFrame {
 	 */
 	private void load(File concor, int widthInChars) {
 		setTitle("Concordance: " + concor.getAbsolutePath());
-		numberOfMatches.setText(FileUtil.getHtmlPageTitle(concor));
+		title = FileUtil.getHtmlPageTitle(concor);
+		numberOfMatches.setText(title);
 		final Dimension d = getSize();
 		final int g = widthInChars * 8;
 		d.setSize((g < 800) ? g : 800, d.height);
@@ -258,22 +363,19 @@ public class ConcordanceFrame extends TabbableInternalFrame {
 				final String s = (String) list.getSelectedValue();
 				if (s == null || e.getValueIsAdjusting())
 					return;
-				int start = s.indexOf("<a href=\"") + 9;
-				int end = s.indexOf(' ', start);
-				final int selectionStart = Integer.valueOf((String) s
-						.subSequence(start, end));
-				start = end + 1;
-				end = s.indexOf(' ', start);
-				final int selectionEnd = Integer.valueOf((String) s
-						.subSequence(start, end));
-				start = end + 1;
-				end = s.indexOf(' ', start);
-				final int sentenceNumber = Integer.valueOf((String) s
-						.subSequence(start, end));
-				start = end + 1;
-				end = s.indexOf('\"', start);
-				final int matchNumber = Integer.valueOf((String) s.subSequence(
-						start, end));
+				/*
+				 * The href of a line gives the bounds of the match, its
+				 * sentence number and its match number
+				 */
+				final int[] href = parseHref(s);
+				final int selectionStart = href[0];
+				final int selectionEnd = href[1];
+				final int sentenceNumber = href[2];
+				final int matchNumber = href[3];
+				if (selectionStart == -1 || selectionEnd == -1
+						|| sentenceNumber == -1 || matchNumber == -1) {
+					return;
+				}
 				if (model != null) {
 					model.setMatchNumber(matchNumber);
 					if (selectionModel != null && model.getRowCount() > 0) {
@@ -316,6 +418,36 @@ public class ConcordanceFrame extends TabbableInternalFrame {
 		list.load(concor);
 	}
 
+	/**
+	 * Parses the href of a concordance line, made of the match start, the
+	 * match end, the sentence number and the match number. The match number is
+	 * always the last field. Missing or invalid fields are set to -1.
+	 */
+	static int[] parseHref(String line) {
+		final int[] fields = { -1, -1, -1, -1 };
+		int start = line.indexOf("<a href=\"");
+		if (start == -1) {
+			return fields;
+		}
+		start += 9;
+		final int end = line.indexOf('\"', start);
+		if (end == -1) {
+			return fields;
+		}
+		final String[] values = line.substring(start, end).trim().split(" +");
+		final int n = Math.min(values.length, fields.length);
+		for (int i = 0; i < n; i++) {
+			/* The match number is the last value, whatever is missing */
+			final int field = (i == values.length - 1) ? 3 : i;
+			try {
+				fields[field] = Integer.parseInt(values[i]);
+			} catch (final NumberFormatException e) {
+				/* The field stays missing */
+			}
+		}
+		return fields;
+	}
+
 	@Override
 	public String getTabName() {
 		return "Concord";
@@ -24,6 +24,7 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.EventQueue;
+import java.io.File;
 
 import javax.swing.BorderFactory;
 import javax.swing.DefaultCellEditor;
@@ -36,6 +37,8 @@ import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.TableCellRenderer;
 
@@ -160,6 +163,24 @@ public class ConsoleFrame extends TabbableInternalFrame {
 		final JPanel top = new JPanel(new BorderLayout());
 		top.setBorder(new EmptyBorder(2, 2, 2, 2));
 		top.add(middle, BorderLayout.CENTER);
+		final JLabel spillLabel = new JLabel();
+		spillLabel.setVisible(false);
+		top.add(spillLabel, BorderLayout.NORTH);
+		model.addTableModelListener(new TableModelListener() {
+			@Override
+			public void tableChanged(TableModelEvent e) {
+				if (e.getType() != TableModelEvent.DELETE
+						|| spillLabel.isVisible()) {
+					return;
+				}
+				final File f = model.getSpillFile();
+				if (f != null) {
+					spillLabel.setText("Older commands have been moved to "
+							+ f.getAbsolutePath());
+					spillLabel.setVisible(true);
+				}
+			}
+		});
 		setContentPane(top);
 		setBounds(100, 100, 600, 400);
 		setDefaultCloseOperation(HIDE_ON_CLOSE);
@@ -176,8 +197,12 @@ public class ConsoleFrame extends TabbableInternalFrame {
 			int pos, boolean systemMsg, String logID) {
 		final ConsoleEntry e = new ConsoleEntry(command, isRealCommand,
 				systemMsg, logID);
-		final int n = (pos != -1) ? pos : model.getRowCount();
-		model.addConsoleEntry(n, e);
+		/* Older rows may be removed, so the index of the new one may change */
+		final int n = model.addConsoleEntry(
+				(pos != -1) ? pos : model.getRowCount(), e);
+		if (n == -1) {
+			return e;
+		}
 		/* Now, we update the width of the last two columns */
 		TableCellRenderer renderer = table.getCellRenderer(n, 1);
 		Component c = renderer.getTableCellRendererComponent(table,
@@ -96,16 +96,6 @@ public class DelaFrame extends KeyedInternalFrame<File> {
 				Config.setCurrentDELA(null);
 				text.reset();
 				setVisible(false);
-				/*
-				 * We wait to avoid blocking the creation of fooflx.dic by
-				 * MultiFlex
-				 */
-				try {
-					Thread.sleep(10);
-				} catch (final InterruptedException e2) {
-					e2.printStackTrace();
-				}
-				System.gc();
 			}
 
 			@Override
@@ -21,9 +21,13 @@
 package fr.umlv.unitex.frames;
 
 import fr.umlv.unitex.common.project.manager.GlobalProjectManager;
+import fr.umlv.unitex.config.Config;
 import fr.umlv.unitex.graphrendering.GenericGraphBox;
+import fr.umlv.unitex.graphtools.BatchFindAndReplace;
 import fr.umlv.unitex.graphtools.FindAndReplace;
 import fr.umlv.unitex.graphtools.FindAndReplaceData;
+import fr.umlv.unitex.graphtools.FindAndReplaceQuery;
+import fr.umlv.unitex.graphtools.GraphTokenIndex;
 import fr.umlv.unitex.utils.KeyUtil;
 
 import javax.swing.*;
@@ -33,12 +37,20 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.beans.PropertyVetoException;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 /**
  * This class defines a dialog that allow the user to search and replace the content of one or more boxes
- * in the open graphs.
+ * in the open graphs. The search can also be made in all the graphs of a directory.
  *
  * @author Maxime Petit
  */
@@ -55,6 +67,8 @@ public class FindAndReplaceDialog extends JDialog implements MultiInstanceFrameF
   private JButton findPreviousButton;
   private JButton replaceAllButton;
   private JButton replaceButton;
+  private JButton findInDirectoryButton;
+  private JButton replaceInDirectoryButton;
   private JTextField statusBarTextField;
   private GraphFrame currentFrame;
   private FindAndReplaceData data;
@@ -144,6 +158,18 @@ public class FindAndReplaceDialog extends JDialog implements MultiInstanceFrameF
         getParent().repaint();
       }
     });
+    findInDirectoryButton.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        onFindInDirectory();
+      }
+    });
+    replaceInDirectoryButton.addActionListener(new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        onReplaceInDirectory();
+      }
+    });
     findPreviousButton.addActionListener(new ActionListener() {
       @Override
       public void actionPerformed(ActionEvent e) {
@@ -213,7 +239,7 @@ public class FindAndReplaceDialog extends JDialog implements MultiInstanceFrameF
     JPanel panel1 = new JPanel();
     KeyUtil.addCloseDialogListener(panel1);
     panel1.setLayout(new GridBagLayout());
-    panel1.setPreferredSize(new Dimension(480, 259));
+    panel1.setPreferredSize(new Dimension(480, 295));
     final JLabel label1 = new JLabel();
     label1.setText("Find what:");
     GridBagConstraints gbc;
@@ -344,12 +370,34 @@ public class FindAndReplaceDialog extends JDialog implements MultiInstanceFrameF
     gbc.gridy = 10;
     gbc.fill = GridBagConstraints.HORIZONTAL;
     panel1.add(spacer7, gbc);
+    findInDirectoryButton = new JButton();
+    findInDirectoryButton.setText("Find in Directory...");
+    findInDirectoryButton.setToolTipText("Find the boxes of all the graphs of a directory, open or not");
+    gbc = new GridBagConstraints();
+    gbc.gridx = 3;
+    gbc.gridy = 14;
+    gbc.fill = GridBagConstraints.HORIZONTAL;
+    panel1.add(findInDirectoryButton, gbc);
+    replaceInDirectoryButton = new JButton();
+    replaceInDirectoryButton.setText("Replace in Directory...");
+    replaceInDirectoryButton.setToolTipText("Replace in all the graphs of a directory, after a preview of the changes");
+    gbc = new GridBagConstraints();
+    gbc.gridx = 5;
+    gbc.gridy = 14;
+    gbc.fill = GridBagConstraints.HORIZONTAL;
+    panel1.add(replaceInDirectoryButton, gbc);
+    final JPanel spacer13 = new JPanel();
+    gbc = new GridBagConstraints();
+    gbc.gridx = 3;
+    gbc.gridy = 15;
+    gbc.fill = GridBagConstraints.VERTICAL;
+    panel1.add(spacer13, gbc);
     final JPanel panel2 = new JPanel();
     panel2.setLayout(new GridBagLayout());
     panel2.setPreferredSize(new Dimension(480, 24));
     gbc = new GridBagConstraints();
     gbc.gridx = 0;
-    gbc.gridy = 14;
+    gbc.gridy = 16;
     gbc.gridwidth = 7;
     gbc.fill = GridBagConstraints.BOTH;
     panel1.add(panel2, gbc);
@@ -453,14 +501,15 @@ public class FindAndReplaceDialog extends JDialog implements MultiInstanceFrameF
 
   private void onNext() {
     updateTextField();
+    FindAndReplaceQuery query = buildFindQuery();
     int i = 0;
     data.getGraphicalZone().unSelectAllBoxes();
     int res = 0;
     if (!graphComboBox.getSelectedItem().toString().equals(graphDefaultText)) {
-      res = FindAndReplace.findAll(currentFrame.getGraphicalZone().getBoxes(), findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+      res = FindAndReplace.findAll(currentFrame.getGraphicalZone().getBoxes(), query);
     } else {
       for (GraphFrame f : graphFrames) {
-        res += FindAndReplace.findAll(f.getGraphicalZone().getBoxes(), findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+        res += FindAndReplace.findAll(f.getGraphicalZone().getBoxes(), query);
       }
     }
     if (res == 0) {
@@ -478,7 +527,7 @@ public class FindAndReplaceDialog extends JDialog implements MultiInstanceFrameF
         onNext();
         return;
       }
-      while (!FindAndReplace.find(data.getGraphicalZone(), nextBox, findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected()) && i < data.getBoxes().size()) {
+      while (!FindAndReplace.find(data.getGraphicalZone(), nextBox, query) && i < data.getBoxes().size()) {
         i++;
         nextBox = data.nextBox();
         if (nextBox == null) {
@@ -506,14 +555,15 @@ public class FindAndReplaceDialog extends JDialog implements MultiInstanceFrameF
 
   private void onPrev() {
     updateTextField();
+    FindAndReplaceQuery query = buildFindQuery();
     int i = 0;
     data.getGraphicalZone().unSelectAllBoxes();
     int res = 0;
     if (!graphComboBox.getSelectedItem().toString().equals(graphDefaultText)) {
-      res = FindAndReplace.findAll(currentFrame.getGraphicalZone().getBoxes(), findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+      res = FindAndReplace.findAll(currentFrame.getGraphicalZone().getBoxes(), query);
     } else {
       for (GraphFrame f : graphFrames) {
-        res += FindAndReplace.findAll(f.getGraphicalZone().getBoxes(), findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+        res += FindAndReplace.findAll(f.getGraphicalZone().getBoxes(), query);
       }
     }
     if (res == 0) {
@@ -531,7 +581,7 @@ public class FindAndReplaceDialog extends JDialog implements MultiInstanceFrameF
         onPrev();
         return;
       }
-      while (!FindAndReplace.find(data.getGraphicalZone(), prevBox, findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected()) && i < data.getBoxes().size()) {
+      while (!FindAndReplace.find(data.getGraphicalZone(), prevBox, query) && i < data.getBoxes().size()) {
         i++;
         prevBox = data.prevBox();
         if (prevBox == null) {
@@ -552,10 +602,11 @@ public class FindAndReplaceDialog extends JDialog implements MultiInstanceFrameF
       return;
     }
     data.getGraphicalZone().unSelectAllBoxes();
+    FindAndReplaceQuery query = buildReplaceQuery();
     if (findTextField.getText().equals(replaceTextField.getText())) {
       return;
     }
-    boolean wasReplaced = FindAndReplace.replace(data.getCurrentBox(), findTextField.getText(), replaceTextField.getText(), data.getGraphicalZone(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+    boolean wasReplaced = FindAndReplace.replace(data.getCurrentBox(), data.getGraphicalZone(), query);
     if (wasReplaced) {
       updateReplaceResultTextField(1);
     } else {
@@ -569,16 +620,247 @@ public class FindAndReplaceDialog extends JDialog implements MultiInstanceFrameF
       return;
     }
     int i = 0;
+    FindAndReplaceQuery query = buildReplaceQuery();
     if (graphComboBox.getSelectedItem().toString().equals(graphDefaultText)) {
       for (GraphFrame graphFrame : graphFrames) {
-        i += FindAndReplace.replaceAll(graphFrame.getGraphicalZone().getBoxes(), findTextField.getText(), replaceTextField.getText(), graphFrame.getGraphicalZone(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+        i += FindAndReplace.replaceAll(graphFrame.getGraphicalZone().getBoxes(), graphFrame.getGraphicalZone(), query);
       }
     } else {
-      i += FindAndReplace.replaceAll(currentFrame.getGraphicalZone().getBoxes(), findTextField.getText(), replaceTextField.getText(), currentFrame.getGraphicalZone(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+      i += FindAndReplace.replaceAll(currentFrame.getGraphicalZone().getBoxes(), currentFrame.getGraphicalZone(), query);
     }
     updateReplaceResultTextField(i);
   }
 
+  /**
+   * Looks for the query in all the graphs of a directory, with the token index of the directory, so that
+   * only the graphs that may match are read.
+   */
+  private void onFindInDirectory() {
+    if (!isValidFindTextField()) {
+      return;
+    }
+    final File dir = chooseDirectory();
+    if (dir == null) {
+      return;
+    }
+    final FindAndReplaceQuery query = buildFindQuery();
+    statusBarTextField.setText("Searching in " + dir.getPath() + "...");
+    statusBarTextField.setForeground(Color.BLACK);
+    new SwingWorker<Map<File, BitSet>, Void>() {
+      @Override
+      protected Map<File, BitSet> doInBackground() throws Exception {
+        final GraphTokenIndex index = GraphTokenIndex.getIndex(dir);
+        index.update();
+        return index.search(query, null);
+      }
+
+      @Override
+      protected void done() {
+        final Map<File, BitSet> result;
+        try {
+          result = get();
+        } catch (InterruptedException e) {
+          return;
+        } catch (ExecutionException e) {
+          e.printStackTrace();
+          statusBarTextField.setText("Search failed in " + dir.getPath());
+          return;
+        }
+        final ArrayList<File> graphs = new ArrayList<File>();
+        final ArrayList<String> labels = new ArrayList<String>();
+        int boxes = 0;
+        for (Map.Entry<File, BitSet> e : result.entrySet()) {
+          final int n = e.getValue().cardinality();
+          graphs.add(e.getKey());
+          labels.add(e.getKey().getPath() + " (" + n + (n == 1 ? " box)" : " boxes)"));
+          boxes += n;
+        }
+        statusBarTextField.setText("Found " + boxes + " box(es) in " + graphs.size() + " graph(s) of " + dir.getPath());
+        if (!graphs.isEmpty()) {
+          showGraphList("Graphs matching: " + query.getSearch(), graphs, labels);
+        }
+      }
+    }.execute();
+  }
+
+  /**
+   * Replaces in all the graphs of a directory. The changes are computed first without writing anything,
+   * and shown to the user, who may then apply them. Graphs that are open and modified are never written;
+   * the other open graphs are reloaded once written.
+   */
+  private void onReplaceInDirectory() {
+    if (!isValidTextField() || findTextField.getText().equals(replaceTextField.getText())) {
+      return;
+    }
+    final File dir = chooseDirectory();
+    if (dir == null) {
+      return;
+    }
+    final FindAndReplaceQuery query = buildReplaceQuery();
+    statusBarTextField.setText("Looking for boxes to replace in " + dir.getPath() + "...");
+    statusBarTextField.setForeground(Color.BLACK);
+    final Set<File> skipped = getModifiedGraphs();
+    new SwingWorker<ArrayList<BatchFindAndReplace.GraphReport>, Void>() {
+      @Override
+      protected ArrayList<BatchFindAndReplace.GraphReport> doInBackground() throws Exception {
+        return BatchFindAndReplace.replaceAll(dir, query, true, skipped, null);
+      }
+
+      @Override
+      protected void done() {
+        final ArrayList<BatchFindAndReplace.GraphReport> reports = getReports(this);
+        if (reports == null) {
+          statusBarTextField.setText("Replace failed in " + dir.getPath());
+          return;
+        }
+        if (reports.isEmpty()) {
+          statusBarTextField.setText("No box to replace in " + dir.getPath());
+          return;
+        }
+        final StringBuilder b = new StringBuilder();
+        b.append(getSummary(reports, false)).append("\n\n");
+        for (BatchFindAndReplace.GraphReport r : reports) {
+          b.append(r);
+        }
+        final JTextArea text = new JTextArea(b.toString(), 20, 60);
+        text.setEditable(false);
+        final int ret = JOptionPane.showConfirmDialog(FindAndReplaceDialog.this, new JScrollPane(text),
+          "Replace in " + dir.getPath(), JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (ret != JOptionPane.OK_OPTION) {
+          statusBarTextField.setText("");
+          return;
+        }
+        applyReplaceInDirectory(dir, query);
+      }
+    }.execute();
+  }
+
+  private void applyReplaceInDirectory(final File dir, final FindAndReplaceQuery query) {
+    /* Graphs may have been modified while the user was reading the preview */
+    final Set<File> skipped = getModifiedGraphs();
+    new SwingWorker<ArrayList<BatchFindAndReplace.GraphReport>, Void>() {
+      @Override
+      protected ArrayList<BatchFindAndReplace.GraphReport> doInBackground() throws Exception {
+        return BatchFindAndReplace.replaceAll(dir, query, false, skipped, null);
+      }
+
+      @Override
+      protected void done() {
+        final ArrayList<BatchFindAndReplace.GraphReport> reports = getReports(this);
+        if (reports == null) {
+          statusBarTextField.setText("Replace failed in " + dir.getPath());
+          return;
+        }
+        final Set<File> written = new HashSet<File>();
+        for (BatchFindAndReplace.GraphReport r : reports) {
+          if (r.isWritten()) {
+            written.add(r.getGrf().getAbsoluteFile());
+          }
+        }
+        for (GraphFrame f : graphFrames) {
+          if (f.getGraph() != null && !f.modified && written.contains(f.getGraph().getAbsoluteFile())) {
+            f.reloadGraph();
+          }
+        }
+        statusBarTextField.setText(getSummary(reports, true));
+      }
+    }.execute();
+  }
+
+  private static ArrayList<BatchFindAndReplace.GraphReport> getReports(
+    SwingWorker<ArrayList<BatchFindAndReplace.GraphReport>, Void> worker) {
+    try {
+      return worker.get();
+    } catch (InterruptedException e) {
+      return null;
+    } catch (ExecutionException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private static String getSummary(ArrayList<BatchFindAndReplace.GraphReport> reports, boolean done) {
+    int boxes = 0;
+    int graphs = 0;
+    int notWritten = 0;
+    for (BatchFindAndReplace.GraphReport r : reports) {
+      if (r.getError() != null) {
+        notWritten++;
+      } else if (r.getReplacedCount() > 0) {
+        boxes += r.getReplacedCount();
+        graphs++;
+      }
+    }
+    String msg = (done ? "Replaced " : "Will replace ") + boxes + " box(es) in " + graphs + " graph(s)";
+    if (notWritten > 0) {
+      msg = msg + ", " + notWritten + " graph(s) " + (done ? "not written" : "will not be written");
+    }
+    return msg;
+  }
+
+  /**
+   * Returns the graphs that are open and modified, which must not be written by a batch replace.
+   */
+  private Set<File> getModifiedGraphs() {
+    final Set<File> files = new HashSet<File>();
+    for (GraphFrame f : graphFrames) {
+      if (f.modified && f.getGraph() != null) {
+        files.add(f.getGraph().getAbsoluteFile());
+      }
+    }
+    return files;
+  }
+
+  private File chooseDirectory() {
+    final JFileChooser f = new JFileChooser();
+    f.setDialogTitle("Choose a graph directory");
+    if (currentFrame != null && currentFrame.getGraph() != null) {
+      f.setCurrentDirectory(currentFrame.getGraph().getParentFile());
+    } else {
+      f.setCurrentDirectory(Config.getGraphDialogBox(false).getCurrentDirectory());
+    }
+    f.setDialogType(JFileChooser.OPEN_DIALOG);
+    f.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+    if (f.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+      return null;
+    }
+    return f.getSelectedFile();
+  }
+
+  /**
+   * Shows a list of graphs. A double-click on a graph opens it.
+   */
+  private void showGraphList(String title, final ArrayList<File> graphs, ArrayList<String> labels) {
+    final JDialog d = new JDialog(this, title, false);
+    final JList<String> list = new JList<String>(labels.toArray(new String[labels.size()]));
+    list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    list.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseClicked(MouseEvent e) {
+        if (e.getClickCount() != 2) {
+          return;
+        }
+        final int i = list.locationToIndex(e.getPoint());
+        if (i != -1) {
+          GlobalProjectManager.search(null).getFrameManagerAs(InternalFrameManager.class).newGraphFrame(graphs.get(i));
+        }
+      }
+    });
+    d.setContentPane(new JScrollPane(list));
+    d.setSize(new Dimension(480, 300));
+    d.setLocationRelativeTo(this);
+    d.setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+    d.setVisible(true);
+  }
+
+  private FindAndReplaceQuery buildFindQuery() {
+    return new FindAndReplaceQuery(findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+  }
+
+  private FindAndReplaceQuery buildReplaceQuery() {
+    return new FindAndReplaceQuery(findTextField.getText(), replaceTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+  }
+
   private boolean isValidTextField() {
     return isValidFindTextField() && isValidReplaceTextField();
   }
@@ -597,11 +879,12 @@ public class FindAndReplaceDialog extends JDialog implements MultiInstanceFrameF
       return;
     }
     int res = 0;
+    FindAndReplaceQuery query = buildFindQuery();
     if (!graphComboBox.getSelectedItem().toString().equals(graphDefaultText)) {
-      res = FindAndReplace.findAll(currentFrame.getGraphicalZone().getBoxes(), findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+      res = FindAndReplace.findAll(currentFrame.getGraphicalZone().getBoxes(), query);
     } else {
       for (GraphFrame f : graphFrames) {
-        res += FindAndReplace.findAll(f.getGraphicalZone().getBoxes(), findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+        res += FindAndReplace.findAll(f.getGraphicalZone().getBoxes(), query);
       }
     }
     String msg;
@@ -649,11 +932,12 @@ public class FindAndReplaceDialog extends JDialog implements MultiInstanceFrameF
 
   private void updateReplaceErrorTextField() {
     String msg = "";
+    FindAndReplaceQuery query = buildReplaceQuery();
     if (!graphComboBox.getSelectedItem().toString().equals(graphDefaultText)) {
-      msg = FindAndReplace.checkReplaceAll(currentFrame.getGraphicalZone().getBoxes(), findTextField.getText(), replaceTextField.getText(), currentFrame.getGraphicalZone(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+      msg = FindAndReplace.checkReplaceAll(currentFrame.getGraphicalZone().getBoxes(), currentFrame.getGraphicalZone(), query);
     } else {
       for (GraphFrame f : graphFrames) {
-        msg = FindAndReplace.checkReplaceAll(f.getGraphicalZone().getBoxes(), findTextField.getText(), replaceTextField.getText(), f.getGraphicalZone(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+        msg = FindAndReplace.checkReplaceAll(f.getGraphicalZone().getBoxes(), f.getGraphicalZone(), query);
       }
     }
     if (!msg.isEmpty()) {
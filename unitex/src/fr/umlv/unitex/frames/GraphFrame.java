@@ -46,6 +46,8 @@ import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.imageio.ImageIO;
 import javax.imageio.stream.ImageOutputStream;
@@ -67,6 +69,7 @@ import javax.swing.JToolBar;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.Timer;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
@@ -119,11 +122,14 @@ public class GraphFrame extends KeyedInternalFrame<File> {
 	private static final int offset = 30;
 	private TextField boxContentEditor;
 	final GraphicalZone graphicalZone;
-	DefaultListModel grfListModel = new DefaultListModel();
+	DefaultListModel<GraphCall> grfListModel = new DefaultListModel<GraphCall>();
 	JList grfList = new JList(grfListModel);
 	JScrollPane grfListScroll = new JScrollPane(grfList);
 	JPanel grfListPanel;
 	JLabel grfListLabel = new JLabel();
+	/* The background computation of the graphs shown in grfList, if any */
+	private SwingWorker<ArrayList<GraphCall>, GraphCall> dependencyWorker;
+	private AtomicBoolean dependencyCancelled;
 
 	public GraphicalZone getGraphicalZone() {
 		return graphicalZone;
@@ -315,7 +321,7 @@ public class GraphFrame extends KeyedInternalFrame<File> {
 				final int n = grfList.getSelectedIndex();
 				if (n == -1)
 					return;
-				final GraphCall c = (GraphCall) grfListModel.get(n);
+				final GraphCall c = grfListModel.get(n);
 				final File f = c.getGrf();
 				GlobalProjectManager.search(f)
 						.getFrameManagerAs(InternalFrameManager.class).newGraphFrame(f);
@@ -334,6 +340,7 @@ public class GraphFrame extends KeyedInternalFrame<File> {
 		closeButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
+				cancelGraphDependencies();
 				getActualMainPanel().remove(grfListPanel);
 				getActualMainPanel().revalidate();
 				getActualMainPanel().repaint();
@@ -977,26 +984,79 @@ public class GraphFrame extends KeyedInternalFrame<File> {
 		}
 	}
 
-	protected void showGraphDependencies(boolean showCalledGrf) {
+	protected void showGraphDependencies(final boolean showCalledGrf) {
 		if (getGraph() == null) {
 			JOptionPane.showMessageDialog(null,
 					"Cannot compile a graph with no name", "Error",
 					JOptionPane.ERROR_MESSAGE);
 			return;
 		}
-		ArrayList<GraphCall> files;
-		if (showCalledGrf) {
-			files = Dependancies.getAllSubgraphs(getGraph());
-			grfListLabel.setText("Called graphs:");
-		} else {
-			files = Dependancies.whoCalls(getGraph(), ConfigManager
-					.getManager().getCurrentLanguageDir());
-			grfListLabel.setText("Caller graphs:");
-		}
+		cancelGraphDependencies();
+		final File grf = getGraph();
+		final File rootDir = ConfigManager.getManager().getCurrentLanguageDir();
+		final String label = showCalledGrf ? "Called graphs:" : "Caller graphs:";
+		final AtomicBoolean cancelled = new AtomicBoolean(false);
+		grfListLabel.setText(label + " (searching...)");
 		grfListModel.clear();
-		for (final GraphCall c : files) {
-			grfListModel.addElement(c);
-		}
+		/*
+		 * Dependencies are computed in the background, and the graphs are
+		 * displayed as soon as they are found. When everything is done, the
+		 * list is replaced by the sorted one.
+		 */
+		dependencyWorker = new SwingWorker<ArrayList<GraphCall>, GraphCall>() {
+			private final HashSet<GraphCall> shown = new HashSet<GraphCall>();
+
+			@Override
+			protected ArrayList<GraphCall> doInBackground() throws Exception {
+				final Dependancies.CallListener listener = new Dependancies.CallListener() {
+					@Override
+					public void callsFound(ArrayList<GraphCall> calls) {
+						publish(calls.toArray(new GraphCall[calls.size()]));
+					}
+				};
+				if (showCalledGrf) {
+					return Dependancies.getAllSubgraphs(grf, listener,
+							cancelled);
+				}
+				return Dependancies.whoCalls(grf, rootDir, listener, cancelled);
+			}
+
+			@Override
+			protected void process(java.util.List<GraphCall> calls) {
+				if (isCancelled()) {
+					return;
+				}
+				for (final GraphCall c : calls) {
+					if (shown.add(c)) {
+						grfListModel.addElement(c);
+					}
+				}
+			}
+
+			@Override
+			protected void done() {
+				if (isCancelled()) {
+					return;
+				}
+				final ArrayList<GraphCall> files;
+				try {
+					files = get();
+				} catch (final Exception e) {
+					grfListLabel.setText(label);
+					return;
+				}
+				grfListLabel.setText(label);
+				if (files == null) {
+					return;
+				}
+				grfListModel.clear();
+				for (final GraphCall c : files) {
+					grfListModel.addElement(c);
+				}
+			}
+		};
+		dependencyCancelled = cancelled;
+		dependencyWorker.execute();
 		if (!getActualMainPanel().isAncestorOf(grfListPanel)) {
 			getActualMainPanel().add(grfListPanel, BorderLayout.EAST);
 		}
@@ -1004,6 +1064,15 @@ public class GraphFrame extends KeyedInternalFrame<File> {
 		getActualMainPanel().repaint();
 	}
 
+	void cancelGraphDependencies() {
+		if (dependencyWorker != null) {
+			dependencyCancelled.set(true);
+			dependencyWorker.cancel(false);
+			dependencyWorker = null;
+			dependencyCancelled = null;
+		}
+	}
+
 	private JPanel buildTextPanel() {
 		final JPanel p = new JPanel(new BorderLayout());
 		setBoxContentEditor(new TextField(25, this));
@@ -1022,6 +1091,11 @@ public class GraphFrame extends KeyedInternalFrame<File> {
 			getBoxContentEditor().getCaret().setVisible(true);
 		}
 
+		@Override
+		public void internalFrameClosed(InternalFrameEvent e) {
+			cancelGraphDependencies();
+		}
+
 		@Override
 		public void internalFrameClosing(InternalFrameEvent e) {
 			if (modified) {
@@ -1217,6 +1291,17 @@ public class GraphFrame extends KeyedInternalFrame<File> {
 		return grf;
 	}
 
+	/**
+	 * Reloads the graph from its file, after it has been modified by another
+	 * tool, so that the frame does not ask whether to reload it.
+	 */
+	void reloadGraph() {
+		final GraphIO g = GraphIO.loadGraph(grf, false, false);
+		graphicalZone.refresh(g);
+		setModified(false);
+		lastModification = grf.lastModified();
+	}
+
 	public void setGraph(File grf, File key) {
 		setGraph(grf, key, true);
 	}
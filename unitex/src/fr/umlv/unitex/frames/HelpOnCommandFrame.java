@@ -34,6 +34,7 @@ import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 
 import fr.umlv.unitex.process.ProcessInfoThread;
+import fr.umlv.unitex.process.StreamPump;
 import fr.umlv.unitex.process.commands.BuildKrMwuDicCommand;
 import fr.umlv.unitex.process.commands.CassysCommand;
 import fr.umlv.unitex.process.commands.CheckDicCommand;
@@ -148,8 +149,8 @@ public class HelpOnCommandFrame extends JInternalFrame {
 					stdoutList.empty();
 					final String[] comm = command.getCommandArguments(false);
 					final Process p = Runtime.getRuntime().exec(comm);
-					new ProcessInfoThread(stdoutList, p.getInputStream(), null,
-							false).start();
+					StreamPump.execute(new ProcessInfoThread(stdoutList, p
+							.getInputStream(), null, false));
 					try {
 						p.waitFor();
 					} catch (final java.lang.InterruptedException e1) {
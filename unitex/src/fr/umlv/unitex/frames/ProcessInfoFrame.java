@@ -28,6 +28,7 @@ import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.ActionEvent;
+import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 
 import javax.swing.AbstractAction;
@@ -43,6 +44,10 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.SwingUtilities;
+import javax.swing.event.InternalFrameAdapter;
+import javax.swing.event.InternalFrameEvent;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 
 import fr.umlv.unitex.config.ConfigManager;
 import fr.umlv.unitex.config.Preferences;
@@ -176,12 +181,58 @@ public class ProcessInfoFrame extends JInternalFrame {
 				"Messages with a colored background are generated by the interface, not by the external programs.");
 		info.setBackground(systemColor);
 		info.setOpaque(true);
-		top.add(info, BorderLayout.NORTH);
+		final JPanel north = new JPanel(new BorderLayout());
+		north.add(info, BorderLayout.NORTH);
+		final JLabel spillLabel = new JLabel();
+		spillLabel.setVisible(false);
+		north.add(spillLabel, BorderLayout.SOUTH);
+		top.add(north, BorderLayout.NORTH);
+		showSpillFile(stdoutList.getModel(), spillLabel);
+		showSpillFile(stderrList.getModel(), spillLabel);
+		addInternalFrameListener(new InternalFrameAdapter() {
+			@Override
+			public void internalFrameClosed(InternalFrameEvent e) {
+				stdoutList.getModel().close();
+				stderrList.getModel().close();
+			}
+		});
 		setContentPane(top);
 		pack();
 		setBounds(100, 100, 600, 400);
 	}
 
+	/**
+	 * Displays the path of the file into which the oldest lines of the given
+	 * model are moved, once there is one.
+	 */
+	private static void showSpillFile(final ProcessOutputListModel model,
+			final JLabel label) {
+		model.addListDataListener(new ListDataListener() {
+			@Override
+			public void intervalRemoved(ListDataEvent e) {
+				if (label.isVisible() || model.getSpillFile() == null) {
+					return;
+				}
+				final File f = model.getSpillFile().getFile();
+				if (f != null) {
+					label.setText("Older lines have been moved to "
+							+ f.getAbsolutePath());
+					label.setVisible(true);
+				}
+			}
+
+			@Override
+			public void intervalAdded(ListDataEvent e) {
+				/* Nothing to do */
+			}
+
+			@Override
+			public void contentsChanged(ListDataEvent e) {
+				/* Nothing to do */
+			}
+		});
+	}
+
 	void launchBuilderCommands() {
 		final ToDo originalToDo = parameters.getDO();
 		final ToDo myDo = new ToDo() {
@@ -5,6 +5,7 @@ import fr.umlv.unitex.common.project.manager.GlobalProjectManager;
 import fr.umlv.unitex.graphrendering.GenericGraphBox;
 import fr.umlv.unitex.graphtools.FindAndReplace;
 import fr.umlv.unitex.graphtools.FindAndReplaceData;
+import fr.umlv.unitex.graphtools.FindAndReplaceQuery;
 import fr.umlv.unitex.utils.KeyUtil;
 
 import javax.swing.*;
@@ -363,10 +364,11 @@ public class TextAutomatonFindAndReplaceDialog extends JDialog {
 
     private void onNext() {
         updateTextField();
+        FindAndReplaceQuery query = buildFindQuery();
         int i = 0;
         data.getGraphicalZone().unSelectAllBoxes();
         int res = 0;
-        res = FindAndReplace.findAll(frame.getGraphicalZone().getBoxes(), findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+        res = FindAndReplace.findAll(frame.getGraphicalZone().getBoxes(), query);
         if (res == 0) {
             data.getGraphicalZone().setHighlight(false);
             return;
@@ -378,7 +380,7 @@ public class TextAutomatonFindAndReplaceDialog extends JDialog {
                 onNext();
                 return;
             }
-            while (!FindAndReplace.find(data.getGraphicalZone(), nextBox, findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected()) && i < data.getBoxes().size()) {
+            while (!FindAndReplace.find(data.getGraphicalZone(), nextBox, query) && i < data.getBoxes().size()) {
                 i++;
                 nextBox = data.nextBox();
                 if (nextBox == null) {
@@ -392,10 +394,11 @@ public class TextAutomatonFindAndReplaceDialog extends JDialog {
 
     private void onPrev() {
         updateTextField();
+        FindAndReplaceQuery query = buildFindQuery();
         int i = 0;
         data.getGraphicalZone().unSelectAllBoxes();
         int res = 0;
-        res = FindAndReplace.findAll(frame.getGraphicalZone().getBoxes(), findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+        res = FindAndReplace.findAll(frame.getGraphicalZone().getBoxes(), query);
         if (res == 0) {
             data.getGraphicalZone().setHighlight(false);
             return;
@@ -407,7 +410,7 @@ public class TextAutomatonFindAndReplaceDialog extends JDialog {
                 onPrev();
                 return;
             }
-            while (!FindAndReplace.find(data.getGraphicalZone(), prevBox, findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected()) && i < data.getBoxes().size()) {
+            while (!FindAndReplace.find(data.getGraphicalZone(), prevBox, query) && i < data.getBoxes().size()) {
                 i++;
                 prevBox = data.prevBox();
                 if (prevBox == null) {
@@ -424,10 +427,11 @@ public class TextAutomatonFindAndReplaceDialog extends JDialog {
             return;
         }
         data.getGraphicalZone().unSelectAllBoxes();
+        FindAndReplaceQuery query = buildReplaceQuery();
         if (findTextField.getText().equals(replaceTextField.getText())) {
             return;
         }
-        boolean wasReplaced = FindAndReplace.replace(data.getCurrentBox(), findTextField.getText(), replaceTextField.getText(), data.getGraphicalZone(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+        boolean wasReplaced = FindAndReplace.replace(data.getCurrentBox(), data.getGraphicalZone(), query);
         if (wasReplaced) {
             updateReplaceResultTextField(1);
         } else {
@@ -441,10 +445,19 @@ public class TextAutomatonFindAndReplaceDialog extends JDialog {
             return;
         }
         int i = 0;
-        i += FindAndReplace.replaceAll(frame.getGraphicalZone().getBoxes(), findTextField.getText(), replaceTextField.getText(), frame.getGraphicalZone(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+        FindAndReplaceQuery query = buildReplaceQuery();
+        i += FindAndReplace.replaceAll(frame.getGraphicalZone().getBoxes(), frame.getGraphicalZone(), query);
         updateReplaceResultTextField(i);
     }
 
+    private FindAndReplaceQuery buildFindQuery() {
+        return new FindAndReplaceQuery(findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+    }
+
+    private FindAndReplaceQuery buildReplaceQuery() {
+        return new FindAndReplaceQuery(findTextField.getText(), replaceTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+    }
+
     private boolean isValidTextField() {
         return isValidFindTextField() && isValidReplaceTextField();
     }
@@ -463,7 +476,8 @@ public class TextAutomatonFindAndReplaceDialog extends JDialog {
             return;
         }
         int res = 0;
-        res = FindAndReplace.findAll(frame.getGraphicalZone().getBoxes(), findTextField.getText(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+        FindAndReplaceQuery query = buildFindQuery();
+        res = FindAndReplace.findAll(frame.getGraphicalZone().getBoxes(), query);
         String msg;
         switch (res) {
             case 0:
@@ -509,7 +523,8 @@ public class TextAutomatonFindAndReplaceDialog extends JDialog {
 
     private void updateReplaceErrorTextField() {
         String msg = "";
-        msg = FindAndReplace.checkReplaceAll(frame.getGraphicalZone().getBoxes(), findTextField.getText(), replaceTextField.getText(), frame.getGraphicalZone(), useRegularExpressionsCheckBox.isSelected(), caseSensitiveCheckBox.isSelected(), matchOnlyAWholeCheckBox.isSelected(), ignoreCommentBoxesCheckBox.isSelected());
+        FindAndReplaceQuery query = buildReplaceQuery();
+        msg = FindAndReplace.checkReplaceAll(frame.getGraphicalZone().getBoxes(), frame.getGraphicalZone(), query);
         if (!msg.isEmpty()) {
             statusBarTextField.setText("Error one or more boxes won't be replaced: " + msg);
             statusBarTextField.setForeground(Color.red);
@@ -28,7 +28,6 @@ import java.awt.GridBagLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -90,9 +89,9 @@ import fr.umlv.unitex.io.Encoding;
 import fr.umlv.unitex.io.GraphIO;
 import fr.umlv.unitex.io.UnicodeIO;
 import fr.umlv.unitex.listeners.GraphListener;
-import fr.umlv.unitex.process.EatStreamThread;
 import fr.umlv.unitex.process.Launcher;
 import fr.umlv.unitex.process.Log;
+import fr.umlv.unitex.process.StreamPump;
 import fr.umlv.unitex.process.ToDo;
 import fr.umlv.unitex.process.commands.ElagCommand;
 import fr.umlv.unitex.process.commands.ImplodeTfstCommand;
@@ -693,12 +692,8 @@ public class TextAutomatonFrame extends TfstFrame {
 		Process p;
 		try {
 			p = Runtime.getRuntime().exec(cmd.getCommandArguments(true));
-			final BufferedInputStream in = new BufferedInputStream(
-					p.getInputStream());
-			final BufferedInputStream err = new BufferedInputStream(
-					p.getErrorStream());
-			new EatStreamThread(in).start();
-			new EatStreamThread(err).start();
+			StreamPump.eat(p.getInputStream());
+			StreamPump.eat(p.getErrorStream());
 			p.waitFor();
 		} catch (final IOException e1) {
 			e1.printStackTrace();
@@ -744,12 +739,8 @@ public class TextAutomatonFrame extends TfstFrame {
 		try {
 			final Process p = Runtime.getRuntime().exec(
 					cmd.getCommandArguments(true));
-			final BufferedInputStream in = new BufferedInputStream(
-					p.getInputStream());
-			final BufferedInputStream err = new BufferedInputStream(
-					p.getErrorStream());
-			new EatStreamThread(in).start();
-			new EatStreamThread(err).start();
+			StreamPump.eat(p.getInputStream());
+			StreamPump.eat(p.getErrorStream());
 			p.waitFor();
 		} catch (final IOException e1) {
 			e1.printStackTrace();
@@ -184,6 +184,5 @@ public class TfstTagsFrame extends JInternalFrame {
 	void hideFrame() {
 		text.reset();
 		setVisible(false);
-		System.gc();
 	}
 }
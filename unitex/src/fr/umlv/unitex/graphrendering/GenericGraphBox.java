@@ -24,7 +24,9 @@ import java.awt.Color;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
 import java.awt.font.TextLayout;
 import java.io.File;
 import java.util.ArrayList;
@@ -39,6 +41,7 @@ import fr.umlv.unitex.config.ConfigManager;
 import fr.umlv.unitex.diff.GraphDecoratorConfig;
 import fr.umlv.unitex.exceptions.*;
 import fr.umlv.unitex.frames.GraphFrame;
+import fr.umlv.unitex.grf.GraphPresentationInfo;
 
 /**
  * This class describes a box of a graph or a sentence graph.
@@ -182,6 +185,12 @@ public class GenericGraphBox {
 	 * Number of the box
 	 */
 	int identificationNumber; // number used to numerote the state
+	/*
+	 * Cached text measurements, for the box's own context and for the last
+	 * context it was painted in
+	 */
+	private LineMetrics measuredLines;
+	private LineMetrics paintedLines;
 
 	/**
 	 * Constructs a new box
@@ -532,6 +541,9 @@ public class GenericGraphBox {
 		Y_out = Y_out + dy;
 		X1 = X1 + dx;
 		Y1 = Y1 + dy;
+		if (parentGraphicalZone != null) {
+			parentGraphicalZone.invalidateSpatialIndex();
+		}
 	}
 
 	/**
@@ -552,6 +564,40 @@ public class GenericGraphBox {
 		return !((X1 > (Xr + Wr)) || ((X1 + Width) < Xr) || (Y1 > (Yr + Hr)) || ((Y1 + Height) < Yr));
 	}
 
+	/**
+	 * Computes a rectangle that contains everything that <code>draw</code> may
+	 * paint for this box, including the output and the range, that can be
+	 * wider than the box itself.
+	 * 
+	 * @param r
+	 *            the rectangle to set
+	 * @return <code>false</code> if the bounds cannot be computed because the
+	 *         box has no graphical context yet
+	 */
+	boolean getPaintBounds(Rectangle r) {
+		if (context == null) {
+			return false;
+		}
+		final GraphPresentationInfo info = parentGraphicalZone
+				.getGraphPresentationInfo();
+		final FontMetrics input = context.getFontMetrics(info.getInput()
+				.getFont());
+		final FontMetrics output = context.getFontMetrics(info.getOutput()
+				.getFont());
+		int textWidth = 0;
+		if (!transduction.equals("")) {
+			textWidth = 10 + Math.max(input.stringWidth(transduction),
+					output.stringWidth(transduction));
+		}
+		final int x1 = Math.min(Math.min(X, X1), X_in) - 20;
+		final int x2 = Math.max(Math.max(X, X1) + Width + textWidth, X_out) + 20;
+		final int y1 = Math.min(Y - 10, Y1) - input.getHeight() - 10;
+		final int y2 = Math.max(Y + 11, Y1 + Height) + 2 * output.getHeight()
+				+ 10;
+		r.setBounds(x1, y1, x2 - x1, y2 - y1);
+		return true;
+	}
+
 	/**
 	 * Draws a transition to a box
 	 * 
@@ -951,11 +997,8 @@ public class GenericGraphBox {
 				g.setColor(Color.GREEN.darker());
 			}
 			if (!l.equals("")) {
-				final TextLayout textlayout = new TextLayout(l,
-						parentGraphicalZone.getGraphPresentationInfo()
-								.getInput().getFont(), g.getFontRenderContext());
-				textlayout
-						.draw(g, X1 + 5, Y1 - descent + 3 + (i + 1) * h_ligne);
+				getLineLayout(g, i).draw(g, X1 + 5,
+						Y1 - descent + 3 + (i + 1) * h_ligne);
 			}
 		}
 		// prints the transduction, if exists
@@ -1271,10 +1314,8 @@ public class GenericGraphBox {
 						Width - 4, h_ligne);
 			}
 			g.setColor(params.getForegroundColor());
-			final TextLayout textlayout = new TextLayout(l, parentGraphicalZone
-					.getGraphPresentationInfo().getInput().getFont(),
-					g.getFontRenderContext());
-			textlayout.draw(g, X1 + 5, Y1 - descent + 3 + (i + 1) * h_ligne);
+			getLineLayout(g, i).draw(g, X1 + 5,
+					Y1 - descent + 3 + (i + 1) * h_ligne);
 		}
 		// prints the output, if any
 		if (parentGraphicalZone.decorator == null) {
@@ -1345,11 +1386,8 @@ public class GenericGraphBox {
 		for (i = 0; i < n_lines; i++) {
 			l = lines.get(i);
 			if (!l.equals("")) {
-				final TextLayout textlayout = new TextLayout(l,
-						parentGraphicalZone.getGraphPresentationInfo()
-								.getInput().getFont(), g.getFontRenderContext());
-				textlayout
-						.draw(g, X1 + 5, Y1 - descent + 3 + (i + 1) * h_ligne);
+				getLineLayout(g, i).draw(g, X1 + 5,
+						Y1 - descent + 3 + (i + 1) * h_ligne);
 			}
 		}
 		// prints the transduction, if exists
@@ -1414,8 +1452,9 @@ public class GenericGraphBox {
 		updateWithContext(g);
 		g.setFont(parentGraphicalZone.getGraphPresentationInfo().getInput()
 				.getFont());
-		h_ligne = g.getFontMetrics().getHeight();
-		descent = g.getFontMetrics().getDescent();
+		final LineMetrics m = getPaintedLines(g);
+		h_ligne = m.height;
+		descent = m.descent;
 		if (singleDragging) {
 			// if the box is being dragged just under the mouse,
 			// we just draw its frame
@@ -1461,9 +1500,7 @@ public class GenericGraphBox {
 		if (context == null) {
 			return 0;
 		}
-		context.setFont(parentGraphicalZone.getGraphPresentationInfo()
-				.getInput().getFont());
-		return context.getFontMetrics().getHeight();
+		return getMeasuredLines().height;
 	}
 
 	/**
@@ -1488,17 +1525,60 @@ public class GenericGraphBox {
 		if (context == null) {
 			return 0;
 		}
-		int i, max = 0;
-		String s;
-		max = 0;
-		final FontMetrics f = context.getFontMetrics(parentGraphicalZone
-				.getGraphPresentationInfo().getInput().getFont());
-		for (i = 0; i < n_lines; i++) {
-			s = lines.get(i);
-			if (max < f.stringWidth(s))
-				max = f.stringWidth(s);
+		final LineMetrics m = getMeasuredLines();
+		if (m.maxWidth == -1) {
+			int max = 0;
+			final FontMetrics f = context.getFontMetrics(m.font);
+			for (final String s : m.lines) {
+				max = Math.max(max, f.stringWidth(s));
+			}
+			m.maxWidth = max;
+		}
+		return m.maxWidth;
+	}
+
+	/**
+	 * Returns the metrics of the current lines in the box's own context, that
+	 * are used to compute the size of the box. Since <code>update</code> is
+	 * called on all boxes after many operations, this avoids measuring again
+	 * the boxes whose lines and font have not changed.
+	 */
+	private LineMetrics getMeasuredLines() {
+		final Font font = parentGraphicalZone.getGraphPresentationInfo()
+				.getInput().getFont();
+		final FontRenderContext frc = context.getFontRenderContext();
+		if (measuredLines == null
+				|| !measuredLines.isFor(lines, n_lines, font, frc)) {
+			measuredLines = new LineMetrics(lines, n_lines, font, frc,
+					context.getFontMetrics(font));
+		}
+		return measuredLines;
+	}
+
+	/**
+	 * Returns the metrics of the current lines in the given context. The font
+	 * render context depends on the zoom, so that text layouts are only
+	 * created again when the lines, the font or the zoom change, and not on
+	 * each repaint.
+	 */
+	private LineMetrics getPaintedLines(Graphics2D g) {
+		final Font font = parentGraphicalZone.getGraphPresentationInfo()
+				.getInput().getFont();
+		final FontRenderContext frc = g.getFontRenderContext();
+		if (paintedLines == null
+				|| !paintedLines.isFor(lines, n_lines, font, frc)) {
+			paintedLines = new LineMetrics(lines, n_lines, font, frc,
+					g.getFontMetrics(font));
+		}
+		return paintedLines;
+	}
+
+	private TextLayout getLineLayout(Graphics2D g, int i) {
+		final LineMetrics m = getPaintedLines(g);
+		if (m.layouts[i] == null) {
+			m.layouts[i] = new TextLayout(m.lines[i], m.font, m.frc);
 		}
-		return max;
+		return m.layouts[i];
 	}
 
 	/**
@@ -1671,7 +1751,7 @@ public class GenericGraphBox {
 	 * @throws NoClosingSupException if the String contains a not closed chevron.
 	 * @throws NoClosingRoundBracketException if the String contains a not closed brace.
 	 */
-	public void checkString(String s)
+	public static void checkString(String s)
 			throws BackSlashAtEndOfLineException, MissingGraphNameException,
 			NoClosingQuoteException, NoClosingSupException,
 			NoClosingRoundBracketException {
@@ -1721,4 +1801,41 @@ public class GenericGraphBox {
 			}
 		}
 	}
+
+	/**
+	 * Text measurements of the lines of a box, for a given font and font
+	 * render context. Text layouts are created lazily, since only painted
+	 * boxes need them.
+	 */
+	private static class LineMetrics {
+		final String[] lines;
+		final Font font;
+		final FontRenderContext frc;
+		final int height;
+		final int descent;
+		int maxWidth = -1;
+		final TextLayout[] layouts;
+
+		LineMetrics(ArrayList<String> l, int n, Font font,
+				FontRenderContext frc, FontMetrics metrics) {
+			this.lines = l.subList(0, n).toArray(new String[n]);
+			this.font = font;
+			this.frc = frc;
+			this.height = metrics.getHeight();
+			this.descent = metrics.getDescent();
+			this.layouts = new TextLayout[n];
+		}
+
+		boolean isFor(ArrayList<String> l, int n, Font f, FontRenderContext c) {
+			if (n != lines.length || !f.equals(font) || !c.equals(frc)) {
+				return false;
+			}
+			for (int i = 0; i < n; i++) {
+				if (!lines[i].equals(l.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
 }
@@ -26,6 +26,7 @@ import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Vector;
 
 import javax.swing.*;
@@ -113,6 +114,12 @@ public abstract class GenericGraphicalZone extends JComponent {
 	int Ymouse;
 	boolean mouseInGraphicalZone = false;
 	private Rectangle clipZone;
+	/**
+	 * Spatial index of the boxes. If spatialIndexChecked is false, some boxes
+	 * may have changed since it was built.
+	 */
+	private GraphSpatialIndex spatialIndex;
+	private boolean spatialIndexChecked = false;
 	/**
 	 * If decorator is null, it is the normal display case. If not, we use
 	 * special drawing tricks.
@@ -396,10 +403,11 @@ public abstract class GenericGraphicalZone extends JComponent {
 	 *         -1 if no box was selected by the click
 	 */
 	int getSelectedBox(int x, int y) {
-		int i, L;
 		GenericGraphBox g;
-		L = graphBoxes.size();
-		for (i = 0; i < L; i++) {
+		final BitSet candidates = new BitSet();
+		getSpatialIndex(false).getBoxes(x, y, x, y, candidates);
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates
+				.nextSetBit(i + 1)) {
 			g = graphBoxes.get(i);
 			if (x >= g.X && x <= g.X + g.Width && y >= g.Y1
 					&& y <= g.Y1 + g.Height)
@@ -451,11 +459,12 @@ public abstract class GenericGraphicalZone extends JComponent {
 	 *            height of the selection rectangle
 	 */
 	void selectByRectangle(int x, int y, int w, int h) {
-		int i, L;
 		GenericGraphBox g;
-		L = graphBoxes.size();
 		String s = null;
-		for (i = 0; i < L; i++) {
+		final BitSet candidates = new BitSet();
+		getSpatialIndex(false).getBoxes(x, y, x + w, y + h, candidates);
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates
+				.nextSetBit(i + 1)) {
 			g = graphBoxes.get(i);
 			if (g.isSelectedByRectangle(x, y, w, h)) {
 				g.setSelected(true);
@@ -594,7 +603,8 @@ public abstract class GenericGraphicalZone extends JComponent {
 	abstract public void drawGraph(Graphics2D f, DrawGraphParams params);
 
 	/**
-	 * Draws all graph's transitions
+	 * Draws all graph's transitions. If the graphical context has a clip,
+	 * only the transitions that may cross it are drawn.
 	 *
 	 * @param gr
 	 *            the graphical context
@@ -604,10 +614,22 @@ public abstract class GenericGraphicalZone extends JComponent {
 		GenericGraphBox g;
 		if (graphBoxes.isEmpty())
 			return;
-		L = graphBoxes.size();
-		for (i = 0; i < L; i++) {
-			g = graphBoxes.get(i);
-			g.drawTransitions(gr, params);
+		final Rectangle clip = getCullingZone(gr);
+		if (clip == null) {
+			L = graphBoxes.size();
+			for (i = 0; i < L; i++) {
+				g = graphBoxes.get(i);
+				g.drawTransitions(gr, params);
+			}
+			return;
+		}
+		final GraphSpatialIndex index = getSpatialIndex(true);
+		final BitSet visible = new BitSet();
+		index.getTransitions(clip.x, clip.y, clip.x + clip.width, clip.y
+				+ clip.height, visible);
+		for (i = visible.nextSetBit(0); i >= 0; i = visible.nextSetBit(i + 1)) {
+			index.getTransitionSource(i).drawTransition(gr,
+					index.getTransitionDest(i), params);
 		}
 	}
 
@@ -648,7 +670,8 @@ public abstract class GenericGraphicalZone extends JComponent {
 	}
 
 	/**
-	 * Draws all boxes of the graph
+	 * Draws all boxes of the graph. If the graphical context has a clip, only
+	 * the boxes that may be visible in it are drawn.
 	 *
 	 * @param gr
 	 *            the graphical context
@@ -658,11 +681,63 @@ public abstract class GenericGraphicalZone extends JComponent {
 		GenericGraphBox g;
 		if (graphBoxes.isEmpty())
 			return;
-		L = graphBoxes.size();
-		for (i = 0; i < L; i++) {
-			g = graphBoxes.get(i);
-			g.draw(gr, params);
+		final Rectangle clip = getCullingZone(gr);
+		if (clip == null) {
+			L = graphBoxes.size();
+			for (i = 0; i < L; i++) {
+				g = graphBoxes.get(i);
+				g.draw(gr, params);
+			}
+			return;
+		}
+		final BitSet visible = new BitSet();
+		getSpatialIndex(true).getBoxes(clip.x, clip.y, clip.x + clip.width,
+				clip.y + clip.height, visible);
+		for (i = visible.nextSetBit(0); i >= 0; i = visible.nextSetBit(i + 1)) {
+			graphBoxes.get(i).draw(gr, params);
+		}
+	}
+
+	/**
+	 * Returns the clip of the given context in graph coordinates, or null if
+	 * everything must be drawn. Culling is not used with a decorator, since it
+	 * may draw labels of any size next to the boxes.
+	 */
+	private Rectangle getCullingZone(Graphics2D gr) {
+		final Rectangle clip = gr.getClipBounds();
+		if (clip == null || decorator != null) {
+			return null;
 		}
+		/*
+		 * Boxes compute their size when they are drawn for the first time, so
+		 * we must do it for all of them before we can know where they are
+		 */
+		for (final GenericGraphBox g : graphBoxes) {
+			g.updateWithContext(gr);
+		}
+		return clip;
+	}
+
+	/**
+	 * Returns the spatial index of the boxes, building it again if needed.
+	 * Moving a box or modifying the graph invalidates the index, so that mouse
+	 * events only need the cheap check. Painting asks for a full check,
+	 * because some edits like undo modify boxes directly.
+	 */
+	GraphSpatialIndex getSpatialIndex(boolean checkGeometry) {
+		final boolean check = checkGeometry || !spatialIndexChecked;
+		if (spatialIndex == null
+				|| !spatialIndex.isUpToDate(graphBoxes,
+						getGraphPresentationInfo(), check)) {
+			spatialIndex = new GraphSpatialIndex(graphBoxes,
+					getGraphPresentationInfo());
+		}
+		spatialIndexChecked = true;
+		return spatialIndex;
+	}
+
+	void invalidateSpatialIndex() {
+		spatialIndexChecked = false;
 	}
 
 	/**
@@ -934,6 +1009,9 @@ public abstract class GenericGraphicalZone extends JComponent {
 	}
 
 	void fireGraphChanged(boolean modified) {
+		if (modified) {
+			invalidateSpatialIndex();
+		}
 		firingGraph = true;
 		try {
 			for (final GraphListener l : graphListeners) {
@@ -1015,12 +1093,12 @@ public abstract class GenericGraphicalZone extends JComponent {
 	}
 
   public void checkTextBox(GenericGraphBox g, String s) throws BackSlashAtEndOfLineException, NoClosingSupException, NoClosingQuoteException, NoClosingRoundBracketException, MissingGraphNameException {
-    g.checkString(s);
+    GenericGraphBox.checkString(s);
   }
 
 	public boolean setTextBox(GenericGraphBox g, String s) {
     try {
-      g.checkString(s);
+      GenericGraphBox.checkString(s);
     } catch (BackSlashAtEndOfLineException e) {
       return false;
     } catch (MissingGraphNameException e) {
@@ -58,7 +58,7 @@ public class GraphBox extends GenericGraphBox {
 	/*
 	 * The following methods are used to manipulate the box text
 	 */
-	private int test_transduction(char s[], int i) {
+	private static int test_transduction(char s[], int i) {
 		int compteur;
 		if (s[i] != '/')
 			return 0;
@@ -77,7 +77,8 @@ public class GraphBox extends GenericGraphBox {
 		return (c == '+' || c == '\uff0b');
 	}
 
-	private void tokenizeTextWithoutTransduction(String s)
+	private static void tokenizeTextWithoutTransduction(String s,
+			ArrayList<String> lines, ArrayList<Boolean> greyed)
 			throws BackSlashAtEndOfLineException, MissingGraphNameException,
 			NoClosingQuoteException, NoClosingSupException,
 			NoClosingRoundBracketException {
@@ -111,7 +112,6 @@ public class GraphBox extends GenericGraphBox {
 				if (i < L)
 					ligne[i] = '+';
 				i++;
-				n_lines++;
 				lines.add(tmp);
 				greyed.add(Boolean.TRUE);
 			} else {
@@ -185,7 +185,6 @@ public class GraphBox extends GenericGraphBox {
 				}
 				if (i < L)
 					ligne[i] = '+';
-				n_lines++;
 				lines.add(tmp);
 				greyed.add(Boolean.FALSE);
 				i++;
@@ -209,6 +208,81 @@ public class GraphBox extends GenericGraphBox {
 		return f.stringWidth(mark);
 	}
 
+	/**
+	 * Fills lines and greyed with the lines that a box with the given content
+	 * displays, and tells for each of them if it is a subgraph call. This is
+	 * what setContent does, without computing any geometry, so that it can be
+	 * used on graphs that are not displayed.
+	 */
+	public static void tokenizeContent(String content,
+			ArrayList<String> lines, ArrayList<Boolean> greyed) {
+		greyed.clear();
+		if (tokenizeCommentBox(content, lines)) {
+			/* Case of a special comment box */
+			for (int j = 0; j < lines.size(); j++) {
+				greyed.add(Boolean.FALSE);
+			}
+			return;
+		}
+		final int L = content.length();
+		if (L == 0) {
+			return;
+		}
+		final char line[] = content.toCharArray();
+		if (line[0] == '$' && (line[L - 1] == '(' || line[L - 1] == ')')) {
+			/* $a( or $a) */
+			lines.add(String.valueOf(line[L - 1]));
+			greyed.add(Boolean.FALSE);
+			return;
+		}
+		if (content.equals("$[") || content.equals("$![")
+				|| content.equals("$]") || content.equals("$*")) {
+			/* Context marks */
+			lines.add(content.substring(1));
+			greyed.add(Boolean.FALSE);
+			return;
+		}
+		if (content.equals("$G") || content.startsWith("$G/")) {
+			lines.add(content.substring(1, 2));
+			greyed.add(Boolean.FALSE);
+			return;
+		}
+		if (content.equals("$<") || content.equals("$>")) {
+			/* Morphological mode marks */
+			lines.add(content.substring(1));
+			greyed.add(Boolean.FALSE);
+			return;
+		}
+		final String tmp = content.substring(0, getTransductionStart(line));
+		if (tmp.equals("<E>")) {
+			return;
+		}
+		try {
+			tokenizeTextWithoutTransduction(tmp, lines, greyed);
+		} catch (final BackSlashAtEndOfLineException e) {
+			e.printStackTrace();
+		} catch (final MissingGraphNameException e) {
+			e.printStackTrace();
+		} catch (final NoClosingQuoteException e) {
+			e.printStackTrace();
+		} catch (final NoClosingRoundBracketException e) {
+			e.printStackTrace();
+		} catch (final NoClosingSupException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the position of the / that starts the output of the box, or the
+	 * length of the content if there is no output.
+	 */
+	private static int getTransductionStart(char line[]) {
+		int i = 0;
+		while ((i != line.length) && (test_transduction(line, i) == 0))
+			i++;
+		return i;
+	}
+
 	/**
 	 * Sets the box content.
 	 *
@@ -224,24 +298,19 @@ public class GraphBox extends GenericGraphBox {
 			throw new IllegalStateException(
 					"The graph contains an unexpected empty box that is not the final state");
 		}
-		String tmp = "";
-		int i = 0, L;
-		L = content.length();
+		final int L = content.length();
 		variable = false;
 		contextMark = false;
                 genericGrfMark = false;
 		morphologicalModeMark = false;
 		commentBox = false;
 		transduction = "";
-		greyed.clear();
-		if (tokenizeCommentBox(content, lines)) {
+		tokenizeContent(content, lines, greyed);
+		n_lines = lines.size();
+		if (tokenizeCommentBox(content, null)) {
 			/* Case of a special comment box */
 			commentBox = true;
 			standaloneBox = true;
-			n_lines = lines.size();
-			for (int j = 0; j < n_lines; j++) {
-				greyed.add(Boolean.FALSE);
-			}
 			// dimensions of a full box
 			Width = maxLineWidth() + 10;
 			Height = n_lines * get_h_ligne() + 6;
@@ -255,7 +324,6 @@ public class GraphBox extends GenericGraphBox {
 			removeAllIncomingTransitions();
 			return;
 		}
-		lines.clear();
 		final char line[] = content.toCharArray();
 		if (line[0] == '$' && (line[L - 1] == '(' || line[L - 1] == ')')) {
 			// //////////////////////////////////////////
@@ -263,13 +331,8 @@ public class GraphBox extends GenericGraphBox {
 			// //////////////////////////////////////////
 			variable = true;
 			outputVariable = (line[1] == '|');
-			lines.clear();
-			greyed.clear();
-			lines.add(String.valueOf(line[L - 1]));
-			greyed.add(Boolean.FALSE);
 			transduction = content.substring(1 + (outputVariable ? 1 : 0),
 					L - 1);
-			n_lines = 1;
 			Height = get_h_variable_ligne() + 3;
 			Width = maxVariableLineWidth() + 5;
 			Y1 = Y - Height / 2;
@@ -284,15 +347,8 @@ public class GraphBox extends GenericGraphBox {
 			// ab $![ cd $] => ab not followed by cd
 			// //////////////////////////////////////////
 			contextMark = true;
-			lines.clear();
-			greyed.clear();
-			final String sub = content.substring(1);
-			lines.add(sub);
-			greyed.add(Boolean.FALSE);
-			transduction = "";
-			n_lines = 1;
 			Height = get_h_variable_ligne() + 3;
-			Width = maxContextMarkLineWidth(sub) + 5;
+			Width = maxContextMarkLineWidth(lines.get(0)) + 5;
 			Y1 = Y - Height / 2;
 			X_out = X + Width + 2;
 			return;
@@ -303,18 +359,11 @@ public class GraphBox extends GenericGraphBox {
                     // $@ ab => search ab in the token list
                     // /////////////////////
                     genericGrfMark = true;
-                    lines.clear();
-                    greyed.clear();
-                    final String sub = content.substring(1,2);
-                    lines.add(sub);
-                    greyed.add(Boolean.FALSE);
-                    transduction = "";
                     if(content.length() > 3 && content.charAt(2) =='/') {
                             transduction = transduction.concat(content.substring(3));
                     }
-                    n_lines = 1;
                     Height = get_h_variable_ligne() + 3;
-                    Width = maxContextMarkLineWidth(sub) + 5;
+                    Width = maxContextMarkLineWidth(lines.get(0)) + 5;
                     Y1 = Y - Height / 2;
                     X_out = X + Width + 2;
                     return;
@@ -324,44 +373,15 @@ public class GraphBox extends GenericGraphBox {
 			// case of morphological mode marks ($< and $>)
 			// //////////////////////////////////////////
 			morphologicalModeMark = true;
-			lines.clear();
-			greyed.clear();
-			final String sub = content.substring(1);
-			lines.add(sub);
-			greyed.add(Boolean.FALSE);
-			transduction = "";
-			n_lines = 1;
 			Height = get_h_variable_ligne() + 3;
-			Width = maxContextMarkLineWidth(sub) + 5;
+			Width = maxContextMarkLineWidth(lines.get(0)) + 5;
 			Y1 = Y - Height / 2;
 			X_out = X + Width + 2;
 			return;
 		}
-		while ((i != L) && (test_transduction(line, i) == 0))
-			tmp = tmp.concat(String.valueOf(line[i++]));
-		transduction = "";
-		if (i != L) {
-			i++;
-			while (i != L)
-				transduction = transduction.concat(String.valueOf(line[i++]));
-		}
-		n_lines = 0;
-		lines.clear();
-		greyed.clear();
-		try {
-			if (!tmp.equals("<E>"))
-				tokenizeTextWithoutTransduction(tmp);
-		} catch (final BackSlashAtEndOfLineException e) {
-			e.printStackTrace();
-		} catch (final MissingGraphNameException e) {
-			e.printStackTrace();
-		} catch (final NoClosingQuoteException e) {
-			e.printStackTrace();
-		} catch (final NoClosingRoundBracketException e) {
-			e.printStackTrace();
-		} catch (final NoClosingSupException e) {
-			e.printStackTrace();
-		}
+		final int i = getTransductionStart(line);
+		final String tmp = content.substring(0, i);
+		transduction = (i != L) ? content.substring(i + 1) : "";
 		if (!tmp.equals("<E>")) {
 			// dimensions of a full box
 			Width = maxLineWidth() + 10;
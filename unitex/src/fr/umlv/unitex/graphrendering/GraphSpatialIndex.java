@@ -0,0 +1,358 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.graphrendering;
+
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import fr.umlv.unitex.grf.GraphPresentationInfo;
+
+/**
+ * This is a uniform grid over the boxes and the transitions of a graphical
+ * zone, so that painting, hit-testing and rubber-band selection only have to
+ * look at the boxes near a given rectangle. Boxes and transitions are
+ * numbered in drawing order: box #i is graphBoxes.get(i), and transitions are
+ * numbered box by box, in the order of their source box's transition list.
+ * 
+ * The index is a snapshot: it records the geometry it was built from, so that
+ * {@link #isUpToDate(ArrayList, GraphPresentationInfo, boolean)} can tell when
+ * it must be rebuilt.
+ */
+class GraphSpatialIndex {
+	private static final int MIN_CELL_SIZE = 64;
+	/*
+	 * Entries that would cover more cells than this, like transitions between
+	 * distant boxes, are tested one by one instead
+	 */
+	private static final int MAX_CELLS_PER_ENTRY = 16;
+	/* Number of coordinates recorded for each box */
+	private static final int GEOMETRY_SIZE = 10;
+
+	private final ArrayList<GenericGraphBox> list;
+	private final GenericGraphBox[] boxes;
+	private final int[] geometry;
+	private final String[] contents;
+	private final String[] transductions;
+	private final BitSet withContext = new BitSet();
+	private final int[] transitionStart;
+	private final GenericGraphBox[] transitionDest;
+	private final int[] transitionSource;
+	private final Font inputFont;
+	private final Font outputFont;
+	private final Grid boxGrid;
+	private final Grid transitionGrid;
+
+	GraphSpatialIndex(ArrayList<GenericGraphBox> list, GraphPresentationInfo info) {
+		this.list = list;
+		final int n = list.size();
+		boxes = list.toArray(new GenericGraphBox[n]);
+		geometry = new int[GEOMETRY_SIZE * n];
+		contents = new String[n];
+		transductions = new String[n];
+		transitionStart = new int[n + 1];
+		inputFont = info.getInput().getFont();
+		outputFont = info.getOutput().getFont();
+		final int[] minX = new int[n];
+		final int[] minY = new int[n];
+		final int[] maxX = new int[n];
+		final int[] maxY = new int[n];
+		final BitSet unbounded = new BitSet();
+		final Rectangle r = new Rectangle();
+		for (int i = 0; i < n; i++) {
+			final GenericGraphBox b = boxes[i];
+			getGeometry(b, geometry, GEOMETRY_SIZE * i);
+			contents[i] = b.content;
+			transductions[i] = b.transduction;
+			transitionStart[i + 1] = transitionStart[i] + b.transitions.size();
+			if (b.getPaintBounds(r)) {
+				withContext.set(i);
+				minX[i] = r.x;
+				minY[i] = r.y;
+				maxX[i] = r.x + r.width;
+				maxY[i] = r.y + r.height;
+			} else {
+				/* We cannot tell where the box will be drawn */
+				unbounded.set(i);
+			}
+		}
+		boxGrid = new Grid(minX, minY, maxX, maxY, unbounded);
+		final int t = transitionStart[n];
+		transitionDest = new GenericGraphBox[t];
+		transitionSource = new int[t];
+		final int[] tMinX = new int[t];
+		final int[] tMinY = new int[t];
+		final int[] tMaxX = new int[t];
+		final int[] tMaxY = new int[t];
+		int k = 0;
+		for (int i = 0; i < n; i++) {
+			final GenericGraphBox src = boxes[i];
+			for (final GenericGraphBox dest : src.transitions) {
+				transitionDest[k] = dest;
+				transitionSource[k] = i;
+				/*
+				 * Arcs and curves never go further from the boxes than the sum
+				 * of the diameters used by drawTransition
+				 */
+				final int margin = 30 + src.Height / 2 + dest.Height / 2;
+				tMinX[k] = Math.min(getMinX(src), getMinX(dest)) - margin;
+				tMinY[k] = Math.min(getMinY(src), getMinY(dest)) - margin;
+				tMaxX[k] = Math.max(getMaxX(src), getMaxX(dest)) + margin;
+				tMaxY[k] = Math.max(getMaxY(src), getMaxY(dest)) + margin;
+				k++;
+			}
+		}
+		transitionGrid = new Grid(tMinX, tMinY, tMaxX, tMaxY, new BitSet());
+	}
+
+	private static void getGeometry(GenericGraphBox b, int[] t, int pos) {
+		t[pos] = b.X;
+		t[pos + 1] = b.Y;
+		t[pos + 2] = b.X1;
+		t[pos + 3] = b.Y1;
+		t[pos + 4] = b.X_in;
+		t[pos + 5] = b.Y_in;
+		t[pos + 6] = b.X_out;
+		t[pos + 7] = b.Y_out;
+		t[pos + 8] = b.Width;
+		t[pos + 9] = b.Height;
+	}
+
+	private static int getMinX(GenericGraphBox b) {
+		return Math.min(Math.min(b.X, b.X1), b.X_in) - 5;
+	}
+
+	private static int getMaxX(GenericGraphBox b) {
+		return Math.max(Math.max(b.X, b.X1) + b.Width, b.X_out);
+	}
+
+	private static int getMinY(GenericGraphBox b) {
+		return Math.min(b.Y1, Math.min(b.Y_in, b.Y_out));
+	}
+
+	private static int getMaxY(GenericGraphBox b) {
+		return Math.max(b.Y1 + b.Height, Math.max(b.Y_in, b.Y_out));
+	}
+
+	/**
+	 * Tells if this index still describes the given boxes. If checkGeometry
+	 * is false, we only check that the box list has the same size, which is
+	 * enough when the caller knows that no box has been moved or modified
+	 * since the index was built. Otherwise, the positions, sizes, texts and
+	 * transitions of all boxes are compared, which is much cheaper than
+	 * drawing them anyway.
+	 */
+	boolean isUpToDate(ArrayList<GenericGraphBox> l, GraphPresentationInfo info,
+			boolean checkGeometry) {
+		if (l != list || l.size() != boxes.length) {
+			return false;
+		}
+		if (!checkGeometry) {
+			return true;
+		}
+		if (info.getInput().getFont() != inputFont
+				|| info.getOutput().getFont() != outputFont) {
+			return false;
+		}
+		final int[] g = new int[GEOMETRY_SIZE];
+		for (int i = 0; i < boxes.length; i++) {
+			final GenericGraphBox b = l.get(i);
+			if (b != boxes[i] || b.content != contents[i]
+					|| b.transduction != transductions[i]
+					|| (b.context != null) != withContext.get(i)) {
+				return false;
+			}
+			getGeometry(b, g, 0);
+			for (int j = 0; j < GEOMETRY_SIZE; j++) {
+				if (g[j] != geometry[GEOMETRY_SIZE * i + j]) {
+					return false;
+				}
+			}
+			final int start = transitionStart[i];
+			if (b.transitions.size() != transitionStart[i + 1] - start) {
+				return false;
+			}
+			for (int j = 0; j < b.transitions.size(); j++) {
+				if (b.transitions.get(j) != transitionDest[start + j]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds to result the numbers of the boxes that may be drawn in or that
+	 * may contain points of the given rectangle, bounds included. Callers
+	 * must apply their exact test to these candidates.
+	 */
+	void getBoxes(int x1, int y1, int x2, int y2, BitSet result) {
+		boxGrid.query(x1, y1, x2, y2, result);
+	}
+
+	/**
+	 * Adds to result the numbers of the transitions that may be drawn in the
+	 * given rectangle.
+	 */
+	void getTransitions(int x1, int y1, int x2, int y2, BitSet result) {
+		transitionGrid.query(x1, y1, x2, y2, result);
+	}
+
+	GenericGraphBox getTransitionSource(int k) {
+		return boxes[transitionSource[k]];
+	}
+
+	GenericGraphBox getTransitionDest(int k) {
+		return transitionDest[k];
+	}
+
+	/**
+	 * A grid of square cells. Each cell lists the entries whose bounds
+	 * intersect it, so that an entry may appear in several cells. The cells
+	 * are stored in a single array: the entries of cell #c are those in
+	 * [cellStart[c];cellStart[c+1][. Entries that are too large to be put in
+	 * cells are kept apart.
+	 */
+	private static class Grid {
+		private final int[] minX;
+		private final int[] minY;
+		private final int[] maxX;
+		private final int[] maxY;
+		/* Entries that must be returned by any query */
+		private final BitSet unbounded;
+		private final BitSet large = new BitSet();
+		private int x0;
+		private int y0;
+		private int cellSize = MIN_CELL_SIZE;
+		private int columns = 0;
+		private int rows = 0;
+		private int[] cellStart;
+		private int[] cellEntries;
+
+		Grid(int[] minX, int[] minY, int[] maxX, int[] maxY, BitSet unbounded) {
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+			this.unbounded = unbounded;
+			int n = 0;
+			int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE;
+			int x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+			for (int i = 0; i < minX.length; i++) {
+				if (unbounded.get(i)) {
+					continue;
+				}
+				n++;
+				x1 = Math.min(x1, minX[i]);
+				y1 = Math.min(y1, minY[i]);
+				x2 = Math.max(x2, maxX[i]);
+				y2 = Math.max(y2, maxY[i]);
+			}
+			if (n == 0) {
+				return;
+			}
+			x0 = x1;
+			y0 = y1;
+			final long width = (long) x2 - x1 + 1;
+			final long height = (long) y2 - y1 + 1;
+			/* We aim at about one entry per cell */
+			cellSize = (int) Math.max(MIN_CELL_SIZE,
+					Math.ceil(Math.sqrt((double) width * height / n)));
+			columns = (int) ((width - 1) / cellSize + 1);
+			rows = (int) ((height - 1) / cellSize + 1);
+			for (int i = 0; i < minX.length; i++) {
+				if (!unbounded.get(i)
+						&& (long) (column(maxX[i]) - column(minX[i]) + 1)
+								* (row(maxY[i]) - row(minY[i]) + 1) > MAX_CELLS_PER_ENTRY) {
+					large.set(i);
+				}
+			}
+			cellStart = new int[columns * rows + 1];
+			for (int i = 0; i < minX.length; i++) {
+				if (unbounded.get(i) || large.get(i)) {
+					continue;
+				}
+				for (int r = row(minY[i]); r <= row(maxY[i]); r++) {
+					for (int c = column(minX[i]); c <= column(maxX[i]); c++) {
+						cellStart[r * columns + c + 1]++;
+					}
+				}
+			}
+			for (int c = 0; c < columns * rows; c++) {
+				cellStart[c + 1] += cellStart[c];
+			}
+			cellEntries = new int[cellStart[columns * rows]];
+			final int[] pos = new int[columns * rows];
+			for (int i = 0; i < minX.length; i++) {
+				if (unbounded.get(i) || large.get(i)) {
+					continue;
+				}
+				for (int r = row(minY[i]); r <= row(maxY[i]); r++) {
+					for (int c = column(minX[i]); c <= column(maxX[i]); c++) {
+						final int cell = r * columns + c;
+						cellEntries[cellStart[cell] + pos[cell]++] = i;
+					}
+				}
+			}
+		}
+
+		private int column(int x) {
+			return (int) (((long) x - x0) / cellSize);
+		}
+
+		private int row(int y) {
+			return (int) (((long) y - y0) / cellSize);
+		}
+
+		void query(int qx1, int qy1, int qx2, int qy2, BitSet result) {
+			result.or(unbounded);
+			if (columns == 0) {
+				return;
+			}
+			final int x1 = Math.min(qx1, qx2), x2 = Math.max(qx1, qx2);
+			final int y1 = Math.min(qy1, qy2), y2 = Math.max(qy1, qy2);
+			for (int i = large.nextSetBit(0); i >= 0; i = large.nextSetBit(i + 1)) {
+				if (minX[i] <= x2 && maxX[i] >= x1 && minY[i] <= y2
+						&& maxY[i] >= y1) {
+					result.set(i);
+				}
+			}
+			if (x2 < x0 || y2 < y0) {
+				return;
+			}
+			final int c1 = Math.max(0, column(x1)), c2 = column(x2);
+			final int r1 = Math.max(0, row(y1)), r2 = row(y2);
+			for (int r = r1; r <= r2 && r < rows; r++) {
+				for (int c = c1; c <= c2 && c < columns; c++) {
+					final int cell = r * columns + c;
+					for (int j = cellStart[cell]; j < cellStart[cell + 1]; j++) {
+						final int i = cellEntries[j];
+						if (minX[i] <= x2 && maxX[i] >= x1 && minY[i] <= y2
+								&& maxY[i] >= y1) {
+							result.set(i);
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.graphtools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fr.umlv.unitex.exceptions.BackSlashAtEndOfLineException;
+import fr.umlv.unitex.exceptions.MissingGraphNameException;
+import fr.umlv.unitex.exceptions.NoClosingQuoteException;
+import fr.umlv.unitex.exceptions.NoClosingRoundBracketException;
+import fr.umlv.unitex.exceptions.NoClosingSupException;
+import fr.umlv.unitex.graphrendering.GenericGraphBox;
+import fr.umlv.unitex.io.GraphIO;
+import fr.umlv.unitex.io.GraphModel;
+import fr.umlv.unitex.utils.ComputePool;
+
+/**
+ * This class applies a find and replace query to all the graphs of a
+ * directory, without opening them in graph frames. Graphs are processed in
+ * parallel. When possible, the {@link GraphTokenIndex} of the directory is
+ * used to skip the graphs that cannot match.
+ *
+ * Only the boxes that match the query are modified, with the same result as
+ * {@link FindAndReplace#replace(GenericGraphBox, fr.umlv.unitex.graphrendering.GenericGraphicalZone, FindAndReplaceQuery)}.
+ * A replacement that would produce an invalid box content is not applied, and
+ * reported. Graphs are rewritten with
+ * {@link GraphIO#replaceBoxContents(File, String[], String[])}, so that
+ * everything else in the file is kept, and a graph is either fully updated or
+ * not modified at all.
+ */
+public class BatchFindAndReplace {
+	/**
+	 * Applies the query to all the graphs of rootDir and of its
+	 * subdirectories. If dryRun is true, reports are computed but no graph is
+	 * written. The operation stops as soon as cancelled is set, if it is not
+	 * null; graphs that were already written stay so.
+	 *
+	 * @return the reports of the graphs in which at least one box matches,
+	 *         sorted by file name, or null if the operation was cancelled
+	 */
+	public static ArrayList<GraphReport> replaceAll(File rootDir,
+			final FindAndReplaceQuery query, final boolean dryRun,
+			AtomicBoolean cancelled) {
+		return replaceAll(rootDir, query, dryRun, new HashSet<File>(),
+				cancelled);
+	}
+
+	/**
+	 * Same as {@link #replaceAll(File, FindAndReplaceQuery, boolean, AtomicBoolean)},
+	 * except that the given graphs are never written, like the ones that are
+	 * open and modified in graph frames. Their reports say so.
+	 */
+	public static ArrayList<GraphReport> replaceAll(File rootDir,
+			final FindAndReplaceQuery query, final boolean dryRun,
+			Set<File> skipped, AtomicBoolean cancelled) {
+		if (!rootDir.isDirectory())
+			throw new IllegalArgumentException("Directory expected");
+		final AtomicBoolean stop = (cancelled == null) ? new AtomicBoolean(
+				false) : cancelled;
+		final GraphTokenIndex index = GraphTokenIndex.getIndex(rootDir);
+		index.update();
+		final ArrayList<File> candidates = new ArrayList<File>(index
+				.getCandidates(query).keySet());
+		final ArrayList<GraphTask> tasks = new ArrayList<GraphTask>();
+		for (final File grf : candidates) {
+			tasks.add(new GraphTask(grf, query, dryRun,
+					skipped.contains(grf.getAbsoluteFile()), stop));
+		}
+		ComputePool.get().invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				ForkJoinTask.invokeAll(tasks);
+			}
+		});
+		if (stop.get()) {
+			return null;
+		}
+		final ArrayList<GraphReport> reports = new ArrayList<GraphReport>();
+		for (final GraphTask t : tasks) {
+			if (t.report != null) {
+				reports.add(t.report);
+			}
+		}
+		Collections.sort(reports);
+		return reports;
+	}
+
+	static class GraphTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final File grf;
+		private final FindAndReplaceQuery query;
+		private final boolean dryRun;
+		private final boolean skipped;
+		private final AtomicBoolean cancelled;
+		GraphReport report;
+
+		GraphTask(File grf, FindAndReplaceQuery query, boolean dryRun,
+				boolean skipped, AtomicBoolean cancelled) {
+			this.grf = grf;
+			this.query = query;
+			this.dryRun = dryRun;
+			this.skipped = skipped;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		protected void compute() {
+			if (cancelled.get()) {
+				return;
+			}
+			final GraphModel graph = GraphModel.get(grf);
+			if (graph == null) {
+				return;
+			}
+			final int n = graph.getBoxCount();
+			final String[] oldContents = new String[n];
+			final String[] newContents = new String[n];
+			final GraphReport r = new GraphReport(grf);
+			for (int i = 0; i < n; i++) {
+				if (!query.matches(graph, i)) {
+					continue;
+				}
+				final String newContent = query.replace(graph, i);
+				if (newContent == null) {
+					continue;
+				}
+				final String error = checkContent(newContent);
+				r.add(i, graph.getContent(i), newContent, error);
+				if (error == null) {
+					oldContents[i] = graph.getContent(i);
+					newContents[i] = newContent;
+				}
+			}
+			if (r.getChangeCount() == 0) {
+				return;
+			}
+			report = r;
+			if (skipped) {
+				r.error = "the graph is open and modified";
+				return;
+			}
+			if (dryRun || r.getReplacedCount() == 0 || cancelled.get()) {
+				return;
+			}
+			try {
+				GraphIO.replaceBoxContents(grf, oldContents, newContents);
+				r.written = true;
+			} catch (final IOException e) {
+				r.error = e.getMessage();
+			}
+		}
+	}
+
+	/**
+	 * Returns the message that a graph frame would display for an invalid
+	 * box content, or null if the content is valid.
+	 */
+	static String checkContent(String content) {
+		try {
+			GenericGraphBox.checkString(content);
+			return null;
+		} catch (final BackSlashAtEndOfLineException e) {
+			return "Unexpected '\\' at end of line";
+		} catch (final NoClosingSupException e) {
+			return "Boxes must be properly balanced with < >";
+		} catch (final NoClosingQuoteException e) {
+			return "No closing \"";
+		} catch (final NoClosingRoundBracketException e) {
+			return "Boxes must be properly balanced with { }";
+		} catch (final MissingGraphNameException e) {
+			return "Missing graph name after ':'";
+		}
+	}
+
+	/**
+	 * The changes made, or that would be made in dry-run mode, to one graph.
+	 */
+	public static class GraphReport implements Comparable<GraphReport> {
+		private final File grf;
+		private final ArrayList<Integer> boxes = new ArrayList<Integer>();
+		private final ArrayList<String> oldContents = new ArrayList<String>();
+		private final ArrayList<String> newContents = new ArrayList<String>();
+		private final ArrayList<String> errors = new ArrayList<String>();
+		private int replaced = 0;
+		boolean written = false;
+		String error;
+
+		GraphReport(File grf) {
+			this.grf = grf;
+		}
+
+		void add(int box, String oldContent, String newContent, String e) {
+			boxes.add(box);
+			oldContents.add(oldContent);
+			newContents.add(newContent);
+			errors.add(e);
+			if (e == null) {
+				replaced++;
+			}
+		}
+
+		public File getGrf() {
+			return grf;
+		}
+
+		/**
+		 * Returns the number of matching boxes whose content would change,
+		 * including those that were not replaced because of an invalid
+		 * result.
+		 */
+		public int getChangeCount() {
+			return boxes.size();
+		}
+
+		public int getReplacedCount() {
+			return replaced;
+		}
+
+		public int getBox(int i) {
+			return boxes.get(i);
+		}
+
+		public String getOldContent(int i) {
+			return oldContents.get(i);
+		}
+
+		public String getNewContent(int i) {
+			return newContents.get(i);
+		}
+
+		/**
+		 * Returns why the change #i was not applied, or null if it was valid.
+		 */
+		public String getBoxError(int i) {
+			return errors.get(i);
+		}
+
+		/**
+		 * Returns true if the graph has been rewritten. This is never the case
+		 * in dry-run mode.
+		 */
+		public boolean isWritten() {
+			return written;
+		}
+
+		/**
+		 * Returns why the graph could not be rewritten, or null.
+		 */
+		public String getError() {
+			return error;
+		}
+
+		@Override
+		public int compareTo(GraphReport o) {
+			return grf.compareTo(o.grf);
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder b = new StringBuilder();
+			b.append(grf.getPath()).append(": ").append(replaced).append('/')
+					.append(boxes.size()).append(" box(es)");
+			if (error != null) {
+				b.append(", not written: ").append(error);
+			}
+			b.append('\n');
+			for (int i = 0; i < boxes.size(); i++) {
+				b.append("  #").append(boxes.get(i)).append(' ')
+						.append(oldContents.get(i)).append(" -> ")
+						.append(newContents.get(i));
+				if (errors.get(i) != null) {
+					b.append(" (").append(errors.get(i)).append(')');
+				}
+				b.append('\n');
+			}
+			return b.toString();
+		}
+	}
+}
@@ -21,14 +21,15 @@
 package fr.umlv.unitex.graphtools;
 
 import java.io.File;
-import java.io.FilenameFilter;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import fr.umlv.unitex.config.Config;
 import fr.umlv.unitex.graphrendering.GenericGraphBox;
-import fr.umlv.unitex.io.GraphIO;
+import fr.umlv.unitex.io.GraphModel;
 
 /**
  * This class provides methods for building graph dependencies.
@@ -45,11 +46,43 @@ public class Dependancies {
 	 * @return
 	 */
 	public static ArrayList<GraphCall> whoCalls(File grf, File rootDir) {
-		final ArrayList<GraphCall> callers = new ArrayList<GraphCall>();
+		return whoCalls(grf, rootDir, null, null);
+	}
+
+	/**
+	 * Same as {@link #whoCalls(File, File)}, except that callers are also
+	 * given to the listener as soon as they are found, in no particular order.
+	 * The search can be interrupted by setting cancelled.
+	 * 
+	 * @return the callers, or null if the search was cancelled
+	 */
+	public static ArrayList<GraphCall> whoCalls(final File grf, File rootDir,
+			final CallListener listener, AtomicBoolean cancelled) {
 		if (!rootDir.isDirectory())
 			throw new IllegalArgumentException("Directory expected");
-		final HashMap<File, ArrayList<GraphCall>> map = new HashMap<File, ArrayList<GraphCall>>();
-		getAllGraphDependencies(rootDir, map);
+		DependencyCrawler.Listener l = null;
+		if (listener != null) {
+			l = new DependencyCrawler.Listener() {
+				@Override
+				public void graphCrawled(File f, ArrayList<GraphCall> calls) {
+					for (final GraphCall c : calls) {
+						if (c.getGrf().equals(grf)) {
+							final ArrayList<GraphCall> callers = new ArrayList<GraphCall>();
+							callers.add(new GraphCall(f));
+							listener.callsFound(callers);
+						}
+					}
+				}
+			};
+		}
+		final DependencyCrawler crawler = new DependencyCrawler(true, l,
+				cancelled);
+		crawler.crawlDirectory(rootDir);
+		final Map<File, ArrayList<GraphCall>> map = crawler.getResult();
+		GraphDependencyIndex.getIndex().save();
+		if (map == null)
+			return null;
+		final ArrayList<GraphCall> callers = new ArrayList<GraphCall>();
 		for (final File f : map.keySet()) {
 			final ArrayList<GraphCall> list = map.get(f);
 			for (final GraphCall c : list) {
@@ -62,41 +95,94 @@ public class Dependancies {
 		return callers;
 	}
 
+	/**
+	 * Looks recursively in the given directory for all graphs that are not
+	 * called by any other graph.
+	 */
+	public static ArrayList<File> getUnusedGraphs(File rootDir) {
+		if (!rootDir.isDirectory())
+			throw new IllegalArgumentException("Directory expected");
+		final DependencyCrawler crawler = new DependencyCrawler(true, null,
+				null);
+		crawler.crawlDirectory(rootDir);
+		final Map<File, ArrayList<GraphCall>> map = crawler.getResult();
+		GraphDependencyIndex.getIndex().save();
+		if (map == null)
+			return null;
+		final HashSet<File> called = new HashSet<File>();
+		for (final ArrayList<GraphCall> list : map.values()) {
+			for (final GraphCall c : list) {
+				called.add(c.getGrf());
+			}
+		}
+		final ArrayList<File> unused = new ArrayList<File>();
+		for (final File f : map.keySet()) {
+			if (!called.contains(f) && isInDirectory(f, rootDir)) {
+				unused.add(f);
+			}
+		}
+		Collections.sort(unused);
+		return unused;
+	}
+
+	private static boolean isInDirectory(File f, File dir) {
+		for (File parent = f.getParentFile(); parent != null; parent = parent
+				.getParentFile()) {
+			if (parent.equals(dir))
+				return true;
+		}
+		return false;
+	}
+
 	/**
 	 * This function returns the list of all the graphs called by the given grf.
 	 */
 	public static ArrayList<GraphCall> getAllSubgraphs(File grf) {
-		final HashMap<File, ArrayList<GraphCall>> map = new HashMap<File, ArrayList<GraphCall>>();
-		computeGraphDependencies(grf, map, true, false);
-		final ArrayList<GraphCall> result = new ArrayList<GraphCall>();
-		for (final ArrayList<GraphCall> values : map.values()) {
-			for (final GraphCall f : values) {
-				if (!result.contains(f)) {
-					result.add(f);
+		return getAllSubgraphs(grf, null, null);
+	}
+
+	/**
+	 * Same as {@link #getAllSubgraphs(File)}, except that the calls of each
+	 * graph are also given to the listener as soon as they are known. The
+	 * listener may then receive the same call several times. The search can be
+	 * interrupted by setting cancelled.
+	 * 
+	 * @return the calls, or null if the search was cancelled
+	 */
+	public static ArrayList<GraphCall> getAllSubgraphs(File grf,
+			final CallListener listener, AtomicBoolean cancelled) {
+		DependencyCrawler.Listener l = null;
+		if (listener != null) {
+			l = new DependencyCrawler.Listener() {
+				@Override
+				public void graphCrawled(File f, ArrayList<GraphCall> calls) {
+					listener.callsFound(calls);
 				}
-			}
+			};
+		}
+		final DependencyCrawler crawler = new DependencyCrawler(false, l,
+				cancelled);
+		crawler.crawlGraph(grf, true);
+		final Map<File, ArrayList<GraphCall>> map = crawler.getResult();
+		GraphDependencyIndex.getIndex().save();
+		if (map == null)
+			return null;
+		final HashSet<GraphCall> calls = new HashSet<GraphCall>();
+		for (final ArrayList<GraphCall> values : map.values()) {
+			calls.addAll(values);
 		}
+		final ArrayList<GraphCall> result = new ArrayList<GraphCall>(calls);
 		Collections.sort(result);
 		return result;
 	}
 
-	private static void getAllGraphDependencies(File rootDir,
-			HashMap<File, ArrayList<GraphCall>> map) {
-		final File[] files = rootDir.listFiles(new FilenameFilter() {
-			@Override
-			public boolean accept(File dir, String name) {
-				final File tmp = new File(dir, name);
-				return name.endsWith(".grf") || tmp.isDirectory();
-			}
-		});
-		if (files == null)
-			return;
-		for (final File f : files) {
-			if (f.isFile())
-				computeGraphDependencies(f, map, false, true);
-			else
-				getAllGraphDependencies(f, map);
-		}
+	/**
+	 * Listeners are called from the threads that compute dependencies, so
+	 * they must not touch Swing components directly. The given list must not
+	 * be modified.
+	 */
+	public interface CallListener {
+		void callsFound(ArrayList<GraphCall> calls);
 	}
 
 	/**
@@ -104,72 +190,45 @@ public class Dependancies {
 	 * is supposed to be true only if grf is the main graph on which the
 	 * dependency request was made.
 	 */
-	private static ArrayList<GraphCall> getSubgraphs(File grf,
+	static ArrayList<GraphCall> getSubgraphs(File grf,
 			boolean emitErrorMessages, boolean main, boolean whoCallsMode) {
-		GraphIO io;
-		try {
-			io = GraphIO.loadGraph(grf, false, false);
-			if (io == null)
-				return null;
-		} catch (final Exception e) {
+		final GraphDependencyIndex.Entry calls = GraphDependencyIndex
+				.getIndex().get(grf);
+		if (calls == null)
 			return null;
-		}
 		final ArrayList<GraphCall> subgraphs = new ArrayList<GraphCall>();
-		final boolean[] accessible = new boolean[io.getBoxes().size()];
-		final int[] coaccessible = new int[io.getBoxes().size()];
-		for (int i = 0; i < coaccessible.length; i++)
-			coaccessible[i] = UNTESTED;
-		markAccessibleBoxes(io.getBoxes(), accessible, 0);
-		for (int i = 0; i < io.getBoxes().size(); i++) {
-			if (isCoaccessibleBoxes(io.getBoxes(), coaccessible, i)) {
-				coaccessible[i] = TESTED_TRUE;
-			} else {
-				coaccessible[i] = TESTED_FALSE;
-			}
-		}
-		for (int i = 0; i < io.getBoxes().size(); i++) {
-			final boolean useful = accessible[i]
-					&& coaccessible[i] == TESTED_TRUE;
-			addSubgraphs(subgraphs, io.getBoxes().get(i), grf,
-					emitErrorMessages, useful, main, whoCallsMode);
+		for (int i = 0; i < calls.getCallCount(); i++) {
+			addSubgraph(subgraphs, calls.getCall(i), grf, emitErrorMessages,
+					calls.isUseful(i), main, whoCallsMode);
 		}
 		return subgraphs;
 	}
 
 	/**
-	 * This function adds all graphs called by grf into the given map. If grf is
-	 * already a key in the map, then it does nothing.
-	 * 
-	 * main is supposed to be true only when the function is called on the
-	 * original grf on which the dependency request was made.
-	 * 
-	 * If whoCallsMode is true, we only consider useful graphs
+	 * Fills calls with all the subgraph calls of the given graph, in the order
+	 * of its boxes, and usefulCalls with the usefulness of the box that
+	 * contains each of them.
 	 */
-	private static void computeGraphDependencies(File grf,
-			HashMap<File, ArrayList<GraphCall>> map, boolean main,
-			boolean whoCallsMode) {
-		if (map.containsKey(grf))
-			return;
-		/* We look for the graphs that all directly called from grf */
-		final ArrayList<GraphCall> files = getSubgraphs(grf, false, main,
-				whoCallsMode);
-		if (files == null)
-			return;
-		final ArrayList<GraphCall> res = new ArrayList<GraphCall>();
-		for (final GraphCall c : files) {
-			res.add(c);
-		}
-		map.put(grf, res);
-		for (final GraphCall f : res) {
-			computeGraphDependencies(f.getGrf(), map, false, whoCallsMode);
+	static void getCalls(GraphModel graph, ArrayList<String> calls,
+			ArrayList<Boolean> usefulCalls) {
+		final int n = graph.getBoxCount();
+		/* Useful boxes are on a path from the initial to the final state */
+		final boolean[] useful = Reachability.of(graph).getUseful(0, 1);
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < graph.getLineCount(i); j++) {
+				if (graph.isGreyed(i, j)) {
+					calls.add(graph.getLine(i, j));
+					usefulCalls.add(useful[i]);
+				}
+			}
 		}
 	}
 
 	/**
-	 * Adds to the given list the subgraphs contained in the given box.
+	 * Adds to the given list the subgraph called by the given box line.
 	 */
-	private static void addSubgraphs(ArrayList<GraphCall> subgraphs,
-			GenericGraphBox box, File parent, boolean emitErrorMessages,
+	private static void addSubgraph(ArrayList<GraphCall> subgraphs,
+			String call, File parent, boolean emitErrorMessages,
 			boolean useful, boolean main, boolean whoCallsMode) {
 		if (!whoCallsMode && !useful && !main) {
 			/*
@@ -178,38 +237,32 @@ public class Dependancies {
 			 */
 			return;
 		}
-		for (int i = 0; i < box.lines.size(); i++) {
-			if (box.greyed.get(i)) {
-				/* If we have a subgraph call */
-				final File f = getSubgraph(box.lines.get(i), parent,
-						emitErrorMessages);
-				if (f != null && !subgraphs.contains(f) && !f.equals(parent)) {
-					boolean there = false;
-					for (final GraphCall c : subgraphs) {
-						if (c.getGrf().equals(f)) {
-							/*
-							 * The graph may already be present in our list, but
-							 * with a different usefulness. In such a case, we
-							 * update the usefulness in order to indicate that
-							 * the graph appears in at least one useless path
-							 */
-							if (!useful) {
-								c.setUseful(false);
-							}
-							there = true;
-						}
-					}
-					if (!there) {
-						if (whoCallsMode) {
-							/*
-							 * When we look for graph callers, we don't make any
-							 * distinction between direct and indirect graphs
-							 */
-							subgraphs.add(new GraphCall(f, true, true));
-						} else {
-							subgraphs.add(new GraphCall(f, useful, main));
-						}
+		final File f = getSubgraph(call, parent, emitErrorMessages);
+		if (f != null && !subgraphs.contains(f) && !f.equals(parent)) {
+			boolean there = false;
+			for (final GraphCall c : subgraphs) {
+				if (c.getGrf().equals(f)) {
+					/*
+					 * The graph may already be present in our list, but
+					 * with a different usefulness. In such a case, we
+					 * update the usefulness in order to indicate that
+					 * the graph appears in at least one useless path
+					 */
+					if (!useful) {
+						c.setUseful(false);
 					}
+					there = true;
+				}
+			}
+			if (!there) {
+				if (whoCallsMode) {
+					/*
+					 * When we look for graph callers, we don't make any
+					 * distinction between direct and indirect graphs
+					 */
+					subgraphs.add(new GraphCall(f, true, true));
+				} else {
+					subgraphs.add(new GraphCall(f, useful, main));
 				}
 			}
 		}
@@ -243,52 +296,4 @@ public class Dependancies {
 		}
 		return f;
 	}
-
-	private static void markAccessibleBoxes(ArrayList<GenericGraphBox> boxes,
-			boolean[] marked, int n) {
-		if (marked[n] == true)
-			return;
-		marked[n] = true;
-		final GenericGraphBox b = boxes.get(n);
-		final ArrayList<GenericGraphBox> dest = b.getTransitions();
-		if (dest == null)
-			return;
-		for (final GenericGraphBox box : dest) {
-			markAccessibleBoxes(boxes, marked, boxes.indexOf(box));
-		}
-	}
-
-	private final static int UNTESTED = 0;
-	private final static int TESTED_TRUE = 1;
-	private final static int TESTED_FALSE = 2;
-	private final static int BEING_TESTED = 3;
-
-	private static boolean isCoaccessibleBoxes(
-			ArrayList<GenericGraphBox> boxes, int[] marked, int n) {
-		if (marked[n] == TESTED_FALSE || marked[n] == TESTED_TRUE) {
-			return marked[n] == TESTED_TRUE;
-		}
-		if (marked[n] == BEING_TESTED) {
-			return false;
-		}
-		marked[n] = BEING_TESTED;
-		final GenericGraphBox b = boxes.get(n);
-		if (b.type == GenericGraphBox.FINAL) {
-			marked[n] = TESTED_TRUE;
-			return true;
-		}
-		final ArrayList<GenericGraphBox> dest = b.getTransitions();
-		if (dest == null) {
-			marked[n] = TESTED_FALSE;
-			return false;
-		}
-		for (final GenericGraphBox box : dest) {
-			if (isCoaccessibleBoxes(boxes, marked, boxes.indexOf(box))) {
-				marked[n] = UNTESTED;
-				return true;
-			}
-		}
-		marked[n] = UNTESTED;
-		return false;
-	}
 }
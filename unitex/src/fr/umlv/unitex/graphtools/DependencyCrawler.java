@@ -0,0 +1,192 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.graphtools;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.umlv.unitex.utils.ComputePool;
+
+/**
+ * This class computes the subgraph calls of many graphs in parallel, following
+ * the calls from graph to graph. Each graph is crawled only once, even if it
+ * is called from several graphs at the same time. Tasks never wait for each
+ * other: a graph task just submits the tasks of its subgraphs, and the crawl
+ * is over when there is no pending task anymore, so that very deep call
+ * chains do not use more stack than short ones.
+ */
+class DependencyCrawler {
+	private static final FilenameFilter GRF_OR_DIRECTORY = new FilenameFilter() {
+		@Override
+		public boolean accept(File dir, String name) {
+			final File tmp = new File(dir, name);
+			return name.endsWith(".grf") || tmp.isDirectory();
+		}
+	};
+
+	/**
+	 * Listeners are called from the crawling threads, each time the calls of a
+	 * graph have been computed.
+	 */
+	interface Listener {
+		void graphCrawled(File grf, ArrayList<GraphCall> calls);
+	}
+
+	private final boolean whoCallsMode;
+	private final Listener listener;
+	private final AtomicBoolean cancelled;
+	private final ConcurrentHashMap<File, ArrayList<GraphCall>> map = new ConcurrentHashMap<File, ArrayList<GraphCall>>();
+	/* The graphs that have been submitted, including those being crawled */
+	private final ConcurrentHashMap<File, Boolean> seen = new ConcurrentHashMap<File, Boolean>();
+	private final AtomicInteger pending = new AtomicInteger(1);
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	/**
+	 * If whoCallsMode is true, we only consider useful graphs. The crawl stops
+	 * as soon as cancelled is set, if it is not null.
+	 */
+	DependencyCrawler(boolean whoCallsMode, Listener listener,
+			AtomicBoolean cancelled) {
+		this.whoCallsMode = whoCallsMode;
+		this.listener = listener;
+		this.cancelled = (cancelled == null) ? new AtomicBoolean(false)
+				: cancelled;
+	}
+
+	/**
+	 * Adds the given graph and all the graphs it calls. main is supposed to be
+	 * true only for the graph on which the dependency request was made.
+	 */
+	void crawlGraph(File grf, boolean main) {
+		if (seen.putIfAbsent(grf, Boolean.TRUE) == null) {
+			submit(new GraphTask(grf, main));
+		}
+	}
+
+	/**
+	 * Adds recursively all the graphs of the given directory.
+	 */
+	void crawlDirectory(File dir) {
+		submit(new DirectoryTask(dir));
+	}
+
+	/**
+	 * Waits for the end of the crawl, and returns the calls of all crawled
+	 * graphs that could be loaded. Graphs can be added with crawlGraph and
+	 * crawlDirectory before this method is called, but not after, and it
+	 * must only be called once.
+	 * 
+	 * @return the calls, or null if the crawl was cancelled or if the current
+	 *         thread was interrupted
+	 */
+	Map<File, ArrayList<GraphCall>> getResult() {
+		taskDone();
+		try {
+			ComputePool.await(done);
+		} catch (final InterruptedException e) {
+			cancelled.set(true);
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		return cancelled.get() ? null : map;
+	}
+
+	private void submit(RecursiveAction task) {
+		pending.incrementAndGet();
+		ComputePool.get().execute(task);
+	}
+
+	private void taskDone() {
+		if (pending.decrementAndGet() == 0) {
+			done.countDown();
+		}
+	}
+
+	class GraphTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final File grf;
+		private final boolean main;
+
+		GraphTask(File grf, boolean main) {
+			this.grf = grf;
+			this.main = main;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				if (cancelled.get()) {
+					return;
+				}
+				final ArrayList<GraphCall> calls = Dependancies.getSubgraphs(
+						grf, false, main, whoCallsMode);
+				if (calls == null) {
+					return;
+				}
+				map.put(grf, calls);
+				if (listener != null) {
+					listener.graphCrawled(grf, calls);
+				}
+				for (final GraphCall c : calls) {
+					crawlGraph(c.getGrf(), false);
+				}
+			} finally {
+				taskDone();
+			}
+		}
+	}
+
+	class DirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final File dir;
+
+		DirectoryTask(File dir) {
+			this.dir = dir;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				if (cancelled.get()) {
+					return;
+				}
+				final File[] files = dir.listFiles(GRF_OR_DIRECTORY);
+				if (files == null)
+					return;
+				for (final File f : files) {
+					if (f.isFile())
+						crawlGraph(f, false);
+					else
+						crawlDirectory(f);
+				}
+			} finally {
+				taskDone();
+			}
+		}
+	}
+}
@@ -0,0 +1,306 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.graphtools;
+
+import fr.umlv.unitex.graphrendering.GenericGraphBox;
+import fr.umlv.unitex.io.GraphModel;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * This class represents a search, and optionally a replacement, on box contents. All patterns are compiled
+ * once when the query is built, so that it can be applied to many boxes at the cost of matching only.
+ * Queries are immutable, and can be shared by several threads.
+ *
+ * As in {@link FindAndReplace}, the lines of a box are the parts of its content between '+', as
+ * String.split("\\+") would return them.
+ */
+public class FindAndReplaceQuery {
+
+  private final String search;
+  private final String replace;
+  private final boolean useRegex;
+  private final boolean caseSensitive;
+  private final boolean wholeLine;
+  private final boolean ignoreComment;
+  /* null if the search is not a valid regex, or if regexes are not used */
+  private final Pattern searchPattern;
+  /* searchPattern anchored at both ends, for whole line searches */
+  private final Pattern linePattern;
+  /* Case insensitive literal search, as Pattern.CASE_INSENSITIVE defines it */
+  private final Pattern caseInsensitivePattern;
+
+  /**
+   * Builds a query that can only be used for searching.
+   */
+  public FindAndReplaceQuery(String search, boolean useRegex, boolean caseSensitive, boolean wholeLine, boolean ignoreComment) {
+    this(search, null, useRegex, caseSensitive, wholeLine, ignoreComment);
+  }
+
+  /**
+   * @param search        the sequence to search for.
+   * @param replace       the sequence to replace with, or null if the query is only used for searching.
+   * @param useRegex      true if the search must use regular expressions, false otherwise.
+   * @param caseSensitive true if the search must be case sensitive, false otherwise.
+   * @param wholeLine     true if the search must match a whole line only, false otherwise.
+   * @param ignoreComment true if the search must ignore comment boxes, false otherwise.
+   */
+  public FindAndReplaceQuery(String search, String replace, boolean useRegex, boolean caseSensitive, boolean wholeLine, boolean ignoreComment) {
+    this.search = search;
+    this.replace = replace;
+    this.useRegex = useRegex;
+    this.caseSensitive = caseSensitive;
+    this.wholeLine = wholeLine;
+    this.ignoreComment = ignoreComment;
+    if (useRegex) {
+      searchPattern = compile(search);
+      linePattern = compile("^" + search + "$");
+      caseInsensitivePattern = null;
+    } else {
+      searchPattern = null;
+      linePattern = null;
+      caseInsensitivePattern = caseSensitive ? null : Pattern.compile(Pattern.quote(search), Pattern.CASE_INSENSITIVE);
+    }
+  }
+
+  private static Pattern compile(String regex) {
+    try {
+      return Pattern.compile(regex);
+    } catch (PatternSyntaxException e) {
+      return null;
+    }
+  }
+
+  public String getSearch() {
+    return search;
+  }
+
+  public String getReplace() {
+    return replace;
+  }
+
+  public boolean isUseRegex() {
+    return useRegex;
+  }
+
+  public boolean isCaseSensitive() {
+    return caseSensitive;
+  }
+
+  public boolean isWholeLine() {
+    return wholeLine;
+  }
+
+  public boolean isIgnoreComment() {
+    return ignoreComment;
+  }
+
+  /**
+   * Returns the pattern used for whole line regex searches, or null if there is none.
+   */
+  Pattern getLinePattern() {
+    return linePattern;
+  }
+
+  /**
+   * Returns false if the search is a regex that cannot be compiled. Such a query matches nothing.
+   */
+  public boolean isValid() {
+    return !useRegex || searchPattern != null;
+  }
+
+  public boolean matches(GenericGraphBox box) {
+    return matches(box.getContent(), box.getType(), box.isStandaloneBox());
+  }
+
+  public boolean matches(GraphModel graph, int box) {
+    return matches(graph.getContent(box), graph.getType(box), graph.isStandaloneBox(box));
+  }
+
+  /**
+   * Returns true if and only if a box with the given properties contains the search.
+   */
+  public boolean matches(String content, int type, boolean standalone) {
+    if (standalone && ignoreComment || type != GenericGraphBox.NORMAL || content.equals("<E>")) {
+      return false;
+    }
+    if (wholeLine) {
+      return matchesLine(content);
+    }
+    if (useRegex) {
+      return searchPattern != null && searchPattern.matcher(content).find();
+    }
+    if (caseSensitive) {
+      return content.contains(search);
+    }
+    return caseInsensitivePattern.matcher(content).find();
+  }
+
+  private boolean matchesLine(String content) {
+    final int end = getLinesEnd(content);
+    if (end == -1) {
+      return false;
+    }
+    Matcher m = null;
+    if (useRegex) {
+      if (linePattern == null) {
+        return false;
+      }
+      m = linePattern.matcher(content);
+    }
+    int start = 0;
+    while (start <= end) {
+      int stop = content.indexOf('+', start);
+      if (stop == -1 || stop > end) {
+        stop = end;
+      }
+      if (m != null) {
+        /* Anchoring bounds make ^ and $ match at the limits of the line */
+        if (m.region(start, stop).find()) {
+          return true;
+        }
+      } else if (isSearchLine(content, start, stop)) {
+        return true;
+      }
+      start = stop + 1;
+    }
+    return false;
+  }
+
+  private boolean isSearchLine(String content, int start, int stop) {
+    return stop - start == search.length() && content.regionMatches(!caseSensitive, start, search, 0, search.length());
+  }
+
+  /**
+   * Returns the end of the last line of the given content, or -1 if there is no line at all. Like
+   * String.split, we ignore the empty lines at the end of the content, unless the content is empty.
+   */
+  private static int getLinesEnd(String content) {
+    if (content.length() == 0) {
+      return 0;
+    }
+    int end = content.length();
+    while (end > 0 && content.charAt(end - 1) == '+') {
+      end--;
+    }
+    return end == 0 ? -1 : end;
+  }
+
+  /**
+   * Returns the content that a box with the given properties should have after the replacement, or null if
+   * it should not be modified. The returned content is normalized: there is no empty line, and an empty
+   * content is replaced by &lt;E&gt;.
+   */
+  public String replace(String content, int type, boolean standalone) {
+    if (replace == null) {
+      throw new IllegalStateException("This query has no replacement");
+    }
+    if (standalone && ignoreComment) {
+      return null;
+    }
+    final String newContent;
+    if (wholeLine) {
+      newContent = replaceLines(content);
+    } else {
+      if (type != GenericGraphBox.NORMAL || content.equals("<E>")) {
+        return null;
+      }
+      if (useRegex) {
+        if (searchPattern == null) {
+          return null;
+        }
+        newContent = searchPattern.matcher(content).replaceAll(replace);
+      } else if (caseSensitive) {
+        newContent = content.replace(search, replace);
+      } else {
+        newContent = caseInsensitivePattern.matcher(content).replaceAll(replace);
+      }
+    }
+    if (newContent.equals(content)) {
+      return null;
+    }
+    return normalize(newContent);
+  }
+
+  public String replace(GenericGraphBox box) {
+    return replace(box.getContent(), box.getType(), box.isStandaloneBox());
+  }
+
+  public String replace(GraphModel graph, int box) {
+    return replace(graph.getContent(box), graph.getType(box), graph.isStandaloneBox(box));
+  }
+
+  /**
+   * Replaces the lines that match the search, and joins the lines again.
+   */
+  private String replaceLines(String content) {
+    final int end = getLinesEnd(content);
+    if (end == -1) {
+      return "";
+    }
+    final StringBuilder sb = new StringBuilder(content.length());
+    final Matcher m = (useRegex && linePattern != null && searchPattern != null) ? linePattern.matcher(content) : null;
+    int start = 0;
+    while (start <= end) {
+      int stop = content.indexOf('+', start);
+      if (stop == -1 || stop > end) {
+        stop = end;
+      }
+      if (start != 0) {
+        sb.append('+');
+      }
+      if (m != null ? m.region(start, stop).find() : !useRegex && isSearchLine(content, start, stop)) {
+        final String line = content.substring(start, stop);
+        if (useRegex) {
+          sb.append(searchPattern.matcher(line).replaceAll(replace));
+        } else if (caseSensitive) {
+          sb.append(replace);
+        } else {
+          sb.append(caseInsensitivePattern.matcher(line).replaceAll(replace));
+        }
+      } else {
+        sb.append(content, start, stop);
+      }
+      start = stop + 1;
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Removes the empty lines of the given content.
+   */
+  private static String normalize(String content) {
+    final StringBuilder sb = new StringBuilder(content.length());
+    for (int i = 0; i < content.length(); i++) {
+      final char c = content.charAt(i);
+      if (c == '+' && (sb.length() == 0 || sb.charAt(sb.length() - 1) == '+')) {
+        continue;
+      }
+      sb.append(c);
+    }
+    if (sb.length() > 0 && sb.charAt(sb.length() - 1) == '+') {
+      sb.setLength(sb.length() - 1);
+    }
+    return sb.length() == 0 ? "<E>" : sb.toString();
+  }
+}
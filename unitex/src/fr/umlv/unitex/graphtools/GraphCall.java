@@ -90,7 +90,7 @@ public class GraphCall implements Comparable<GraphCall> {
 
 	@Override
 	public int hashCode() {
-		return super.hashCode();
+		return grf.hashCode() * 4 + (useful ? 2 : 0) + (direct ? 1 : 0);
 	}
 
 }
@@ -0,0 +1,287 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.graphtools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import fr.umlv.unitex.config.Config;
+import fr.umlv.unitex.io.GraphModel;
+
+/**
+ * This is a cache of the subgraph calls of all the graphs that have been
+ * looked at by {@link Dependancies}, so that dependency requests do not have
+ * to parse every graph again. For each graph, we store the subgraph calls as
+ * they appear in its boxes, and whether each of them is in a useful box. Calls
+ * are stored before path resolution, so that the cache does not depend on the
+ * graph repository configuration.
+ *
+ * An entry is only used if the size and the modification date of the graph
+ * are the ones that were recorded. The cache is saved in the user directory,
+ * and graphs saved by Unitex are updated immediately. The entries of graphs
+ * that do not exist anymore are dropped when the cache is loaded, so that
+ * it does not keep growing as graphs are moved or deleted.
+ */
+public class GraphDependencyIndex {
+	private static final int MAGIC = 0x55474449; // "UGDI"
+	private static final int VERSION = 1;
+	private static final String INDEX_FILE = "grf_dependencies.bin";
+
+	private static GraphDependencyIndex index;
+
+	private final File indexFile;
+	private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+	private boolean modified = false;
+
+	private GraphDependencyIndex(File indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Returns the index, loading it from the user directory the first time.
+	 */
+	public static synchronized GraphDependencyIndex getIndex() {
+		if (index == null) {
+			final File userDir = Config.getUserDir();
+			index = new GraphDependencyIndex(userDir == null ? null : new File(
+					userDir, INDEX_FILE));
+			index.load();
+		}
+		return index;
+	}
+
+	/**
+	 * Must be called when a graph has been written, so that its entry is
+	 * refreshed. Nothing is done if the index has not been used yet, since it
+	 * will check the dates of the graphs when loaded anyway.
+	 */
+	public static void graphSaved(File grf) {
+		final GraphDependencyIndex i;
+		synchronized (GraphDependencyIndex.class) {
+			i = index;
+		}
+		if (i != null) {
+			i.compute(grf);
+		}
+	}
+
+	/**
+	 * Returns the subgraph calls of the given graph, reading it only if it
+	 * has changed since it was indexed.
+	 *
+	 * @return the calls, or null if the graph cannot be loaded
+	 */
+	public Entry get(File grf) {
+		final String key = grf.getAbsolutePath();
+		synchronized (this) {
+			final Entry e = entries.get(key);
+			if (e != null && e.lastModified == grf.lastModified()
+					&& e.length == grf.length()) {
+				return e.calls == null ? null : e;
+			}
+		}
+		return compute(grf);
+	}
+
+	private Entry compute(File grf) {
+		final String key = grf.getAbsolutePath();
+		final long lastModified = grf.lastModified();
+		final long length = grf.length();
+		if (!grf.isFile()) {
+			synchronized (this) {
+				if (entries.remove(key) != null) {
+					modified = true;
+				}
+			}
+			return null;
+		}
+		final GraphModel graph = GraphModel.get(grf);
+		final Entry e;
+		if (graph == null) {
+			e = new Entry(lastModified, length, null, null);
+		} else {
+			final ArrayList<String> calls = new ArrayList<String>();
+			final ArrayList<Boolean> useful = new ArrayList<Boolean>();
+			Dependancies.getCalls(graph, calls, useful);
+			final boolean[] u = new boolean[useful.size()];
+			for (int i = 0; i < u.length; i++) {
+				u[i] = useful.get(i);
+			}
+			e = new Entry(lastModified, length,
+					calls.toArray(new String[calls.size()]), u);
+		}
+		synchronized (this) {
+			entries.put(key, e);
+			modified = true;
+		}
+		return e.calls == null ? null : e;
+	}
+
+	private void load() {
+		if (indexFile == null || !indexFile.exists()) {
+			return;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(indexFile), 65536));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return;
+			}
+			final int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				final String key = in.readUTF();
+				final long lastModified = in.readLong();
+				final long length = in.readLong();
+				final int nCalls = in.readInt();
+				String[] calls = null;
+				boolean[] useful = null;
+				if (nCalls >= 0) {
+					calls = new String[nCalls];
+					useful = new boolean[nCalls];
+					for (int j = 0; j < nCalls; j++) {
+						calls[j] = in.readUTF();
+						useful[j] = in.readBoolean();
+					}
+				}
+				if (new File(key).isFile()) {
+					entries.put(key, new Entry(lastModified, length, calls,
+							useful));
+				} else {
+					modified = true;
+				}
+			}
+		} catch (final IOException e) {
+			/* A broken index is just ignored */
+			entries.clear();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (final IOException e) {
+					/* Nothing to do */
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves the index if it has been modified. Errors are ignored, since the
+	 * only consequence is that graphs will be read again next time.
+	 */
+	public synchronized void save() {
+		if (!modified || indexFile == null) {
+			return;
+		}
+		final File tmp = new File(indexFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmp), 65536));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (final Map.Entry<String, Entry> x : entries.entrySet()) {
+				final Entry e = x.getValue();
+				out.writeUTF(x.getKey());
+				out.writeLong(e.lastModified);
+				out.writeLong(e.length);
+				if (e.calls == null) {
+					out.writeInt(-1);
+					continue;
+				}
+				out.writeInt(e.calls.length);
+				for (int j = 0; j < e.calls.length; j++) {
+					out.writeUTF(e.calls[j]);
+					out.writeBoolean(e.useful[j]);
+				}
+			}
+			out.close();
+			out = null;
+			if (indexFile.exists() && !indexFile.delete()) {
+				tmp.delete();
+				return;
+			}
+			if (tmp.renameTo(indexFile)) {
+				modified = false;
+			} else {
+				tmp.delete();
+			}
+		} catch (final IOException e) {
+			tmp.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (final IOException e) {
+					/* Nothing to do */
+				}
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * The subgraph calls of a graph, in the order of its boxes.
+	 */
+	public static class Entry {
+		final long lastModified;
+		final long length;
+		/* null if the graph could not be loaded */
+		final String[] calls;
+		final boolean[] useful;
+
+		Entry(long lastModified, long length, String[] calls, boolean[] useful) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.calls = calls;
+			this.useful = useful;
+		}
+
+		public int getCallCount() {
+			return calls.length;
+		}
+
+		/**
+		 * Returns the call #i, as it appears in the box line.
+		 */
+		public String getCall(int i) {
+			return calls[i];
+		}
+
+		/**
+		 * Returns true if the call #i is in a box that is both accessible and
+		 * coaccessible.
+		 */
+		public boolean isUseful(int i) {
+			return useful[i];
+		}
+	}
+}
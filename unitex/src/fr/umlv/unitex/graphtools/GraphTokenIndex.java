@@ -0,0 +1,546 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.graphtools;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import fr.umlv.unitex.graphrendering.GenericGraphBox;
+import fr.umlv.unitex.io.GraphModel;
+
+/**
+ * This is an inverted index of the box contents of all the graphs of a
+ * directory. Box contents are split into tokens at each '+', like
+ * {@link FindAndReplace} does when looking for whole lines, and for each
+ * distinct token we store the boxes that contain it. Queries then only look
+ * at the distinct tokens, which are much fewer than the boxes, and never
+ * read any graph.
+ *
+ * Indexes are kept in memory for the life of the process. {@link #update()}
+ * reads again the graphs that have changed on disk, and graphs saved by
+ * Unitex are re-indexed immediately.
+ */
+public class GraphTokenIndex {
+	private static final HashMap<File, GraphTokenIndex> indexes = new HashMap<File, GraphTokenIndex>();
+
+	private static final FilenameFilter GRF_OR_DIRECTORY = new FilenameFilter() {
+		@Override
+		public boolean accept(File dir, String name) {
+			final File tmp = new File(dir, name);
+			return name.endsWith(".grf") || tmp.isDirectory();
+		}
+	};
+
+	private final File rootDir;
+	/*
+	 * Graph ids are not reused before the next compaction, so that postings
+	 * of old versions die
+	 */
+	private ArrayList<IndexedGraph> graphs = new ArrayList<IndexedGraph>();
+	private final HashMap<File, IndexedGraph> graphsByFile = new HashMap<File, IndexedGraph>();
+	private TreeMap<String, Integer> tokens = new TreeMap<String, Integer>();
+	/* Case folded token -> ids of the tokens that have this folded form */
+	private TreeMap<String, int[]> foldedTokens = new TreeMap<String, int[]>();
+	/*
+	 * For the token #i, postings[i][0..postingCount[i][ are the boxes that
+	 * contain it, encoded as (graph id << 32) | box number
+	 */
+	private long[][] postings = new long[256][];
+	private int[] postingCount = new int[256];
+	private long livePostings = 0;
+	private long deadPostings = 0;
+
+	private GraphTokenIndex(File rootDir) {
+		this.rootDir = rootDir;
+	}
+
+	/**
+	 * Returns the index of the given directory, creating it if needed. The
+	 * index is not updated: callers should call {@link #update()} before
+	 * their first query.
+	 */
+	public static GraphTokenIndex getIndex(File rootDir) {
+		final File dir = rootDir.getAbsoluteFile();
+		synchronized (indexes) {
+			GraphTokenIndex index = indexes.get(dir);
+			if (index == null) {
+				index = new GraphTokenIndex(dir);
+				indexes.put(dir, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Must be called when a graph has been written, so that the indexes that
+	 * cover it are refreshed.
+	 */
+	public static void graphSaved(File grf) {
+		final File f = grf.getAbsoluteFile();
+		final ArrayList<GraphTokenIndex> list;
+		synchronized (indexes) {
+			list = new ArrayList<GraphTokenIndex>(indexes.values());
+		}
+		for (final GraphTokenIndex index : list) {
+			if (isInDirectory(f, index.rootDir)) {
+				index.updateGraph(f);
+			}
+		}
+	}
+
+	private static boolean isInDirectory(File f, File dir) {
+		for (File parent = f.getParentFile(); parent != null; parent = parent
+				.getParentFile()) {
+			if (parent.equals(dir))
+				return true;
+		}
+		return false;
+	}
+
+	public File getRootDir() {
+		return rootDir;
+	}
+
+	/**
+	 * Looks for the graphs that have been added, modified or removed since
+	 * the last update, and updates the index accordingly. Only the graphs
+	 * whose date or size has changed are read.
+	 */
+	public synchronized void update() {
+		final HashSet<File> present = new HashSet<File>();
+		collectGraphs(rootDir, present);
+		for (final File f : present) {
+			final IndexedGraph g = graphsByFile.get(f);
+			if (g == null || g.lastModified != f.lastModified()
+					|| g.length != f.length()) {
+				updateGraph(f);
+			}
+		}
+		for (final File f : new ArrayList<File>(graphsByFile.keySet())) {
+			if (!present.contains(f)) {
+				removeGraph(f);
+			}
+		}
+		if (graphs.size() != graphsByFile.size()) {
+			/* Some graphs have been removed or indexed again */
+			compact();
+		}
+	}
+
+	private static void collectGraphs(File dir, HashSet<File> files) {
+		final File[] list = dir.listFiles(GRF_OR_DIRECTORY);
+		if (list == null)
+			return;
+		for (final File f : list) {
+			if (f.isFile())
+				files.add(f);
+			else
+				collectGraphs(f, files);
+		}
+	}
+
+	/**
+	 * Indexes again the given graph, or removes it from the index if it
+	 * cannot be loaded.
+	 */
+	synchronized void updateGraph(File grf) {
+		removeGraph(grf);
+		final long lastModified = grf.lastModified();
+		final long length = grf.length();
+		final GraphModel graph = GraphModel.get(grf);
+		if (graph == null) {
+			return;
+		}
+		final IndexedGraph g = new IndexedGraph(graphs.size(), grf,
+				lastModified, length);
+		graphs.add(g);
+		graphsByFile.put(grf, g);
+		for (int box = 0; box < graph.getBoxCount(); box++) {
+			final String content = graph.getContent(box);
+			if (graph.getType(box) != GenericGraphBox.NORMAL
+					|| content.equals("<E>")) {
+				continue;
+			}
+			final long posting = ((long) g.id << 32) | box;
+			for (final String token : content.split("\\+")) {
+				if (addPosting(getTokenId(token), posting)) {
+					g.postings++;
+				}
+			}
+		}
+		livePostings += g.postings;
+	}
+
+	private void removeGraph(File grf) {
+		final IndexedGraph g = graphsByFile.remove(grf);
+		if (g == null) {
+			return;
+		}
+		g.removed = true;
+		livePostings -= g.postings;
+		deadPostings += g.postings;
+		if (deadPostings > livePostings) {
+			compact();
+		}
+	}
+
+	private int getTokenId(String token) {
+		final Integer id = tokens.get(token);
+		if (id != null) {
+			return id;
+		}
+		final int n = tokens.size();
+		tokens.put(token, n);
+		final String folded = fold(token);
+		final int[] ids = foldedTokens.get(folded);
+		if (ids == null) {
+			foldedTokens.put(folded, new int[] { n });
+		} else {
+			final int[] tmp = Arrays.copyOf(ids, ids.length + 1);
+			tmp[ids.length] = n;
+			foldedTokens.put(folded, tmp);
+		}
+		if (n == postings.length) {
+			postings = Arrays.copyOf(postings, 2 * n);
+			postingCount = Arrays.copyOf(postingCount, 2 * n);
+		}
+		return n;
+	}
+
+	/**
+	 * Adds the given box to the postings of the given token. Boxes are always
+	 * added in increasing order, so a box that contains the same token twice
+	 * is the last one of the list.
+	 */
+	private boolean addPosting(int token, long posting) {
+		long[] p = postings[token];
+		final int n = postingCount[token];
+		if (p == null) {
+			p = postings[token] = new long[2];
+		} else if (n > 0 && p[n - 1] == posting) {
+			return false;
+		} else if (n == p.length) {
+			p = postings[token] = Arrays.copyOf(p, 2 * n);
+		}
+		p[n] = posting;
+		postingCount[token]++;
+		return true;
+	}
+
+	/**
+	 * Removes the graphs that are no longer indexed and their postings, and
+	 * then the tokens that have no posting left. Graphs and tokens are
+	 * numbered again, in the same order, so that postings stay sorted.
+	 */
+	private void compact() {
+		final int[] newGraphIds = new int[graphs.size()];
+		final ArrayList<IndexedGraph> liveGraphs = new ArrayList<IndexedGraph>(
+				graphsByFile.size());
+		for (final IndexedGraph g : graphs) {
+			if (g.removed) {
+				newGraphIds[g.id] = -1;
+			} else {
+				newGraphIds[g.id] = liveGraphs.size();
+				g.id = liveGraphs.size();
+				liveGraphs.add(g);
+			}
+		}
+		final TreeMap<String, Integer> liveTokens = new TreeMap<String, Integer>();
+		final TreeMap<String, int[]> liveFoldedTokens = new TreeMap<String, int[]>();
+		final long[][] livePostingLists = new long[Math.max(256,
+				tokens.size())][];
+		final int[] liveCounts = new int[livePostingLists.length];
+		for (final Map.Entry<String, Integer> e : tokens.entrySet()) {
+			final int i = e.getValue();
+			final long[] p = postings[i];
+			int m = 0;
+			for (int j = 0; j < postingCount[i]; j++) {
+				final int id = newGraphIds[(int) (p[j] >>> 32)];
+				if (id != -1) {
+					p[m++] = ((long) id << 32) | (p[j] & 0xFFFFFFFFL);
+				}
+			}
+			if (m == 0) {
+				continue;
+			}
+			final int n = liveTokens.size();
+			liveTokens.put(e.getKey(), n);
+			livePostingLists[n] = p;
+			liveCounts[n] = m;
+			final String folded = fold(e.getKey());
+			final int[] ids = liveFoldedTokens.get(folded);
+			if (ids == null) {
+				liveFoldedTokens.put(folded, new int[] { n });
+			} else {
+				final int[] tmp = Arrays.copyOf(ids, ids.length + 1);
+				tmp[ids.length] = n;
+				liveFoldedTokens.put(folded, tmp);
+			}
+		}
+		graphs = liveGraphs;
+		tokens = liveTokens;
+		foldedTokens = liveFoldedTokens;
+		postings = livePostingLists;
+		postingCount = liveCounts;
+		deadPostings = 0;
+	}
+
+	/**
+	 * Folds the case of the given string the same way as
+	 * String.equalsIgnoreCase does, so that two strings are equal ignoring
+	 * case if and only if their folded forms are equal.
+	 */
+	private static String fold(String s) {
+		final char[] t = new char[s.length()];
+		for (int i = 0; i < t.length; i++) {
+			t[i] = Character.toLowerCase(Character.toUpperCase(s.charAt(i)));
+		}
+		return new String(t);
+	}
+
+	/**
+	 * Returns the boxes that have a line equal to the given token, grouped by
+	 * graph.
+	 */
+	public synchronized Map<File, BitSet> find(String token,
+			boolean caseSensitive) {
+		final Hits hits = new Hits();
+		if (caseSensitive) {
+			final Integer id = tokens.get(token);
+			if (id != null) {
+				hits.add(id);
+			}
+		} else {
+			final int[] ids = foldedTokens.get(fold(token));
+			if (ids != null) {
+				for (final int id : ids) {
+					hits.add(id);
+				}
+			}
+		}
+		return hits.result;
+	}
+
+	/**
+	 * Returns the boxes that have a line starting with the given prefix,
+	 * grouped by graph.
+	 */
+	public synchronized Map<File, BitSet> findPrefix(String prefix,
+			boolean caseSensitive) {
+		final Hits hits = new Hits();
+		if (caseSensitive) {
+			for (final int id : prefixRange(tokens, prefix).values()) {
+				hits.add(id);
+			}
+		} else {
+			for (final int[] ids : prefixRange(foldedTokens, fold(prefix))
+					.values()) {
+				for (final int id : ids) {
+					hits.add(id);
+				}
+			}
+		}
+		return hits.result;
+	}
+
+	private static <V> SortedMap<String, V> prefixRange(
+			TreeMap<String, V> map, String prefix) {
+		if (prefix.length() == 0) {
+			return map;
+		}
+		final char last = prefix.charAt(prefix.length() - 1);
+		if (last == Character.MAX_VALUE) {
+			return map.tailMap(prefix);
+		}
+		return map.subMap(prefix, prefix.substring(0, prefix.length() - 1)
+				+ (char) (last + 1));
+	}
+
+	/**
+	 * Returns the boxes that have a line containing the given string, grouped
+	 * by graph. Since lines are the parts of box contents between '+', the
+	 * string must not contain '+'.
+	 */
+	public synchronized Map<File, BitSet> findContaining(String s,
+			boolean caseSensitive) {
+		final Hits hits = new Hits();
+		if (caseSensitive) {
+			for (final Map.Entry<String, Integer> e : tokens.entrySet()) {
+				if (e.getKey().contains(s)) {
+					hits.add(e.getValue());
+				}
+			}
+		} else {
+			final String folded = fold(s);
+			for (final Map.Entry<String, int[]> e : foldedTokens.entrySet()) {
+				if (e.getKey().contains(folded)) {
+					for (final int id : e.getValue()) {
+						hits.add(id);
+					}
+				}
+			}
+		}
+		return hits.result;
+	}
+
+	/**
+	 * Returns the boxes that have a line entirely matched by the given
+	 * pattern, grouped by graph. The pattern is only tried once per distinct
+	 * line of the whole directory.
+	 */
+	public synchronized Map<File, BitSet> findMatching(Pattern pattern) {
+		final Hits hits = new Hits();
+		for (final Map.Entry<String, Integer> e : tokens.entrySet()) {
+			if (pattern.matcher(e.getKey()).matches()) {
+				hits.add(e.getValue());
+			}
+		}
+		return hits.result;
+	}
+
+	/**
+	 * Returns the boxes that have a line in which the given pattern can be
+	 * found, grouped by graph.
+	 */
+	public synchronized Map<File, BitSet> findIn(Pattern pattern) {
+		final Hits hits = new Hits();
+		for (final Map.Entry<String, Integer> e : tokens.entrySet()) {
+			if (pattern.matcher(e.getKey()).find()) {
+				hits.add(e.getValue());
+			}
+		}
+		return hits.result;
+	}
+
+	/**
+	 * Returns the boxes that may match the given query, grouped by graph. For
+	 * searches that can span several lines of a box, like regexes that are
+	 * not restricted to whole lines, the index cannot tell, and all the boxes
+	 * are returned.
+	 */
+	public Map<File, BitSet> getCandidates(FindAndReplaceQuery query) {
+		final String search = query.getSearch();
+		if (query.isWholeLine()) {
+			if (!query.isUseRegex()) {
+				return find(search, query.isCaseSensitive());
+			}
+			if (query.getLinePattern() != null) {
+				return findIn(query.getLinePattern());
+			}
+			return new TreeMap<File, BitSet>();
+		}
+		if (!query.isUseRegex() && search.indexOf('+') == -1) {
+			return findContaining(search, query.isCaseSensitive());
+		}
+		return findPrefix("", true);
+	}
+
+	/**
+	 * Returns the boxes that match the given query, grouped by graph. Only the
+	 * graphs given by {@link #getCandidates(FindAndReplaceQuery)} are read, to
+	 * check their boxes. The search stops as soon as cancelled is set, if it
+	 * is not null.
+	 * 
+	 * @return the matching boxes, or null if the search was cancelled
+	 */
+	public Map<File, BitSet> search(FindAndReplaceQuery query,
+			AtomicBoolean cancelled) {
+		final Map<File, BitSet> candidates = getCandidates(query);
+		final TreeMap<File, BitSet> result = new TreeMap<File, BitSet>();
+		for (final Map.Entry<File, BitSet> e : candidates.entrySet()) {
+			if (cancelled != null && cancelled.get()) {
+				return null;
+			}
+			final GraphModel graph = GraphModel.get(e.getKey());
+			if (graph == null) {
+				continue;
+			}
+			final BitSet boxes = new BitSet();
+			final BitSet b = e.getValue();
+			for (int i = b.nextSetBit(0); i >= 0 && i < graph.getBoxCount(); i = b
+					.nextSetBit(i + 1)) {
+				if (query.matches(graph, i)) {
+					boxes.set(i);
+				}
+			}
+			if (!boxes.isEmpty()) {
+				result.put(e.getKey(), boxes);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Collects the boxes of some tokens, skipping the graphs that are no
+	 * longer indexed.
+	 */
+	private class Hits {
+		final TreeMap<File, BitSet> result = new TreeMap<File, BitSet>();
+		private int lastGraph = -1;
+		private BitSet lastBoxes;
+
+		void add(int token) {
+			final long[] p = postings[token];
+			for (int i = 0; i < postingCount[token]; i++) {
+				final int id = (int) (p[i] >>> 32);
+				if (id != lastGraph) {
+					final IndexedGraph g = graphs.get(id);
+					if (g.removed) {
+						continue;
+					}
+					lastGraph = id;
+					lastBoxes = result.get(g.grf);
+					if (lastBoxes == null) {
+						lastBoxes = new BitSet();
+						result.put(g.grf, lastBoxes);
+					}
+				}
+				lastBoxes.set((int) p[i]);
+			}
+		}
+	}
+
+	private static class IndexedGraph {
+		int id;
+		final File grf;
+		final long lastModified;
+		final long length;
+		int postings = 0;
+		boolean removed = false;
+
+		IndexedGraph(int id, File grf, long lastModified, long length) {
+			this.id = id;
+			this.grf = grf;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.graphtools;
+
+import fr.umlv.unitex.io.GraphModel;
+
+/**
+ * This class computes which boxes of a graph can be reached from a given box
+ * (accessibility), and which ones can reach a given box (coaccessibility).
+ * Boxes are numbered from 0 to n-1, and the transitions of box #i are
+ * dest[start[i]] to dest[start[i+1]-1]. Explorations use an explicit stack,
+ * so that they take a time proportional to the size of the graph and do not
+ * overflow the call stack on very long graphs.
+ */
+public class Reachability {
+	private final int[] start;
+	private final int[] dest;
+	private int[] reverseStart;
+	private int[] reverseDest;
+
+	/**
+	 * The given arrays are not copied, so they must not be modified
+	 * afterwards.
+	 */
+	public Reachability(int[] start, int[] dest) {
+		this.start = start;
+		this.dest = dest;
+	}
+
+	public static Reachability of(GraphModel graph) {
+		final int n = graph.getBoxCount();
+		final int[] start = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			start[i + 1] = start[i] + graph.getTransitionCount(i);
+		}
+		final int[] dest = new int[start[n]];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < graph.getTransitionCount(i); j++) {
+				dest[start[i] + j] = graph.getTransition(i, j);
+			}
+		}
+		return new Reachability(start, dest);
+	}
+
+	public int getBoxCount() {
+		return start.length - 1;
+	}
+
+	/**
+	 * Returns an array that tells for each box if it can be reached from the
+	 * given one. A box can always be reached from itself.
+	 */
+	public boolean[] getAccessible(int from) {
+		return explore(start, dest, from);
+	}
+
+	/**
+	 * Returns an array that tells for each box if the given one can be reached
+	 * from it.
+	 */
+	public boolean[] getCoaccessible(int to) {
+		if (reverseStart == null) {
+			computeReverseTransitions();
+		}
+		return explore(reverseStart, reverseDest, to);
+	}
+
+	/**
+	 * Returns an array that tells for each box if it is on a path from the
+	 * box from to the box to.
+	 */
+	public boolean[] getUseful(int from, int to) {
+		final boolean[] useful = getAccessible(from);
+		final boolean[] coaccessible = getCoaccessible(to);
+		for (int i = 0; i < useful.length; i++) {
+			useful[i] = useful[i] && coaccessible[i];
+		}
+		return useful;
+	}
+
+	private void computeReverseTransitions() {
+		final int n = getBoxCount();
+		final int[] rStart = new int[n + 1];
+		for (final int d : dest) {
+			rStart[d + 1]++;
+		}
+		for (int i = 0; i < n; i++) {
+			rStart[i + 1] += rStart[i];
+		}
+		final int[] rDest = new int[dest.length];
+		final int[] pos = new int[n];
+		for (int i = 0; i < n; i++) {
+			for (int j = start[i]; j < start[i + 1]; j++) {
+				final int d = dest[j];
+				rDest[rStart[d] + pos[d]++] = i;
+			}
+		}
+		reverseStart = rStart;
+		reverseDest = rDest;
+	}
+
+	private static boolean[] explore(int[] start, int[] dest, int from) {
+		final boolean[] marked = new boolean[start.length - 1];
+		/* Each box is pushed at most once, since it is marked when pushed */
+		final int[] stack = new int[marked.length];
+		int size = 0;
+		marked[from] = true;
+		stack[size++] = from;
+		while (size > 0) {
+			final int box = stack[--size];
+			for (int j = start[box]; j < start[box + 1]; j++) {
+				final int d = dest[j];
+				if (!marked[d]) {
+					marked[d] = true;
+					stack[size++] = d;
+				}
+			}
+		}
+		return marked;
+	}
+}
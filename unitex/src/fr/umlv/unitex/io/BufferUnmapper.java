@@ -0,0 +1,84 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.io;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * There is no public API to unmap a MappedByteBuffer: the mapping is released
+ * when the buffer is garbage collected. This class releases it immediately,
+ * using sun.misc.Unsafe.invokeCleaner on Java 9 and later, or the buffer's
+ * cleaner on older versions. If none of them is available, we just let the
+ * garbage collector do its job.
+ * 
+ * WARNING: any access to a buffer after it has been unmapped crashes the JVM.
+ */
+class BufferUnmapper {
+	private static Object unsafe;
+	private static Method invokeCleaner;
+	private static boolean initialized = false;
+
+	private BufferUnmapper() {
+		/* No instance */
+	}
+
+	private static synchronized void init() {
+		if (initialized)
+			return;
+		initialized = true;
+		try {
+			final Class<?> c = Class.forName("sun.misc.Unsafe");
+			final Method m = c.getMethod("invokeCleaner", ByteBuffer.class);
+			final Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+			invokeCleaner = m;
+		} catch (final Exception e) {
+			/* Before Java 9, we will use the buffer's cleaner */
+			unsafe = null;
+			invokeCleaner = null;
+		}
+	}
+
+	static void unmap(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect())
+			return;
+		init();
+		try {
+			if (invokeCleaner != null) {
+				invokeCleaner.invoke(unsafe, buffer);
+				return;
+			}
+			final Method getCleaner = buffer.getClass().getMethod("cleaner");
+			getCleaner.setAccessible(true);
+			final Object cleaner = getCleaner.invoke(buffer);
+			if (cleaner != null) {
+				final Method clean = cleaner.getClass().getMethod("clean");
+				clean.setAccessible(true);
+				clean.invoke(cleaner);
+			}
+		} catch (final Exception e) {
+			/* The buffer will be unmapped by the garbage collector */
+		}
+	}
+}
@@ -29,6 +29,8 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
 import java.util.Scanner;
 
 import fr.umlv.unitex.config.Preferences;
@@ -47,6 +49,18 @@ public enum Encoding {
 			final char c = (char) (b << 8 | a);
 			return c;
 		}
+
+		@Override
+		public int scanLines(ByteBuffer buffer, int from, int to,
+				LineHandler handler) {
+			return scanUTF16Lines(buffer, from, to, UTF16LE_NEW_LINES,
+					handler);
+		}
+
+		@Override
+		public int getBytesPerNewLine() {
+			return 2;
+		}
 	},
 	UTF16BE {
 		@Override
@@ -61,6 +75,18 @@ public enum Encoding {
 			final char c = (char) (b << 8 | a);
 			return c;
 		}
+
+		@Override
+		public int scanLines(ByteBuffer buffer, int from, int to,
+				LineHandler handler) {
+			return scanUTF16Lines(buffer, from, to, UTF16BE_NEW_LINES,
+					handler);
+		}
+
+		@Override
+		public int getBytesPerNewLine() {
+			return 2;
+		}
 	},
 	UTF8 {
 		@Override
@@ -157,7 +183,31 @@ public enum Encoding {
 			}
 			return (char) value;
 		}
+
+		@Override
+		public int scanLines(ByteBuffer buffer, int from, int to,
+				LineHandler handler) {
+			return scanUTF8Lines(buffer, from, to, handler);
+		}
+
+		@Override
+		public int getBytesPerNewLine() {
+			return 1;
+		}
 	};
+
+	/*
+	 * Constants used to look for new lines in 8-byte words. A '\n' is 0x0A in
+	 * UTF8, 0x0A00 in UTF16LE and 0x000A in UTF16BE, since words are always
+	 * read in big endian order.
+	 */
+	static final long UTF8_NEW_LINES = 0x0A0A0A0A0A0A0A0AL;
+	static final long UTF16LE_NEW_LINES = 0x0A000A000A000A00L;
+	static final long UTF16BE_NEW_LINES = 0x000A000A000A000AL;
+	private static final long LOW_7_BITS = 0x7F7F7F7F7F7F7F7FL;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+	private static final long LOW_15_BITS = 0x7FFF7FFF7FFF7FFFL;
+
 	public abstract String getCharset();
 
 	/**
@@ -208,6 +258,36 @@ public enum Encoding {
 		return null;
 	}
 
+	/**
+	 * Same as getEncoding(File), but works on the first length bytes of a file
+	 * that has already been read, instead of opening it three times.
+	 */
+	public static Encoding getEncoding(byte[] data, int length) {
+		if (length >= 2 && length % 2 == 0) {
+			final int b0 = data[0] & 0xFF;
+			final int b1 = data[1] & 0xFF;
+			if (b0 == 0xFF && b1 == 0xFE)
+				return UTF16LE;
+			if (b0 == 0xFE && b1 == 0xFF)
+				return UTF16BE;
+		}
+		/*
+		 * As UTF8.isValidEncoding, we check the chars until the first valid
+		 * multi-byte one
+		 */
+		final String s = new String(data, 0, Math.min(length, 8192),
+				Charset.forName("UTF-8"));
+		final int max = Math.min(s.length(), 4095);
+		for (int i = 0; i < max; i++) {
+			final char c = s.charAt(i);
+			if (c == 65533)
+				return null;
+			if (c > 128)
+				break;
+		}
+		return UTF8;
+	}
+
 	/**
 	 * Returns a reader for the given file. For UTF16 encodings, we skip the
 	 * BOM.
@@ -260,6 +340,108 @@ public enum Encoding {
 
 	public abstract char readChar(ByteBuffer parseBuffer);
 
+	/**
+	 * Looks for the '\n' chars of the given buffer between from (inclusive)
+	 * and to (exclusive), which must both be char boundaries. New lines are
+	 * found on raw bytes, 8 bytes at a time, without decoding chars: we only
+	 * count them, so that the caller can compute char positions. The buffer
+	 * position is not modified.
+	 * 
+	 * @return the number of chars found after the last '\n' of the range, or
+	 *         in the whole range if there is no '\n'
+	 */
+	public abstract int scanLines(ByteBuffer buffer, int from, int to,
+			LineHandler handler);
+
+	/**
+	 * Returns the number of bytes used to encode a '\n'.
+	 */
+	public abstract int getBytesPerNewLine();
+
+	/**
+	 * Returns a word where the high bit of each byte is set if and only if the
+	 * corresponding byte of x is 0.
+	 */
+	private static long zeroBytes(long x) {
+		final long t = (x & LOW_7_BITS) + LOW_7_BITS;
+		return ~(t | x | LOW_7_BITS);
+	}
+
+	/**
+	 * Same as zeroBytes, but for 16-bit chars.
+	 */
+	private static long zeroChars(long x) {
+		final long t = (x & LOW_15_BITS) + LOW_15_BITS;
+		return ~(t | x | LOW_15_BITS);
+	}
+
+	static int scanUTF8Lines(ByteBuffer buffer, int from, int to,
+			LineHandler handler) {
+		final ByteBuffer b = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		final int lastWord = to - 8;
+		int chars = 0;
+		int pos = from;
+		while (pos < to) {
+			if (pos <= lastWord) {
+				final long word = b.getLong(pos);
+				if (zeroBytes(word ^ UTF8_NEW_LINES) == 0) {
+					/*
+					 * No new line: we just have to count the bytes that are
+					 * not of the form 10XX XXXX, since each of them starts a
+					 * char
+					 */
+					chars += 8 - Long.bitCount(word & ~(word << 1) & HIGH_BITS);
+					pos += 8;
+					continue;
+				}
+			}
+			/*
+			 * There is a new line in this word, or we are at the end of the
+			 * range: we look at bytes one by one
+			 */
+			final int end = Math.min(pos + 8, to);
+			for (; pos < end; pos++) {
+				final int c = b.get(pos);
+				if (c == '\n') {
+					handler.newLine(pos, chars);
+					chars = 0;
+				} else if ((c & 0xC0) != 0x80) {
+					chars++;
+				}
+			}
+		}
+		return chars;
+	}
+
+	static int scanUTF16Lines(ByteBuffer buffer, int from, int to,
+			long newLines, LineHandler handler) {
+		final ByteBuffer b = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		final short newLine = (short) newLines;
+		final int lastWord = to - 8;
+		int chars = 0;
+		int pos = from;
+		while (pos + 1 < to) {
+			if (pos <= lastWord) {
+				final long word = b.getLong(pos);
+				if (zeroChars(word ^ newLines) == 0) {
+					chars += 4;
+					pos += 8;
+					continue;
+				}
+			}
+			final int end = Math.min(pos + 8, to - 1);
+			for (; pos < end; pos += 2) {
+				if (b.getShort(pos) == newLine) {
+					handler.newLine(pos, chars);
+					chars = 0;
+				} else {
+					chars++;
+				}
+			}
+		}
+		return chars;
+	}
+
 	/**
 	 * Returns the content of the given file as a String, or null if the size is
 	 * >=Preferences.MAX_TEXT_FILE_SIZE
@@ -24,11 +24,17 @@ import java.awt.Color;
 import java.awt.Font;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 
 import javax.swing.JOptionPane;
@@ -42,6 +48,8 @@ import fr.umlv.unitex.graphrendering.GenericGraphBox;
 import fr.umlv.unitex.graphrendering.GenericGraphicalZone;
 import fr.umlv.unitex.graphrendering.GraphBox;
 import fr.umlv.unitex.graphrendering.TfstGraphBox;
+import fr.umlv.unitex.graphtools.GraphDependencyIndex;
+import fr.umlv.unitex.graphtools.GraphTokenIndex;
 import fr.umlv.unitex.grf.GraphMetaData;
 import fr.umlv.unitex.grf.GraphPresentationInfo;
 
@@ -100,7 +108,7 @@ public class GraphIO {
 			boolean emitErrorMessage) {
 		final GraphIO res = new GraphIO();
 		res.grf = grfFile;
-		InputStreamReader reader;
+		GrfReader reader;
 		if (!grfFile.exists()) {
 			if (emitErrorMessage) {
 				String[] options = { "Yes", "No" };
@@ -146,7 +154,11 @@ public class GraphIO {
 			return null;
 		}
 		try {
-			reader = Encoding.getInputStreamReader(grfFile);
+			/*
+			 * The whole file is read and decoded at once, instead of reading it
+			 * char by char
+			 */
+			reader = GrfReader.open(grfFile);
 			if (reader == null) {
 				if (emitErrorMessage)
 					JOptionPane.showMessageDialog(null,
@@ -155,7 +167,7 @@ public class GraphIO {
 							JOptionPane.ERROR_MESSAGE);
 				return null;
 			}
-			UnicodeIO.skipLine(reader); // ignoring #...
+			reader.skipLine(); // ignoring #...
 			res.readSize(reader);
 			res.readInputFont(reader);
 			res.readOutputFont(reader);
@@ -164,7 +176,7 @@ public class GraphIO {
 			res.readSubgraphColor(reader);
 			res.readCommentColor(reader);
 			res.readSelectedColor(reader);
-			UnicodeIO.skipLine(reader); // ignoring DBOXES
+			reader.skipLine(); // ignoring DBOXES
 			res.readDrawFrame(reader);
 			res.readDate(reader);
 			res.readFile(reader);
@@ -174,12 +186,12 @@ public class GraphIO {
 				res.info.setRightToLeft(ConfigManager.getManager()
 						.isRightToLeftForText(null));
 			}
-			UnicodeIO.skipLine(reader); // ignoring DRST
-			UnicodeIO.skipLine(reader); // ignoring FITS
-			UnicodeIO.skipLine(reader); // ignoring PORIENT
+			reader.skipLine(); // ignoring DRST
+			reader.skipLine(); // ignoring FITS
+			reader.skipLine(); // ignoring PORIENT
 			/* Reading metadata until we find the # line */
 			String line;
-			while (!(line = UnicodeIO.readLine(reader)).equals("#")) {
+			while (!(line = reader.readLine()).equals("#")) {
 				final int pos = line.indexOf("=");
 				if (pos == -1) {
 					if (emitErrorMessage)
@@ -218,7 +230,6 @@ public class GraphIO {
 				for (int i = 0; i < res.nBoxes; i++)
 					res.readGraphLine(reader, i);
 			}
-			reader.close();
 		} catch (final IllegalStateException e) {
 			if (emitErrorMessage)
 				JOptionPane.showMessageDialog(null, grfFile.getAbsolutePath()
@@ -243,49 +254,49 @@ public class GraphIO {
 		return res;
 	}
 
-	private void readSize(InputStreamReader r) throws IOException {
+	private void readSize(GrfReader r) throws IOException {
 		// skipping the chars preceeding the width and height
-		UnicodeIO.skipChars(r, 5);
+		r.skip(5);
 		char c;
 		// reading width
 		width = 0;
 		int z = -1;
-		while ((z = UnicodeIO.readChar(r)) != -1
+		while ((z = r.read()) != -1
 				&& UnicodeIO.isDigit((c = (char) z)))
 			width = width * 10 + (c - '0');
 		if (z == -1)
 			throw new IOException("Number expected");
 		// reading height
 		z = -1;
-		while ((z = UnicodeIO.readChar(r)) != -1
+		while ((z = r.read()) != -1
 				&& UnicodeIO.isDigit((c = (char) z)))
 			height = height * 10 + (c - '0');
 		if (z == -1)
 			throw new IOException("Number expected");
 	}
 
-	private void readInputFont(InputStreamReader r) throws IOException {
-		UnicodeIO.skipChars(r, 5);
-		String s = "";
+	private void readInputFont(GrfReader r) throws IOException {
+		r.skip(5);
+		final StringBuilder s = new StringBuilder();
 		char c;
 		int z = -1;
-		while ((z = (char) UnicodeIO.readChar(r)) != ':' && z != -1)
-			s = s + (char) z;
+		while ((z = (char) r.read()) != ':' && z != -1)
+			s.append((char) z);
 		if (z == -1)
 			throw new IOException("Error while reading input font information");
-		final boolean bold = ((z = UnicodeIO.readChar(r)) == 'B');
+		final boolean bold = ((z = r.read()) == 'B');
 		if (z != 'B' && z != ' ')
 			throw new IOException("Error while reading input font information");
 		if (z == -1)
 			throw new IOException("Error while reading input font information");
-		final boolean italic = ((z = UnicodeIO.readChar(r)) == 'I');
+		final boolean italic = ((z = r.read()) == 'I');
 		if (z != 'I' && z != ' ')
 			throw new IOException("Error while reading input font information");
 		if (z == -1)
 			throw new IOException("Error while reading input font information");
 		int size = 0;
 		z = -1;
-		while ((z = UnicodeIO.readChar(r)) != -1
+		while ((z = r.read()) != -1
 				&& UnicodeIO.isDigit((c = (char) z)))
 			size = size * 10 + (c - '0');
 		if (z == -1)
@@ -300,31 +311,31 @@ public class GraphIO {
 			style = Font.ITALIC;
 		else
 			style = Font.PLAIN;
-		info.getInput().setFont(new Font(s, style, (int) (size / 0.72)));
+		info.getInput().setFont(new Font(s.toString(), style, (int) (size / 0.72)));
 	}
 
-	private void readOutputFont(InputStreamReader r) throws IOException {
-		UnicodeIO.skipChars(r, 6);
-		String s = "";
+	private void readOutputFont(GrfReader r) throws IOException {
+		r.skip(6);
+		final StringBuilder s = new StringBuilder();
 		char c;
 		int z = -1;
-		while ((z = (char) UnicodeIO.readChar(r)) != ':' && z != -1)
-			s = s + (char) z;
+		while ((z = (char) r.read()) != ':' && z != -1)
+			s.append((char) z);
 		if (z == -1)
 			throw new IOException("Error while reading output font information");
-		final boolean bold = ((z = UnicodeIO.readChar(r)) == 'B');
+		final boolean bold = ((z = r.read()) == 'B');
 		if (z != 'B' && z != ' ')
 			throw new IOException("Error while reading output font information");
 		if (z == -1)
 			throw new IOException("Error while reading output font information");
-		final boolean italic = ((z = UnicodeIO.readChar(r)) == 'I');
+		final boolean italic = ((z = r.read()) == 'I');
 		if (z != 'I' && z != ' ')
 			throw new IOException("Error while reading output font information");
 		if (z == -1)
 			throw new IOException("Error while reading output font information");
 		int size = 0;
 		z = -1;
-		while ((z = UnicodeIO.readChar(r)) != -1
+		while ((z = r.read()) != -1
 				&& UnicodeIO.isDigit((c = (char) z)))
 			size = size * 10 + (c - '0');
 		if (z == -1)
@@ -339,15 +350,15 @@ public class GraphIO {
 			style = Font.ITALIC;
 		else
 			style = Font.PLAIN;
-		info.getOutput().setFont(new Font(s, style, (int) (size / 0.72)));
+		info.getOutput().setFont(new Font(s.toString(), style, (int) (size / 0.72)));
 	}
 
-	private void readBackgroundColor(InputStreamReader r) throws IOException {
-		UnicodeIO.skipChars(r, 7);
+	private void readBackgroundColor(GrfReader r) throws IOException {
+		r.skip(7);
 		char c;
 		int n = 0;
 		int z = -1;
-		while ((z = UnicodeIO.readChar(r)) != -1
+		while ((z = r.read()) != -1
 				&& UnicodeIO.isDigit((c = (char) z)))
 			n = n * 10 + (c - '0');
 		if (z == -1)
@@ -356,12 +367,12 @@ public class GraphIO {
 		info.setBackgroundColor(new Color(n));
 	}
 
-	private void readForegroundColor(InputStreamReader r) throws IOException {
-		UnicodeIO.skipChars(r, 7);
+	private void readForegroundColor(GrfReader r) throws IOException {
+		r.skip(7);
 		char c;
 		int n = 0;
 		int z = -1;
-		while ((z = UnicodeIO.readChar(r)) != -1
+		while ((z = r.read()) != -1
 				&& UnicodeIO.isDigit((c = (char) z)))
 			n = n * 10 + (c - '0');
 		if (z == -1)
@@ -370,12 +381,12 @@ public class GraphIO {
 		info.setForegroundColor(new Color(n));
 	}
 
-	private void readSubgraphColor(InputStreamReader r) throws IOException {
-		UnicodeIO.skipChars(r, 7);
+	private void readSubgraphColor(GrfReader r) throws IOException {
+		r.skip(7);
 		char c;
 		int n = 0;
 		int z = -1;
-		while ((z = UnicodeIO.readChar(r)) != -1
+		while ((z = r.read()) != -1
 				&& UnicodeIO.isDigit((c = (char) z)))
 			n = n * 10 + (c - '0');
 		if (z == -1)
@@ -384,12 +395,12 @@ public class GraphIO {
 		info.setSubgraphColor(new Color(n));
 	}
 
-	private void readSelectedColor(InputStreamReader r) throws IOException {
-		UnicodeIO.skipChars(r, 7);
+	private void readSelectedColor(GrfReader r) throws IOException {
+		r.skip(7);
 		char c;
 		int n = 0;
 		int z = -1;
-		while ((z = UnicodeIO.readChar(r)) != -1
+		while ((z = r.read()) != -1
 				&& UnicodeIO.isDigit((c = (char) z)))
 			n = n * 10 + (c - '0');
 		if (z == -1)
@@ -398,12 +409,12 @@ public class GraphIO {
 		info.setSelectedColor(new Color(n));
 	}
 
-	private void readCommentColor(InputStreamReader r) throws IOException {
-		UnicodeIO.skipChars(r, 7);
+	private void readCommentColor(GrfReader r) throws IOException {
+		r.skip(7);
 		char c;
 		int n = 0;
 		int z = -1;
-		while ((z = UnicodeIO.readChar(r)) != -1
+		while ((z = r.read()) != -1
 				&& UnicodeIO.isDigit((c = (char) z)))
 			n = n * 10 + (c - '0');
 		if (z == -1)
@@ -412,162 +423,165 @@ public class GraphIO {
 		info.setCommentColor(new Color(n));
 	}
 
-	private void readDrawFrame(InputStreamReader r) throws IOException {
-		UnicodeIO.skipChars(r, 7);
+	private void readDrawFrame(GrfReader r) throws IOException {
+		r.skip(7);
 		int z;
-		info.setFrame((z = UnicodeIO.readChar(r)) == 'y');
+		info.setFrame((z = r.read()) == 'y');
 		if (z != 'y' && z != 'n')
 			throw new IOException("Error while reading frame information");
-		if (-1 == UnicodeIO.readChar(r))
+		if (-1 == r.read())
 			throw new IOException("Error while reading frame information");
 	}
 
-	private void readDate(InputStreamReader r) throws IOException {
-		UnicodeIO.skipChars(r, 6);
+	private void readDate(GrfReader r) throws IOException {
+		r.skip(6);
 		int z;
-		info.setDate((z = UnicodeIO.readChar(r)) == 'y');
+		info.setDate((z = r.read()) == 'y');
 		if (z != 'y' && z != 'n')
 			throw new IOException("Error while reading date information");
-		if (-1 == UnicodeIO.readChar(r))
+		if (-1 == r.read())
 			throw new IOException("Error while reading date information");
 	}
 
-	private void readFile(InputStreamReader r) throws IOException {
-		UnicodeIO.skipChars(r, 6);
+	private void readFile(GrfReader r) throws IOException {
+		r.skip(6);
 		int z;
-		info.setFilename((z = UnicodeIO.readChar(r)) == 'y');
+		info.setFilename((z = r.read()) == 'y');
 		if (z != 'y' && z != 'n')
 			throw new IOException("Error while reading file name information");
-		if (-1 == UnicodeIO.readChar(r))
+		if (-1 == r.read())
 			throw new IOException("Error while reading file name information");
 	}
 
-	private void readDirectory(InputStreamReader r) throws IOException {
-		UnicodeIO.skipChars(r, 5);
+	private void readDirectory(GrfReader r) throws IOException {
+		r.skip(5);
 		int z;
-		info.setPathname((z = UnicodeIO.readChar(r)) == 'y');
+		info.setPathname((z = r.read()) == 'y');
 		if (z != 'y' && z != 'n')
 			throw new IOException("Error while reading path name information");
-		if (-1 == UnicodeIO.readChar(r))
+		if (-1 == r.read())
 			throw new IOException("Error while reading path name information");
 	}
 
-	private void readRightToLeft(InputStreamReader r) throws IOException {
-		UnicodeIO.skipChars(r, 5);
+	private void readRightToLeft(GrfReader r) throws IOException {
+		r.skip(5);
 		int z;
-		info.setRightToLeft((z = UnicodeIO.readChar(r)) == 'y');
+		info.setRightToLeft((z = r.read()) == 'y');
 		if (z != 'y' && z != 'n')
 			throw new IOException(
 					"Error while reading right to left information");
-		if (-1 == UnicodeIO.readChar(r))
+		if (-1 == r.read())
 			throw new IOException(
 					"Error while reading right to left information");
 	}
 
-	private void readBoxNumber(InputStreamReader r) throws IOException {
+	private void readBoxNumber(GrfReader r) throws IOException {
 		char c;
 		nBoxes = 0;
 		int z = -1;
-		while ((z = UnicodeIO.readChar(r)) != -1
+		while ((z = r.read()) != -1
 				&& UnicodeIO.isDigit((c = (char) z)))
 			nBoxes = nBoxes * 10 + (c - '0');
 		if (z == -1)
 			throw new IOException("Error while reading graph box number");
 	}
 
-	private void readGraphLine(InputStreamReader r, int n) throws IOException {
-		final GenericGraphBox g = boxes.get(n);
+	/**
+	 * Reads the content of the box #n, which is the beginning of its line in
+	 * the .grf file, and the space that follows it.
+	 */
+	static String readBoxContent(GrfReader r, int n) throws IOException {
 		int z;
-		if ((z = UnicodeIO.readChar(r)) == 's') {
+		if ((z = r.read()) == 's') {
 			// is a "s" was read, then we read the " char
-			z = UnicodeIO.readChar(r);
+			z = r.read();
 		}
 		if (z != '"')
 			throw new IOException("Error #1 while reading graph box #" + n);
-		String s = "";
+		final StringBuilder s = new StringBuilder();
 		int c;
-		while ((c = UnicodeIO.readChar(r)) != '"') {
+		while ((c = r.read()) != '"') {
 			if (c == -1)
 				throw new IOException("Error #2 while reading graph box #" + n);
 			if (c == '\\') {
-				c = UnicodeIO.readChar(r);
+				c = r.read();
 				if (c == -1)
 					throw new IOException("Error #3 while reading graph box #"
 							+ n);
 				if (c != '\\') {
 					// case of \: \+ and \"
 					if (c == '"')
-						s = s + (char) c;
+						s.append((char) c);
 					else
-						s = s + "\\" + (char) c;
+						s.append('\\').append((char) c);
 				} else {
 					// case of \\\" that must be transformed into \"
-					c = UnicodeIO.readChar(r);
+					c = r.read();
 					if (c == -1)
 						throw new IOException(
 								"Error #4 while reading graph box #" + n);
 					if (c == '\\') {
 						// we are in the case \\\" -> \"
-						c = UnicodeIO.readChar(r);
+						c = r.read();
 						if (c == -1)
 							throw new IOException(
 									"Error #5 while reading graph box #" + n);
-						s = s + "\\" + (char) c;
+						s.append('\\').append((char) c);
 					} else {
 						// we are in the case \\a -> \\a
-						s = s + "\\\\";
+						s.append("\\\\");
 						if (c != '"')
-							s = s + (char) c;
+							s.append((char) c);
 						else
 							break;
 					}
 				}
 			} else
-				s = s + (char) c;
+				s.append((char) c);
 		}
 		// skipping the space after "
-		if (UnicodeIO.readChar(r) != ' ')
+		if (r.read() != ' ')
 			throw new IOException("Error #6 while reading graph box #" + n);
-		// reading the X coordinate
+		return s.toString();
+	}
+
+	/**
+	 * Reads a coordinate of the box #n and the char that follows it. error is
+	 * the number of the first error message to use.
+	 */
+	static int readCoordinate(GrfReader r, int n, int error)
+			throws IOException {
 		int x = 0;
 		int neg = 1;
-		c = UnicodeIO.readChar(r);
+		int c = r.read();
 		if (c == -1)
-			throw new IOException("Error #7 while reading graph box #" + n);
+			throw new IOException("Error #" + error
+					+ " while reading graph box #" + n);
 		if (c == '-') {
 			neg = -1;
 		} else if (UnicodeIO.isDigit((char) c)) {
 			x = ((char) c - '0');
 		} else {
-			throw new IOException("Error #8 while reading graph box #" + n);
+			throw new IOException("Error #" + (error + 1)
+					+ " while reading graph box #" + n);
 		}
 		c = -1;
-		while ((c = UnicodeIO.readChar(r)) != -1 && UnicodeIO.isDigit((char) c)) {
+		while ((c = r.read()) != -1 && UnicodeIO.isDigit((char) c)) {
 			x = x * 10 + ((char) c - '0');
 		}
 		if (c == -1)
-			throw new IOException("Error #9 while reading graph box #" + n);
-		x = x * neg;
+			throw new IOException("Error #" + (error + 2)
+					+ " while reading graph box #" + n);
+		return x * neg;
+	}
+
+	private void readGraphLine(GrfReader r, int n) throws IOException {
+		final GenericGraphBox g = boxes.get(n);
+		final String s = readBoxContent(r, n);
+		// reading the X coordinate
+		final int x = readCoordinate(r, n, 7);
 		// reading the Y coordinate
-		int y = 0;
-		neg = 1;
-		c = UnicodeIO.readChar(r);
-		if (c == -1)
-			throw new IOException("Error #10 while reading graph box #" + n);
-		if (c == '-') {
-			neg = -1;
-		} else if (UnicodeIO.isDigit((char) c)) {
-			y = ((char) c - '0');
-		} else {
-			throw new IOException("Error #11 while reading graph box #" + n);
-		}
-		c = -1;
-		while ((c = UnicodeIO.readChar(r)) != -1 && UnicodeIO.isDigit((char) c)) {
-			y = y * 10 + ((char) c - '0');
-		}
-		if (c == -1)
-			throw new IOException("Error #12 while reading graph box #" + n);
-		y = y * neg;
+		final int y = readCoordinate(r, n, 10);
 		g.setX(x);
 		g.setY(y);
 		g.setX1(g.getX());
@@ -591,15 +605,15 @@ public class GraphIO {
 			g.setX_out(g.getX_in() + 25);
 		}
 		int trans = 0;
-		c = -1;
-		while ((c = UnicodeIO.readChar(r)) != -1 && UnicodeIO.isDigit((char) c))
+		int c;
+		while ((c = r.read()) != -1 && UnicodeIO.isDigit((char) c))
 			trans = trans * 10 + ((char) c - '0');
 		if (c == -1)
 			throw new IOException("Error #13 while reading graph box #" + n);
 		for (int j = 0; j < trans; j++) {
 			int dest = 0;
 			c = -1;
-			while ((c = UnicodeIO.readChar(r)) != -1
+			while ((c = r.read()) != -1
 					&& UnicodeIO.isDigit((char) c))
 				dest = dest * 10 + ((char) c - '0');
 			if (c == -1)
@@ -607,7 +621,7 @@ public class GraphIO {
 			g.addTransitionTo(boxes.get(dest));
 		}
 		// skipping the end-of-line
-		final int foo = UnicodeIO.readChar(r);
+		final int foo = r.read();
 		if (foo != '\n')
 			throw new IOException("Error #15 while reading graph box #" + n);
 	}
@@ -767,6 +781,7 @@ public class GraphIO {
 				UnicodeIO.writeChar(writer, '\n');
 			}
 			writer.close();
+			graphWritten(grfFile);
 		} catch (final FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (final IOException e) {
@@ -774,8 +789,23 @@ public class GraphIO {
 		}
 	}
 
+	/**
+	 * Tells the caches and indexes that depend on graph contents that the
+	 * given graph has been written.
+	 */
+	private static void graphWritten(File grfFile) {
+		GraphModel.invalidate(grfFile);
+		GraphDependencyIndex.graphSaved(grfFile);
+		GraphTokenIndex.graphSaved(grfFile);
+	}
+
 	private void writeBoxContent(OutputStreamWriter w, String s) {
+		UnicodeIO.writeString(w, escapeBoxContent(s));
+	}
+
+	private static String escapeBoxContent(String s) {
 		final int L = s.length();
+		final StringBuilder sb = new StringBuilder(L + 8);
 		char c;
 		for (int i = 0; i < L; i++) {
 			c = s.charAt(i);
@@ -783,63 +813,148 @@ public class GraphIO {
 				// case of char "
 				if (i == 0 || s.charAt(i - 1) != '\\') {
 					// the " is the "abc" one; it must be saved as \"
-					UnicodeIO.writeChar(w, '\\');
-					UnicodeIO.writeChar(w, '"');
+					sb.append('\\').append('"');
 				} else {
 					// it is the \" char that must be saved as \\\"
 					// we only write 2 \ because the third has been saved at the
 					// pos i-1
-					UnicodeIO.writeChar(w, '\\');
-					UnicodeIO.writeChar(w, '\\');
-					UnicodeIO.writeChar(w, '"');
+					sb.append('\\').append('\\').append('"');
 				}
 			} else {
-				UnicodeIO.writeChar(w, c);
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Replaces the contents of some boxes of a .grf file, without touching
+	 * anything else. The file is written to a temporary file that then
+	 * replaces the original one, so that the graph is never left half
+	 * written.
+	 * 
+	 * oldContents and newContents are indexed by box number. For each box
+	 * with a non null new content, the current content must be the old one,
+	 * or nothing is written. This protects graphs that have been modified
+	 * since their old contents were read.
+	 * 
+	 * @throws IOException
+	 *             if the graph cannot be read or written, or if it has changed
+	 */
+	public static void replaceBoxContents(File grfFile, String[] oldContents,
+			String[] newContents) throws IOException {
+		final byte[] data = GrfReader.readFully(grfFile);
+		final Encoding encoding = Encoding.getEncoding(data, data.length);
+		if (encoding == null) {
+			throw new IOException(grfFile + " is not a Unicode file");
+		}
+		final GrfReader r = GrfReader.decode(data, encoding);
+		final StringBuilder sb = new StringBuilder(data.length + 256);
+		int copied = r.getPosition();
+		String line;
+		while ((line = r.readLine()) != null && !line.equals("#")) {
+			/* The header is copied as is */
+		}
+		if (line == null) {
+			throw new IOException("No # line in " + grfFile);
+		}
+		final int n = r.readNumber();
+		if (n != newContents.length) {
+			throw new IOException("Graph " + grfFile + " has changed");
+		}
+		for (int i = 0; i < n; i++) {
+			final int start = r.getPosition();
+			final boolean prefixed = r.peek() == 's';
+			final String content = readBoxContent(r, i);
+			final int stop = r.getPosition();
+			r.skipLine();
+			if (newContents[i] == null) {
+				continue;
+			}
+			if (!content.equals(oldContents[i])) {
+				throw new IOException("Graph " + grfFile + " has changed");
+			}
+			r.append(sb, copied, start);
+			/* We keep the optional 's' before the opening quote */
+			if (prefixed) {
+				sb.append('s');
+			}
+			sb.append('"').append(escapeBoxContent(newContents[i])).append("\" ");
+			copied = stop;
+		}
+		r.append(sb, copied, r.getEnd());
+		final ByteBuffer bytes = Charset.forName(encoding.getCharset()).encode(
+				CharBuffer.wrap(sb));
+		/* For UTF16 encodings, we keep the BOM */
+		final int bom = (encoding == Encoding.UTF8) ? 0 : 2;
+		final File tmp = File.createTempFile(grfFile.getName(), ".tmp",
+				grfFile.getAbsoluteFile().getParentFile());
+		try {
+			final FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(data, 0, bom);
+				out.write(bytes.array(), bytes.arrayOffset() + bytes.position(),
+						bytes.remaining());
+			} finally {
+				out.close();
+			}
+			try {
+				Files.move(tmp.toPath(), grfFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), grfFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			if (tmp.exists()) {
+				tmp.delete();
 			}
 		}
+		graphWritten(grfFile);
 	}
 
-	private void readSentenceGraphLine(InputStreamReader r, int n) {
+	private void readSentenceGraphLine(GrfReader r, int n) {
 		final TfstGraphBox g = (TfstGraphBox) boxes.get(n);
-		if (UnicodeIO.readChar(r) == 's') {
+		if (r.read() == 's') {
 			// is a "s" was read, then we read the " char
-			UnicodeIO.readChar(r);
+			r.read();
 		}
-		String s = "";
+		final StringBuilder s = new StringBuilder();
 		char c;
-		while ((c = (char) UnicodeIO.readChar(r)) != '"') {
+		while ((c = (char) r.read()) != '"') {
 			if (c == '\\') {
-				c = (char) UnicodeIO.readChar(r);
+				c = (char) r.read();
 				if (c != '\\') {
 					// case of \: \+ and \"
 					if (c == '"')
-						s = s + c;
+						s.append(c);
 					else
-						s = s + "\\" + c;
+						s.append('\\').append(c);
 				} else {
 					// case of \\\" that must must be transformed into \"
-					c = (char) UnicodeIO.readChar(r);
+					c = (char) r.read();
 					if (c == '\\') {
 						// we are in the case \\\" -> \"
-						c = (char) UnicodeIO.readChar(r);
-						s = s + "\\" + c;
+						c = (char) r.read();
+						s.append('\\').append(c);
 					} else {
 						// we are in the case \\a -> \\a
-						s = s + "\\\\" + c;
+						s.append("\\\\").append(c);
 					}
 				}
 			} else
-				s = s + c;
+				s.append(c);
 		}
 		// skipping the space after "
-		UnicodeIO.readChar(r);
+		r.read();
 		// reading the X coordinate
 		int x = 0;
-		while (UnicodeIO.isDigit((c = (char) UnicodeIO.readChar(r))))
+		while (UnicodeIO.isDigit((c = (char) r.read())))
 			x = x * 10 + (c - '0');
 		// reading the Y coordinate
 		int y = 0;
-		while (UnicodeIO.isDigit((c = (char) UnicodeIO.readChar(r))))
+		while (UnicodeIO.isDigit((c = (char) r.read())))
 			y = y * 10 + (c - '0');
 		if (ConfigManager.getManager().getGraphPresentationPreferences(null)
 				.isRightToLeft()
@@ -858,7 +973,7 @@ public class GraphIO {
 		g.setY_out(g.getY_in());
 		if (n != 1) {
 			// 1 is the final state, which content is <E>
-			g.setContentWithBounds(s);
+			g.setContentWithBounds(s.toString());
 			// we will need to call g.update() to size the box according to the
 			// text
 		} else {
@@ -871,16 +986,16 @@ public class GraphIO {
 			g.setX_out(g.getX_in() + 25);
 		}
 		int trans = 0;
-		while (UnicodeIO.isDigit((c = (char) UnicodeIO.readChar(r))))
+		while (UnicodeIO.isDigit((c = (char) r.read())))
 			trans = trans * 10 + (c - '0');
 		for (int j = 0; j < trans; j++) {
 			int dest = 0;
-			while (UnicodeIO.isDigit((c = (char) UnicodeIO.readChar(r))))
+			while (UnicodeIO.isDigit((c = (char) r.read())))
 				dest = dest * 10 + (c - '0');
 			g.addTransitionTo(boxes.get(dest));
 		}
 		// skipping the end-of-line
-		UnicodeIO.readChar(r);
+		r.read();
 	}
 
 	/**
@@ -0,0 +1,392 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import fr.umlv.unitex.graphrendering.GenericGraphBox;
+import fr.umlv.unitex.graphrendering.GraphBox;
+
+/**
+ * This is a read-only description of a .grf graph, for tools that only need
+ * the contents of the boxes and the transitions, like graph dependencies or
+ * searches over many graphs. Unlike {@link GraphIO}, it does not create any
+ * graphical box, so that it does not need fonts and is much smaller.
+ *
+ * Everything is stored in primitive arrays. The lines of all boxes are stored
+ * in a single array: the lines of box #i are those in
+ * [lineStart[i];lineStart[i+1][. The same goes for transitions. Boxes are
+ * numbered like in the .grf file: 0 is the initial state and 1 is the final
+ * state.
+ *
+ * Since graphs are immutable, the ones obtained with {@link #get(File)} are
+ * shared by all the tools of the process. They are kept in a cache whose size
+ * is bounded, and they are read again only if the file has changed.
+ */
+public class GraphModel {
+	/**
+	 * Approximate number of bytes that cached graphs may use. When this is
+	 * exceeded, the least recently used graphs are removed.
+	 */
+	private static final long MAX_CACHE_WEIGHT = 64L * 1024 * 1024;
+
+	/**
+	 * Cached graphs, keyed by canonical path, in access order.
+	 */
+	private static final LinkedHashMap<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>(
+			256, 0.75f, true);
+	private static long cacheWeight = 0;
+
+	private final File grf;
+	private final String[] contents;
+	private final int[] x;
+	private final int[] y;
+	private final int[] lineStart;
+	private final String[] lines;
+	/* greyed.get(i) is true if the line #i is a subgraph call */
+	private final BitSet greyed;
+	private final int[] transitionStart;
+	private final int[] transitions;
+	private final BitSet commentBoxes;
+	private final BitSet standaloneBoxes;
+	private final long weight;
+
+	private GraphModel(File grf, String[] contents, int[] x, int[] y,
+			int[] lineStart, String[] lines, BitSet greyed,
+			int[] transitionStart, int[] transitions, BitSet commentBoxes) {
+		this.grf = grf;
+		this.contents = contents;
+		this.x = x;
+		this.y = y;
+		this.lineStart = lineStart;
+		this.lines = lines;
+		this.greyed = greyed;
+		this.transitionStart = transitionStart;
+		this.transitions = transitions;
+		this.commentBoxes = commentBoxes;
+		final int n = contents.length;
+		standaloneBoxes = new BitSet(n);
+		standaloneBoxes.set(0, n);
+		for (int i = 0; i < n; i++) {
+			if (transitionStart[i] != transitionStart[i + 1]) {
+				standaloneBoxes.clear(i);
+			}
+		}
+		for (final int dest : transitions) {
+			standaloneBoxes.clear(dest);
+		}
+		long w = 128 + 24L * n + 4L * transitions.length;
+		for (final String s : contents) {
+			w += 48 + 2L * s.length();
+		}
+		for (final String s : lines) {
+			w += 48 + 2L * s.length();
+		}
+		weight = w;
+	}
+
+	/**
+	 * Returns the given graph, from the cache if it has not been modified since
+	 * it was put there.
+	 *
+	 * @return the graph, or null if the file cannot be read or is not a valid
+	 *         graph
+	 */
+	public static GraphModel get(File grf) {
+		final String key = getKey(grf);
+		final long lastModified = grf.lastModified();
+		final long length = grf.length();
+		synchronized (cache) {
+			final CacheEntry e = cache.get(key);
+			if (e != null) {
+				if (e.lastModified == lastModified && e.length == length) {
+					return e.graph;
+				}
+				remove(key);
+			}
+		}
+		final GraphModel graph = load(grf);
+		if (graph == null || graph.weight > MAX_CACHE_WEIGHT) {
+			return graph;
+		}
+		synchronized (cache) {
+			remove(key);
+			cache.put(key, new CacheEntry(lastModified, length, graph));
+			cacheWeight += graph.weight;
+			final Iterator<CacheEntry> it = cache.values().iterator();
+			while (cacheWeight > MAX_CACHE_WEIGHT && it.hasNext()) {
+				cacheWeight -= it.next().graph.weight;
+				it.remove();
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * Removes the given graph from the cache. This must be called when a graph
+	 * is written, since two versions of a file can have the same date and
+	 * size.
+	 */
+	public static void invalidate(File grf) {
+		final String key = getKey(grf);
+		synchronized (cache) {
+			remove(key);
+		}
+	}
+
+	private static void remove(String key) {
+		final CacheEntry e = cache.remove(key);
+		if (e != null) {
+			cacheWeight -= e.graph.weight;
+		}
+	}
+
+	private static String getKey(File grf) {
+		try {
+			return grf.getCanonicalPath();
+		} catch (final IOException e) {
+			return grf.getAbsolutePath();
+		}
+	}
+
+	/**
+	 * Loads the given .grf file, without using the cache. Boxes are tokenized as a graph frame would
+	 * do, and transitions that a graph frame would not keep are ignored.
+	 *
+	 * @return the graph, or null if the file cannot be read or is not a valid
+	 *         graph
+	 */
+	public static GraphModel load(File grf) {
+		try {
+			final GrfReader r = GrfReader.open(grf);
+			if (r == null) {
+				return null;
+			}
+			/* We skip the header, until the # line */
+			String line;
+			while ((line = r.readLine()) != null && !line.equals("#")) {
+				/* Nothing to do */
+			}
+			if (line == null) {
+				return null;
+			}
+			final int n = r.readNumber();
+			if (n < 2) {
+				return null;
+			}
+			final String[] contents = new String[n];
+			final int[] x = new int[n];
+			final int[] y = new int[n];
+			final int[] lineStart = new int[n + 1];
+			final int[] transitionStart = new int[n + 1];
+			final BitSet greyed = new BitSet();
+			final BitSet commentBoxes = new BitSet(n);
+			final ArrayList<String> allLines = new ArrayList<String>();
+			final ArrayList<String> boxLines = new ArrayList<String>();
+			final ArrayList<Boolean> boxGreyed = new ArrayList<Boolean>();
+			final int[][] dest = new int[n][];
+			int nTransitions = 0;
+			for (int i = 0; i < n; i++) {
+				final String content = GraphIO.readBoxContent(r, i);
+				x[i] = GraphIO.readCoordinate(r, i, 7);
+				y[i] = GraphIO.readCoordinate(r, i, 10);
+				lineStart[i] = allLines.size();
+				if (i == 1) {
+					/* The final state has no line */
+					contents[i] = "<E>";
+				} else {
+					if (content.equals("")) {
+						return null;
+					}
+					contents[i] = content;
+					GraphBox.tokenizeContent(content, boxLines, boxGreyed);
+					for (int j = 0; j < boxLines.size(); j++) {
+						if (boxGreyed.get(j)) {
+							greyed.set(allLines.size());
+						}
+						allLines.add(boxLines.get(j));
+					}
+					if (GraphBox.tokenizeCommentBox(content, null)) {
+						commentBoxes.set(i);
+					}
+				}
+				final int trans = r.readNumber();
+				if (trans == -1) {
+					throw new IOException("Error #13 while reading graph box #"
+							+ i);
+				}
+				int[] t = new int[trans];
+				int m = 0;
+				for (int j = 0; j < trans; j++) {
+					final int d = r.readNumber();
+					if (d == -1 || d >= n) {
+						throw new IOException(
+								"Error #14 while reading graph box #" + i);
+					}
+					/*
+					 * Like GenericGraphBox.addTransitionTo, a second
+					 * transition to the same box removes the first one
+					 */
+					final int k = indexOf(t, m, d);
+					if (k == -1) {
+						t[m++] = d;
+					} else {
+						System.arraycopy(t, k + 1, t, k, m - k - 1);
+						m--;
+					}
+				}
+				if (r.read() != '\n') {
+					throw new IOException("Error #15 while reading graph box #"
+							+ i);
+				}
+				if (i == 1) {
+					/* No transition can go out of the final state */
+					m = 0;
+				}
+				dest[i] = (m == t.length) ? t : Arrays.copyOf(t, m);
+				nTransitions += m;
+			}
+			lineStart[n] = allLines.size();
+			/*
+			 * Transitions from or to comment boxes are ignored, since graph
+			 * frames remove them
+			 */
+			final int[] transitions = new int[nTransitions];
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				transitionStart[i] = m;
+				if (commentBoxes.get(i)) {
+					continue;
+				}
+				for (final int d : dest[i]) {
+					if (!commentBoxes.get(d)) {
+						transitions[m++] = d;
+					}
+				}
+			}
+			transitionStart[n] = m;
+			return new GraphModel(grf, contents, x, y, lineStart,
+					allLines.toArray(new String[allLines.size()]), greyed,
+					transitionStart, Arrays.copyOf(transitions, m),
+					commentBoxes);
+		} catch (final IOException e) {
+			return null;
+		} catch (final IllegalStateException e) {
+			return null;
+		}
+	}
+
+	private static int indexOf(int[] t, int size, int value) {
+		for (int i = 0; i < size; i++) {
+			if (t[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public File getGrf() {
+		return grf;
+	}
+
+	public int getBoxCount() {
+		return contents.length;
+	}
+
+	/**
+	 * Returns the type of the given box, as defined in GenericGraphBox.
+	 */
+	public int getType(int box) {
+		if (box == 0) {
+			return GenericGraphBox.INITIAL;
+		}
+		return (box == 1) ? GenericGraphBox.FINAL : GenericGraphBox.NORMAL;
+	}
+
+	public String getContent(int box) {
+		return contents[box];
+	}
+
+	public int getX(int box) {
+		return x[box];
+	}
+
+	public int getY(int box) {
+		return y[box];
+	}
+
+	public boolean isCommentBox(int box) {
+		return commentBoxes.get(box);
+	}
+
+	/**
+	 * Returns true if the given box has no incoming and no outgoing
+	 * transition.
+	 */
+	public boolean isStandaloneBox(int box) {
+		return standaloneBoxes.get(box);
+	}
+
+	public int getLineCount(int box) {
+		return lineStart[box + 1] - lineStart[box];
+	}
+
+	public String getLine(int box, int i) {
+		return lines[lineStart[box] + i];
+	}
+
+	/**
+	 * Returns true if the line #i of the given box is a subgraph call.
+	 */
+	public boolean isGreyed(int box, int i) {
+		return greyed.get(lineStart[box] + i);
+	}
+
+	public int getTransitionCount(int box) {
+		return transitionStart[box + 1] - transitionStart[box];
+	}
+
+	/**
+	 * Returns the number of the box reached by the transition #i of the given
+	 * box.
+	 */
+	public int getTransition(int box, int i) {
+		return transitions[transitionStart[box] + i];
+	}
+
+	private static class CacheEntry {
+		final long lastModified;
+		final long length;
+		final GraphModel graph;
+
+		CacheEntry(long lastModified, long length, GraphModel graph) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.graph = graph;
+		}
+	}
+}
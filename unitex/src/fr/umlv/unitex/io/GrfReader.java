@@ -0,0 +1,187 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * This is a reader for .grf files, that reads and decodes the whole file at
+ * once, and then reads chars from memory. It provides the same primitives as
+ * UnicodeIO, which reads the file char by char through an InputStreamReader.
+ */
+class GrfReader {
+	private final char[] chars;
+	private final int end;
+	private int pos;
+
+	private GrfReader(char[] chars, int start, int end) {
+		this.chars = chars;
+		this.pos = start;
+		this.end = end;
+	}
+
+	/**
+	 * Reads and decodes the given file.
+	 * 
+	 * @return the reader, or null if the file is not a Unicode file
+	 */
+	static GrfReader open(File f) throws IOException {
+		final byte[] data = readFully(f);
+		final Encoding encoding = Encoding.getEncoding(data, data.length);
+		if (encoding == null) {
+			return null;
+		}
+		return decode(data, encoding);
+	}
+
+	/**
+	 * Decodes the given content of a file, whose encoding is already known.
+	 */
+	static GrfReader decode(byte[] data, Encoding encoding) {
+		/* For UTF16 encodings, we skip the BOM */
+		final int offset = (encoding == Encoding.UTF8) ? 0 : 2;
+		final CharBuffer buffer = Charset.forName(encoding.getCharset())
+				.decode(ByteBuffer.wrap(data, offset, data.length - offset));
+		return new GrfReader(buffer.array(), buffer.arrayOffset()
+				+ buffer.position(), buffer.arrayOffset() + buffer.limit());
+	}
+
+	static byte[] readFully(File f) throws IOException {
+		final FileInputStream stream = new FileInputStream(f);
+		try {
+			byte[] data = new byte[(int) f.length()];
+			int n = 0;
+			int z;
+			while ((z = stream.read(data, n, data.length - n)) > 0) {
+				n += z;
+				if (n == data.length) {
+					/* The file may have grown since we got its length */
+					final int c = stream.read();
+					if (c == -1) {
+						break;
+					}
+					data = Arrays.copyOf(data, 2 * data.length + 1);
+					data[n++] = (byte) c;
+				}
+			}
+			return (n == data.length) ? data : Arrays.copyOf(data, n);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Reads a char. If it is <code>0x0D</code>, the following char is skipped
+	 * and '\n' is returned.
+	 * 
+	 * @return the char, or -1 at the end of the file
+	 */
+	int read() {
+		if (pos == end)
+			return -1;
+		final char c = chars[pos++];
+		if (c == 0x0d) {
+			if (pos < end)
+				pos++;
+			return '\n';
+		}
+		return c;
+	}
+
+	/**
+	 * Returns the next char without reading it, or -1 at the end of the file.
+	 */
+	int peek() {
+		return (pos == end) ? -1 : chars[pos];
+	}
+
+	void skip(int n) {
+		for (int i = 0; i < n; i++)
+			read();
+	}
+
+	void skipLine() {
+		int c;
+		while ((c = read()) != '\n' && c != -1) {/**/
+		}
+	}
+
+	/**
+	 * Reads a line. The \n, if any, is not put in the result. Returns null at
+	 * the end of file.
+	 */
+	String readLine() {
+		if (pos == end)
+			return null;
+		final int start = pos;
+		while (pos < end && chars[pos] != '\n' && chars[pos] != 0x0d)
+			pos++;
+		final String s = new String(chars, start, pos - start);
+		read();
+		return s;
+	}
+
+	/**
+	 * Reads a non negative number, and the char that follows it.
+	 * 
+	 * @return the number, or -1 if the end of file was reached before the end
+	 *         of the number
+	 */
+	int readNumber() {
+		int n = 0;
+		while (pos < end) {
+			final char c = chars[pos];
+			if (c < '0' || c > '9') {
+				read();
+				return n;
+			}
+			n = n * 10 + (c - '0');
+			pos++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the position of the next char to be read. Positions can only be
+	 * compared with each other, or given to {@link #append}.
+	 */
+	int getPosition() {
+		return pos;
+	}
+
+	int getEnd() {
+		return end;
+	}
+
+	/**
+	 * Appends the raw chars from the position from (inclusive) to the position
+	 * to (exclusive), without any end of line conversion.
+	 */
+	void append(StringBuilder sb, int from, int to) {
+		sb.append(chars, from, to - from);
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.io;
+
+/**
+ * Receives the ends of line found by
+ * {@link Encoding#scanLines(java.nio.ByteBuffer, int, int, LineHandler)}.
+ */
+public interface LineHandler {
+	/**
+	 * @param position
+	 *            position in bytes of the '\n' in the scanned buffer, or in
+	 *            the file when called by
+	 *            {@link ParallelLineScanner.Chunk#replay(LineHandler)}
+	 * @param chars
+	 *            number of chars between the previous '\n' (or the start of
+	 *            the scanned range) and this one, both excluded
+	 */
+	public void newLine(long position, int chars);
+}
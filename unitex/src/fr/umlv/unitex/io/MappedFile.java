@@ -0,0 +1,480 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This is a read-only memory mapping of a file that can be larger than 2 GB.
+ * A single MappedByteBuffer cannot, so the file is split into segments of
+ * fixed size that are mapped on demand. Positions are long offsets from the
+ * start of the mapped region. When too many segments are mapped, the least
+ * recently used one is evicted. Readers hold a segment between
+ * {@link #acquireSegment(int)} and {@link Segment#release()}, so an evicted
+ * segment is unmapped as soon as its last reader releases it.
+ * 
+ * Mappings obtained with {@link #open(File, long)} are shared: opening again
+ * a file that is already mapped and has not changed on disk returns the same
+ * object. Each open or {@link #retain()} must be balanced by a
+ * {@link #release()}. When the last user releases the mapping, all its
+ * segments are unmapped immediately, instead of waiting for the garbage
+ * collector. This is important because a mapped file cannot be modified or
+ * deleted on some systems, and so the Unitex programs could not write it.
+ * Callers must then never use a buffer obtained from a mapping they have
+ * released.
+ */
+public class MappedFile {
+	/**
+	 * Segments are 1 GB large. This is a power of 2, so that segment
+	 * boundaries are always UTF16 char boundaries.
+	 */
+	public static final int DEFAULT_SEGMENT_SHIFT = 30;
+	public static final int DEFAULT_MAX_MAPPED_SEGMENTS = 8;
+
+	/**
+	 * Shared mappings, keyed by canonical path and offset.
+	 */
+	private static final HashMap<String, MappedFile> openFiles = new HashMap<String, MappedFile>();
+
+	private final File file;
+	private final String key;
+	private final long lastModified;
+	private final long offset;
+	private final long length;
+	private final int segmentShift;
+	private final long segmentMask;
+	private final int maxMappedSegments;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private final AtomicReferenceArray<Segment> segments;
+	/*
+	 * Approximate date of last use of each segment. It is only used to choose
+	 * which segment to evict, so there is no need to synchronize it.
+	 */
+	private final long[] lastUse;
+	private long clock = 0;
+	/* Segments in the segments array, protected by this */
+	private int mappedSegments = 0;
+	/*
+	 * Segments that were evicted while a reader was still using them. They
+	 * are unmapped when their last reader releases them. Protected by this.
+	 */
+	private final ArrayList<Segment> evictedSegments = new ArrayList<Segment>();
+	/* Protected by openFiles */
+	private int references = 1;
+
+	/**
+	 * Returns a shared mapping of the given file, skipping its first offset
+	 * bytes. If the file is already mapped with the same offset and has not
+	 * been modified since, the existing mapping is reused.
+	 */
+	public static MappedFile open(File file, long offset) throws IOException {
+		final String key = file.getCanonicalPath() + "@" + offset;
+		synchronized (openFiles) {
+			final MappedFile m = openFiles.get(key);
+			if (m != null && m.lastModified == file.lastModified()
+					&& m.length == Math.max(0, file.length() - offset)) {
+				m.references++;
+				return m;
+			}
+			final MappedFile result = new MappedFile(file, key, offset,
+					DEFAULT_SEGMENT_SHIFT, DEFAULT_MAX_MAPPED_SEGMENTS);
+			openFiles.put(key, result);
+			return result;
+		}
+	}
+
+	public static MappedFile open(File file) throws IOException {
+		return open(file, 0);
+	}
+
+	public MappedFile(File file) throws IOException {
+		this(file, 0);
+	}
+
+	/**
+	 * Maps the given file, skipping its first offset bytes (for instance, the
+	 * BOM of an UTF16 file). The mapping is not shared.
+	 */
+	public MappedFile(File file, long offset) throws IOException {
+		this(file, offset, DEFAULT_SEGMENT_SHIFT, DEFAULT_MAX_MAPPED_SEGMENTS);
+	}
+
+	public MappedFile(File file, long offset, int segmentShift,
+			int maxMappedSegments) throws IOException {
+		this(file, null, offset, segmentShift, maxMappedSegments);
+	}
+
+	private MappedFile(File file, String key, long offset, int segmentShift,
+			int maxMappedSegments) throws IOException {
+		this.file = file;
+		this.key = key;
+		this.lastModified = file.lastModified();
+		this.offset = offset;
+		this.segmentShift = segmentShift;
+		this.segmentMask = (1L << segmentShift) - 1;
+		this.maxMappedSegments = Math.max(1, maxMappedSegments);
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		length = Math.max(0, channel.size() - offset);
+		final int n = (int) ((length + segmentMask) >>> segmentShift);
+		segments = new AtomicReferenceArray<Segment>(n);
+		lastUse = new long[n];
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the length in bytes of the mapped region.
+	 */
+	public long length() {
+		return length;
+	}
+
+	public int getSegmentCount() {
+		return segments.length();
+	}
+
+	public long getSegmentStart(int i) {
+		return (long) i << segmentShift;
+	}
+
+	public long getSegmentEnd(int i) {
+		return Math.min(getSegmentStart(i + 1), length);
+	}
+
+	/**
+	 * Returns the segment #i, mapping it if needed. The caller must call
+	 * {@link Segment#release()} once it does not use the buffer anymore, and
+	 * must not use the buffer afterwards.
+	 */
+	public Segment acquireSegment(int i) {
+		while (true) {
+			Segment seg = segments.get(i);
+			if (seg == null) {
+				seg = map(i);
+			}
+			seg.readers.incrementAndGet();
+			if (segments.get(i) == seg) {
+				lastUse[i] = ++clock;
+				return seg;
+			}
+			/*
+			 * The segment has been evicted between get and incrementAndGet,
+			 * so it may already be unmapped: we try again
+			 */
+			seg.release();
+		}
+	}
+
+	private synchronized Segment map(int i) {
+		Segment seg = segments.get(i);
+		if (seg != null) {
+			return seg;
+		}
+		if (channel == null) {
+			throw new IllegalStateException("File " + file + " is closed");
+		}
+		if (mappedSegments >= maxMappedSegments) {
+			evictLeastRecentlyUsedSegment();
+		}
+		final long start = getSegmentStart(i);
+		try {
+			seg = new Segment(channel.map(FileChannel.MapMode.READ_ONLY,
+					offset + start, getSegmentEnd(i) - start));
+		} catch (final IOException e) {
+			throw new IllegalStateException("Cannot map " + file, e);
+		}
+		segments.set(i, seg);
+		mappedSegments++;
+		return seg;
+	}
+
+	private void evictLeastRecentlyUsedSegment() {
+		int victim = -1;
+		for (int i = 0; i < segments.length(); i++) {
+			if (segments.get(i) != null
+					&& (victim == -1 || lastUse[i] < lastUse[victim])) {
+				victim = i;
+			}
+		}
+		if (victim != -1) {
+			final Segment seg = segments.getAndSet(victim, null);
+			mappedSegments--;
+			seg.evicted = true;
+			if (seg.readers.get() == 0) {
+				/*
+				 * A reader that increments the counter after this test will
+				 * see that the segment is not in the array anymore, and will
+				 * not use it
+				 */
+				seg.unmap();
+			} else {
+				evictedSegments.add(seg);
+			}
+		}
+	}
+
+	synchronized void unmapIfUnused(Segment seg) {
+		if (seg.evicted && seg.readers.get() == 0) {
+			seg.unmap();
+			evictedSegments.remove(seg);
+		}
+	}
+
+	/**
+	 * Returns the number of segments that are currently mapped, including
+	 * the evicted ones that are still being read.
+	 */
+	public synchronized int getMappedSegmentCount() {
+		return mappedSegments + evictedSegments.size();
+	}
+
+	/**
+	 * Reads a single byte. This acquires and releases a segment for each
+	 * call, so code that reads many bytes in sequence should use a
+	 * {@link Cursor} instead.
+	 */
+	public byte get(long pos) {
+		final Segment seg = acquireSegment((int) (pos >>> segmentShift));
+		try {
+			return seg.buffer.get((int) (pos & segmentMask));
+		} finally {
+			seg.release();
+		}
+	}
+
+	/**
+	 * Copies the bytes from start (inclusive) to end (exclusive) into a new
+	 * array. The range may cross segment boundaries.
+	 */
+	public byte[] getBytes(long start, long end) {
+		final byte[] result = new byte[(int) (end - start)];
+		int z = 0;
+		long pos = start;
+		while (pos < end) {
+			final int i = (int) (pos >>> segmentShift);
+			final Segment seg = acquireSegment(i);
+			final int n = (int) (Math.min(end, getSegmentEnd(i)) - pos);
+			try {
+				final ByteBuffer b = seg.buffer.duplicate();
+				b.position((int) (pos & segmentMask));
+				b.get(result, z, n);
+			} finally {
+				seg.release();
+			}
+			z += n;
+			pos += n;
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes the bytes from start (inclusive) to end (exclusive). When the
+	 * range lies in a single segment, which is almost always the case, the
+	 * bytes are decoded directly from the mapping without being copied first.
+	 */
+	public String getString(long start, long end, Charset charset) {
+		final int i = (int) (start >>> segmentShift);
+		if (end > getSegmentEnd(i)) {
+			return new String(getBytes(start, end), charset);
+		}
+		final Segment seg = acquireSegment(i);
+		try {
+			final ByteBuffer b = seg.buffer.duplicate();
+			final int from = (int) (start & segmentMask);
+			b.limit(from + (int) (end - start));
+			b.position(from);
+			return charset.decode(b).toString();
+		} finally {
+			seg.release();
+		}
+	}
+
+	/**
+	 * Returns a new cursor on this mapping. The caller must close it once it
+	 * does not read anymore.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Declares a new user of this mapping, that will have to call release.
+	 */
+	public MappedFile retain() {
+		synchronized (openFiles) {
+			if (references == 0) {
+				throw new IllegalStateException("File " + file
+						+ " has already been released");
+			}
+			references++;
+		}
+		return this;
+	}
+
+	/**
+	 * Declares that the caller will not use this mapping anymore. When there
+	 * is no user left, the file is unmapped and closed.
+	 */
+	public void release() {
+		synchronized (openFiles) {
+			if (references == 0) {
+				return;
+			}
+			references--;
+			if (references > 0) {
+				return;
+			}
+			if (key != null && openFiles.get(key) == this) {
+				openFiles.remove(key);
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Unmaps all the segments. Like evicted ones, the segments that are still
+	 * being read are only unmapped when their last reader releases them.
+	 */
+	private synchronized void close() {
+		for (int i = 0; i < segments.length(); i++) {
+			final Segment seg = segments.getAndSet(i, null);
+			if (seg == null) {
+				continue;
+			}
+			seg.evicted = true;
+			if (seg.readers.get() == 0) {
+				seg.unmap();
+			} else {
+				evictedSegments.add(seg);
+			}
+		}
+		mappedSegments = 0;
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+			channel = null;
+		}
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (final IOException e) {
+				e.printStackTrace();
+			}
+			raf = null;
+		}
+	}
+
+	/**
+	 * Reads bytes at arbitrary positions, keeping the last segment it read
+	 * acquired until it has to move to another one, so that reading a byte
+	 * in the current segment costs no more than reading it from a buffer. A
+	 * cursor must only be used by one thread at a time.
+	 */
+	public class Cursor {
+		private Segment segment;
+		private long start = 0;
+		private long end = 0;
+
+		Cursor() {
+			/* Use cursor() */
+		}
+
+		public byte get(long pos) {
+			if (pos < start || pos >= end) {
+				moveTo(pos);
+			}
+			return segment.buffer.get((int) (pos - start));
+		}
+
+		private void moveTo(long pos) {
+			close();
+			final int i = (int) (pos >>> segmentShift);
+			segment = acquireSegment(i);
+			start = getSegmentStart(i);
+			end = getSegmentEnd(i);
+		}
+
+		/**
+		 * Releases the current segment. The cursor can still be used
+		 * afterwards, as long as the mapping has not been released.
+		 */
+		public void close() {
+			if (segment != null) {
+				segment.release();
+				segment = null;
+				start = 0;
+				end = 0;
+			}
+		}
+	}
+
+	/**
+	 * A mapped segment, with the number of readers that are using it.
+	 */
+	public class Segment {
+		final ByteBuffer buffer;
+		final AtomicInteger readers = new AtomicInteger();
+		/* Both protected by the MappedFile */
+		boolean evicted = false;
+		private boolean unmapped = false;
+
+		Segment(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * Returns the buffer. It is shared, so callers should only use
+		 * absolute get methods, or work on a duplicate.
+		 */
+		public ByteBuffer getBuffer() {
+			return buffer;
+		}
+
+		public void release() {
+			if (readers.decrementAndGet() == 0 && evicted) {
+				unmapIfUnused(this);
+			}
+		}
+
+		void unmap() {
+			if (!unmapped) {
+				unmapped = true;
+				BufferUnmapper.unmap(buffer);
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+import fr.umlv.unitex.utils.ComputePool;
+
+/**
+ * This class looks for the ends of line of a mapped file with
+ * {@link Encoding#scanLines(ByteBuffer, int, int, LineHandler)}, after having
+ * split it into chunks that are scanned in parallel. Chunks never cross the
+ * segment boundaries of the MappedFile. They can be retrieved in order as soon
+ * as they are done, so that the caller can stitch them and publish its results
+ * progressively.
+ */
+public class ParallelLineScanner {
+	private static final int MIN_CHUNK_SIZE = 1 << 22;
+
+	private final Chunk[] chunks;
+
+	/**
+	 * Starts scanning the given file. The mapped region must start on a char
+	 * boundary.
+	 */
+	public ParallelLineScanner(Encoding encoding, MappedFile file) {
+		final ArrayList<Chunk> list = new ArrayList<Chunk>();
+		for (int i = 0; i < file.getSegmentCount(); i++) {
+			final long base = file.getSegmentStart(i);
+			final int length = (int) (file.getSegmentEnd(i) - base);
+			int n = (int) Math.min(4L * ComputePool.get().getParallelism(),
+					length / MIN_CHUNK_SIZE);
+			if (n < 1)
+				n = 1;
+			/*
+			 * Chunk sizes are even, so that chunks never split an UTF16 char.
+			 * For UTF8, any byte is fine, since we only count the bytes that
+			 * start a char
+			 */
+			final long chunkSize = ((length / n) + 1) & ~1L;
+			int start = 0;
+			for (int j = 0; j < n; j++) {
+				final int end = (j == n - 1) ? length : (int) Math.min(start
+						+ chunkSize, length);
+				list.add(new Chunk(encoding, file, i, base, start, end));
+				start = end;
+			}
+		}
+		chunks = list.toArray(new Chunk[list.size()]);
+		for (final Chunk c : chunks) {
+			ComputePool.get().execute(c);
+		}
+	}
+
+	public int getChunkCount() {
+		return chunks.length;
+	}
+
+	/**
+	 * Waits for the chunk #i to be scanned and returns it.
+	 * 
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the scan has been cancelled
+	 */
+	public Chunk getChunk(int i) {
+		chunks[i].join();
+		return chunks[i];
+	}
+
+	public void cancel() {
+		for (final Chunk c : chunks) {
+			c.cancel(false);
+		}
+	}
+
+	/**
+	 * Cancels the chunks that are not started yet, and waits for the others
+	 * to be done. After that, no chunk uses the mapped file anymore, so that
+	 * it can be released.
+	 */
+	public void cancelAndWait() {
+		cancel();
+		for (final Chunk c : chunks) {
+			c.quietlyJoin();
+		}
+	}
+
+	public static class Chunk extends RecursiveAction implements LineHandler {
+		private static final long serialVersionUID = 1L;
+		private final Encoding encoding;
+		private final MappedFile file;
+		private final int segment;
+		private final long base;
+		private final int start;
+		private final int end;
+		private int[] positions = new int[256];
+		private int[] chars = new int[256];
+		private int count;
+		private int trailingChars;
+
+		Chunk(Encoding encoding, MappedFile file, int segment, long base,
+				int start, int end) {
+			this.encoding = encoding;
+			this.file = file;
+			this.segment = segment;
+			this.base = base;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			/* The segment is only held while the chunk is scanned */
+			final MappedFile.Segment seg = file.acquireSegment(segment);
+			try {
+				trailingChars = encoding.scanLines(seg.getBuffer(), start, end,
+						this);
+			} finally {
+				seg.release();
+			}
+		}
+
+		@Override
+		public void newLine(long position, int n) {
+			if (count == positions.length) {
+				positions = Arrays.copyOf(positions, 2 * count);
+				chars = Arrays.copyOf(chars, 2 * count);
+			}
+			/* Positions are relative to the segment, so they fit in an int */
+			positions[count] = (int) position;
+			chars[count] = n;
+			count++;
+		}
+
+		/**
+		 * Gives all the ends of line of this chunk to the given handler, as if
+		 * Encoding.scanLines had been called on it, except that positions are
+		 * offsets in the mapped file.
+		 * 
+		 * @return the number of chars after the last end of line of the chunk
+		 */
+		public int replay(LineHandler handler) {
+			for (int i = 0; i < count; i++) {
+				handler.newLine(base + positions[i], chars[i]);
+			}
+			return trailingChars;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the offset in the mapped file of the end of this chunk.
+		 */
+		public long getEnd() {
+			return base + end;
+		}
+	}
+}
@@ -25,6 +25,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
+ * Consumes a stream, like the output of a process. Rather than starting a new
+ * thread, use {@link StreamPump#eat(InputStream, OutputStream)}.
+ * 
  * @author Olivier Blanc
  */
 public class EatStreamThread extends Thread {
@@ -45,14 +48,29 @@ public class EatStreamThread extends Thread {
 
 	@Override
 	public void run() {
+		copy(in, out);
+	}
+
+	/**
+	 * Copies in into out by blocks until the end of in. If out is null, the
+	 * content is just ignored. out is closed at the end, unless it is
+	 * System.out or System.err.
+	 */
+	static void copy(InputStream in, OutputStream out) {
+		final boolean ignore = (out == null || out instanceof NullOutputStream);
+		final byte[] buffer = new byte[8192];
 		try {
-			int c;
-			while ((c = in.read()) != -1) {
-				out.write(c);
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				if (!ignore) {
+					out.write(buffer, 0, n);
+				}
 			}
-			if (!out.equals(System.out) && !out.equals(System.err)) {
+			if (out != null && !out.equals(System.out)
+					&& !out.equals(System.err)) {
 				out.close();
 			}
+			in.close();
 		} catch (final IOException e) {
 			/* Nothing to do */
 		}
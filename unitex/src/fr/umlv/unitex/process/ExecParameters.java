@@ -21,6 +21,7 @@
 package fr.umlv.unitex.process;
 
 import java.io.File;
+import java.util.ArrayList;
 
 import fr.umlv.unitex.process.commands.CommandBuilder;
 import fr.umlv.unitex.process.commands.MultiCommands;
@@ -33,17 +34,36 @@ import fr.umlv.unitex.process.list.ProcessOutputList;
 public class ExecParameters {
 
 	/**
-	 * If not null, this represents the current running process. This field is
-	 * used to know which is the current process from within an Executor object
+	 * The processes that are currently running. There may be several of them
+	 * when the Executor runs independent commands at the same time. Once
+	 * cancelled, any new process is destroyed as soon as it is registered.
 	 */
-	private Process process;
+	private final ArrayList<Process> processes = new ArrayList<Process>();
+	private boolean cancelled = false;
+
+	public synchronized void addProcess(Process p) {
+		processes.add(p);
+		if (cancelled) {
+			p.destroy();
+		}
+	}
 
-	public Process getProcess() {
-		return process;
+	public synchronized void removeProcess(Process p) {
+		processes.remove(p);
 	}
 
-	public void setProcess(Process process) {
-		this.process = process;
+	/**
+	 * Destroys all the running processes, and the ones that will be started
+	 * afterwards.
+	 * 
+	 * @return true if there was at least one running process
+	 */
+	public synchronized boolean destroyProcesses() {
+		cancelled = true;
+		for (final Process p : processes) {
+			p.destroy();
+		}
+		return !processes.isEmpty();
 	}
 
 	public boolean isStopOnProblem() {
@@ -22,24 +22,48 @@ package fr.umlv.unitex.process;
 
 import java.awt.EventQueue;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 import fr.umlv.unitex.console.ConsoleEntry;
 import fr.umlv.unitex.exceptions.UnitexUncaughtExceptionHandler;
 import fr.umlv.unitex.process.commands.CommandBuilder;
 import fr.umlv.unitex.process.commands.MultiCommands;
+import fr.umlv.unitex.utils.ComputePool;
 
 /**
  * This object launches a thread that will process all the given commands.
  * 
+ * Commands are started in their order, but a command that declares the files
+ * it uses (see {@link CommandBuilder#declaresFiles()}) does not wait for the
+ * previous ones that do not use the same files: it is run on the
+ * {@link ComputePool}, at the same time as them. Other commands are run alone, once all the
+ * previous ones are over. This way, console entries are created in the order
+ * of the commands, and the {@link ToDoAfterSingleCommand} of a command is
+ * always invoked after the ones of the previous commands. Likewise, the
+ * outputs of a command are held back by an {@link OutputGate} until the
+ * previous commands are over, so that they are displayed in order.
+ *
+ * As soon as a command fails, no new command is started.
+ * 
  * @author paumier
  * 
  */
 public class Executor extends Thread {
+	private static final int MAX_PARALLEL_COMMANDS = ComputePool.get()
+			.getParallelism();
+
+	/* Maximum delay in ms between the end of a process and the end of its outputs */
+	private static final long STREAM_END_TIMEOUT = 30000;
 
 	private final ExecParameters parameters;
-	private boolean success = true;
-	private boolean finished = false;
-	ConsoleEntry entry = null;
+	private volatile boolean success = true;
+	private volatile boolean finished = false;
+	/*
+	 * The commands that have been started and whose ToDoAfterSingleCommand
+	 * has not been invoked yet, in their order. Protected by itself.
+	 */
+	private final ArrayList<Step> pending = new ArrayList<Step>();
 
 	public Executor(ExecParameters parameters) {
 		this.parameters = parameters;
@@ -57,7 +81,11 @@ public class Executor extends Thread {
 		CommandBuilder command;
 		for (int i = 0; success && i < commands.numberOfCommands(); i++) {
 			if ((command = commands.getCommand(i)) != null) {
-				entry = null;
+				waitForDependencies(command);
+				if (!success) {
+					break;
+				}
+				ConsoleEntry entry = null;
 				if (parameters.isTraceIntoConsole()) {
 					entry = command.logIntoConsole();
 				}
@@ -65,31 +93,25 @@ public class Executor extends Thread {
 						.getWhatToDoBefore();
 				if (toDoBefore != null)
 					toDoBefore.toDo(entry);
-
-				final boolean commandSuccessful = command.executeCommand(
-						parameters, entry);
-				if (!commandSuccessful) {
-					success = false;
+				final Step step;
+				synchronized (pending) {
+					/*
+					 * The outputs of a command are only displayed once all
+					 * the previous commands are over
+					 */
+					step = new Step(command, entry, new OutputGate(
+							firstRunningStep() == null));
+					pending.add(step);
 				}
-				if (entry != null
-						&& command.getType() == CommandBuilder.PROGRAM) {
-					while (!entry.isNormalStreamEnded()
-							|| !entry.isErrorStreamEnded()) {
-						/*
-						 * We wait for the end of the stdout and stderr reading
-						 * threads
-						 */
-						// System.err.println("stdout ended: "+entry.isNormalStreamEnded());
-						// System.err.println("stderr ended: "+entry.isErrorStreamEnded());
-					}
+				if (canRunConcurrently(command, entry)) {
+					ComputePool.get().execute(step);
+				} else {
+					step.run();
 				}
-				final ToDoAfterSingleCommand toDoAfter = command
-						.getWhatToDoOnceCompleted();
-				if (toDoAfter != null)
-					toDoAfter.toDo(commandSuccessful, entry);
-				entry = null;
+				invokeCompletedCallbacks();
 			}
 		}
+		waitFor(null);
 		final ToDo DO = parameters.getDO();
 		if (DO != null) {
 			DO.toDo(success);
@@ -97,16 +119,143 @@ public class Executor extends Thread {
 		finished = true;
 	}
 
+	/**
+	 * A command can be run at the same time as the previous ones if it
+	 * declares its files. We must also be able to know when its outputs are
+	 * all displayed, so that the outputs of the next command do not get mixed
+	 * with them, which requires a console entry if they are displayed.
+	 */
+	private boolean canRunConcurrently(CommandBuilder command,
+			ConsoleEntry entry) {
+		return command.declaresFiles()
+				&& (entry != null || (parameters.getStdout() == null && parameters
+						.getStderr() == null));
+	}
+
+	/**
+	 * Waits until the given command can be started, that is to say until
+	 * there is a free worker and until all the running commands it depends
+	 * on are over. A command that does not declare its files depends on all
+	 * the previous ones.
+	 */
+	private void waitForDependencies(CommandBuilder command) {
+		while (true) {
+			Step dependency = null;
+			synchronized (pending) {
+				int running = 0;
+				for (final Step s : pending) {
+					if (!s.done) {
+						running++;
+						if (dependency == null
+								&& s.command.conflictsWith(command)) {
+							dependency = s;
+						}
+					}
+				}
+				if (dependency == null && running >= MAX_PARALLEL_COMMANDS) {
+					dependency = firstRunningStep();
+				}
+			}
+			if (dependency == null) {
+				return;
+			}
+			waitFor(dependency);
+		}
+	}
+
+	private Step firstRunningStep() {
+		for (final Step s : pending) {
+			if (!s.done) {
+				return s;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Waits for the end of the given step, or of all the running steps if it
+	 * is null, invoking the callbacks of the steps that are over meanwhile.
+	 */
+	private void waitFor(Step step) {
+		while (true) {
+			invokeCompletedCallbacks();
+			synchronized (pending) {
+				final Step s = (step != null) ? step : firstRunningStep();
+				if (s == null || s.done) {
+					break;
+				}
+				try {
+					pending.wait();
+				} catch (final InterruptedException e) {
+					/*
+					 * The executor has been cancelled, and its processes
+					 * destroyed, so we just wait for the steps to be over
+					 */
+				}
+			}
+		}
+		invokeCompletedCallbacks();
+	}
+
+	/**
+	 * Invokes, in the order of the commands, the ToDoAfterSingleCommand of the
+	 * commands that are over and whose previous commands are all over.
+	 */
+	private void invokeCompletedCallbacks() {
+		while (true) {
+			final Step s;
+			synchronized (pending) {
+				if (pending.isEmpty() || !pending.get(0).done) {
+					return;
+				}
+				s = pending.remove(0);
+			}
+			if (!s.successful) {
+				success = false;
+			}
+			final ToDoAfterSingleCommand toDoAfter = s.command
+					.getWhatToDoOnceCompleted();
+			if (toDoAfter != null)
+				toDoAfter.toDo(s.successful, s.entry);
+		}
+	}
+
+	/**
+	 * Waits for the threads that read the outputs of the given command, so
+	 * that its console entry is complete before its callback is invoked. The
+	 * process is over at this point, so this should not be long; if it is,
+	 * for instance because the program has left a child process that keeps
+	 * the streams open, we do not wait forever.
+	 */
+	static void waitForStreams(CommandBuilder command, ConsoleEntry entry) {
+		if (entry != null && command.getType() == CommandBuilder.PROGRAM) {
+			try {
+				entry.waitForStreamsEnded(STREAM_END_TIMEOUT);
+			} catch (final InterruptedException e) {
+				/*
+				 * The command has been cancelled, and so its process has been
+				 * destroyed: there is nothing more to wait for
+				 */
+			}
+		}
+	}
+
 	public boolean getSuccess() {
 		return success;
 	}
 
 	@Override
 	public void interrupt() {
-		final Process p = parameters.getProcess();
-		if (p != null) {
-			p.destroy();
-			if (entry != null) {
+		if (parameters.destroyProcesses()) {
+			final ArrayList<ConsoleEntry> entries = new ArrayList<ConsoleEntry>();
+			synchronized (pending) {
+				for (final Step s : pending) {
+					if (!s.done && s.entry != null) {
+						entries.add(s.entry);
+					}
+				}
+			}
+			for (final ConsoleEntry entry : entries) {
 				try {
 					if (EventQueue.isDispatchThread()) {
 						entry.addErrorMessage("*** COMMAND CANCELED BY USER ***");
@@ -133,4 +282,74 @@ public class Executor extends Thread {
 		return finished;
 	}
 
+	/**
+	 * A started command. It is run either by the executor thread or by the
+	 * {@link ComputePool}. As it mostly waits for its process, it tells the
+	 * pool so, which may then start another thread for CPU-bound tasks.
+	 */
+	private class Step implements Runnable, ForkJoinPool.ManagedBlocker {
+		final CommandBuilder command;
+		final ConsoleEntry entry;
+		final OutputGate gate;
+		/* Both protected by pending */
+		boolean done = false;
+		boolean successful = false;
+		/* Only used by the thread that runs the step */
+		private boolean executed = false;
+		private boolean result = false;
+
+		Step(CommandBuilder command, ConsoleEntry entry, OutputGate gate) {
+			this.command = command;
+			this.entry = entry;
+			this.gate = gate;
+		}
+
+		@Override
+		public boolean block() {
+			result = command.executeCommand(parameters, entry, gate);
+			if (!result) {
+				/* No new command must be started from now on */
+				success = false;
+			}
+			try {
+				gate.waitForOpening();
+			} catch (final InterruptedException e) {
+				/* Nothing to do */
+			}
+			waitForStreams(command, entry);
+			executed = true;
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return executed;
+		}
+
+		@Override
+		public void run() {
+			try {
+				ForkJoinPool.managedBlock(this);
+			} catch (final InterruptedException e) {
+				/* Cannot happen, as block() does not throw it */
+			} catch (final RuntimeException e) {
+				if (Thread.currentThread() != Executor.this) {
+					UnitexUncaughtExceptionHandler.getHandler()
+							.uncaughtException(Thread.currentThread(), e);
+				} else {
+					throw e;
+				}
+			} finally {
+				synchronized (pending) {
+					successful = result;
+					done = true;
+					final Step next = firstRunningStep();
+					if (next != null) {
+						next.gate.open();
+					}
+					pending.notifyAll();
+				}
+			}
+		}
+	}
 }
@@ -20,7 +20,6 @@
  */
 package fr.umlv.unitex.process;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 
 import fr.umlv.unitex.common.project.manager.GlobalProjectManager;
@@ -70,12 +69,8 @@ public class Launcher {
 		try {
 			final Process p = Runtime.getRuntime().exec(
 					b.getCommandArguments(true));
-			final BufferedInputStream in = new BufferedInputStream(
-					p.getInputStream());
-			final BufferedInputStream err = new BufferedInputStream(
-					p.getErrorStream());
-			new EatStreamThread(in).start();
-			new EatStreamThread(err).start();
+			StreamPump.eat(p.getInputStream());
+			StreamPump.eat(p.getErrorStream());
 			return p.waitFor();
 		} catch (final IOException e1) {
 			/* */
@@ -97,8 +92,8 @@ public class Launcher {
 		try {
 			final Process p = Runtime.getRuntime().exec(
 					cmd.getCommandArguments(true));
-			new EatStreamThread(p.getErrorStream(), System.err).start();
-			new EatStreamThread(p.getInputStream(), System.out).start();
+			StreamPump.eat(p.getErrorStream(), System.err);
+			StreamPump.eat(p.getInputStream(), System.out);
 
 			return p.waitFor();
 		} catch (final IOException e) {
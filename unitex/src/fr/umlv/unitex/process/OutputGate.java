@@ -0,0 +1,80 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.process;
+
+import java.util.ArrayList;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Holds back the display of the outputs of a command until it is opened. The
+ * Executor gives one to each command it runs at the same time as previous
+ * ones, and opens it once they are all over, so that the outputs of the
+ * commands are displayed in their order and never mixed.
+ * 
+ * While the gate is closed, the ProcessInfoThreads keep their lines in their
+ * bounded buffers, and so a command with a large output waits for its turn.
+ */
+public class OutputGate {
+	/**
+	 * A gate that is always open.
+	 */
+	public static final OutputGate OPEN = new OutputGate(true);
+
+	/* The tasks waiting for the gate to open, or null once it is open */
+	private ArrayList<Runnable> held;
+
+	public OutputGate(boolean open) {
+		held = open ? null : new ArrayList<Runnable>();
+	}
+
+	/**
+	 * Invokes the given task in the Swing thread, as soon as the gate is open.
+	 * Tasks are invoked in their order.
+	 */
+	public synchronized void invokeLater(Runnable r) {
+		if (held != null) {
+			held.add(r);
+		} else {
+			SwingUtilities.invokeLater(r);
+		}
+	}
+
+	public synchronized void open() {
+		if (held == null) {
+			return;
+		}
+		for (final Runnable r : held) {
+			SwingUtilities.invokeLater(r);
+		}
+		held = null;
+		notifyAll();
+	}
+
+	/**
+	 * Waits until the gate is open.
+	 */
+	public synchronized void waitForOpening() throws InterruptedException {
+		while (held != null) {
+			wait();
+		}
+	}
+}
@@ -20,14 +20,11 @@
  */
 package fr.umlv.unitex.process;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.InvocationTargetException;
-
-import javax.swing.SwingUtilities;
 
 import fr.umlv.unitex.console.ConsoleEntry;
 import fr.umlv.unitex.console.Couple;
@@ -37,13 +34,48 @@ import fr.umlv.unitex.process.list.ProcessOutputList;
  * This class is used to monitor stdout and stderr messages of external
  * processes.
  * 
+ * The stream is read by blocks, and the lines are put in a bounded buffer.
+ * They are added to the list by batches in the Swing thread, so that the
+ * process is never slowed down by the display of each line. A line ended by a
+ * single \r is a progress line that replaces the previous one when the next
+ * line arrives.
+ * 
+ * Rather than starting it as a thread, it is better to run it with
+ * {@link StreamPump#execute(Runnable)}.
+ * 
  * @author Sébastien Paumier
  */
 public class ProcessInfoThread extends Thread {
+	private static final int READ_BUFFER_SIZE = 8192;
+	/*
+	 * Maximum number of lines waiting to be displayed. When this is reached,
+	 * the reading stops until the Swing thread has caught up.
+	 */
+	private static final int MAX_PENDING_LINES = 4096;
+
 	final ProcessOutputList list;
-	private BufferedReader stream;
+	private Reader stream;
 	final ConsoleEntry entry;
 	boolean readingErrorStream;
+	private final OutputGate gate;
+
+	/*
+	 * Ring buffer of the lines that have not been added to the list yet. All
+	 * these fields are protected by pendingLines.
+	 */
+	private final String[] pendingLines = new String[MAX_PENDING_LINES];
+	private final boolean[] pendingFullReturn = new boolean[MAX_PENDING_LINES];
+	private int first = 0;
+	private int count = 0;
+	private boolean flushScheduled = false;
+	private boolean ended = false;
+
+	private final Runnable flusher = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
 
 	/**
 	 * Creates a new <code>ProcessInfoThread</code>
@@ -55,106 +87,157 @@ public class ProcessInfoThread extends Thread {
 	 */
 	public ProcessInfoThread(ProcessOutputList list, InputStream s,
 			ConsoleEntry entry, boolean errorStream) {
+		this(list, s, entry, errorStream, OutputGate.OPEN);
+	}
+
+	/**
+	 * Creates a new <code>ProcessInfoThread</code> whose lines are only
+	 * displayed once the given gate is open.
+	 */
+	public ProcessInfoThread(ProcessOutputList list, InputStream s,
+			ConsoleEntry entry, boolean errorStream, OutputGate gate) {
 		this.list = list;
 		this.entry = entry;
 		this.readingErrorStream = errorStream;
+		this.gate = gate;
 		try {
-			stream = new BufferedReader(new InputStreamReader(s, "UTF8"));
+			stream = new InputStreamReader(s, "UTF8");
 		} catch (final UnsupportedEncodingException e) {
 			e.printStackTrace();
 		}
 	}
 
-	private char nextChar = '\0';
-
-	String myReadLine(BufferedReader reader) {
-		int c;
-		String result = "";
-		if (nextChar != '\0') {
-			result = "" + nextChar;
-			nextChar = '\0';
-		}
+	/**
+	 * Runs the monitoring thread
+	 */
+	@Override
+	public void run() {
+		final char[] buffer = new char[READ_BUFFER_SIZE];
+		final StringBuilder line = new StringBuilder();
+		/* true if the last character read was a \r */
+		boolean afterCR = false;
+		int n;
 		try {
-			while ((c = reader.read()) != -1) {
-				char ch = (char) c;
-				if (ch == '\r') {
-					result = result + ch;
-					if ((c = reader.read()) != -1) {
-						ch = (char) c;
-						if (ch == '\n') {
-							/* If we have a \r\n sequence, we return it */
-							result = result + ch;
-							return result;
+			while ((n = stream.read(buffer)) != -1) {
+				int start = 0;
+				for (int i = 0; i < n; i++) {
+					final char c = buffer[i];
+					if (afterCR) {
+						afterCR = false;
+						if (c == '\n') {
+							/* A \r\n sequence is a normal end of line */
+							addLine(line, true);
+							start = i + 1;
+							continue;
+						}
+						/* A single \r ends a line that can be replaced */
+						addLine(line, false);
+					}
+					if (c == '\r' || c == '\n') {
+						line.append(buffer, start, i - start);
+						start = i + 1;
+						if (c == '\r') {
+							afterCR = true;
+						} else {
+							addLine(line, true);
 						}
-						/* Otherwise, we stock the character */
-						nextChar = ch;
 					}
-					return result;
-				} else if (ch == '\n') {
-					/* If we have a single \n, we return it */
-					result = result + ch;
-					nextChar = '\0';
-					return result;
-				} else {
-					nextChar = '\0';
-					result = result + ch;
 				}
+				line.append(buffer, start, n - start);
 			}
 		} catch (final IOException e) {
 			e.printStackTrace();
-			return null;
+		} catch (final InterruptedException e) {
+			/* Nothing to do */
+		}
+		try {
+			if (afterCR) {
+				addLine(line, false);
+			} else if (line.length() > 0) {
+				addLine(line, true);
+			}
+		} catch (final InterruptedException e) {
+			/* Nothing to do */
 		}
-		if ("".equals(result)) {
-			return null;
+		synchronized (pendingLines) {
+			ended = true;
+			scheduleFlush();
 		}
-		return result;
 	}
 
 	/**
-	 * Runs the monitoring thread
+	 * Puts the given line into the buffer, and empties the builder. If the
+	 * buffer is full, waits until the Swing thread has emptied it.
 	 */
-	@Override
-	public void run() {
-		String s;
-		boolean fullReturn;
-		while ((s = myReadLine(stream)) != null) {
-			if (!s.equals("")) {
-				if (s.endsWith("\r\n")) {
-					s = s.substring(0, s.length() - 2);
-					fullReturn = true;
-				} else if (s.endsWith("\r")) {
-					fullReturn = false;
-					s = s.substring(0, s.length() - 1);
-				} else if (s.endsWith("\n")) {
-					fullReturn = true;
-					s = s.substring(0, s.length() - 1);
-				} else {
-					fullReturn = true;
+	private void addLine(StringBuilder line, boolean fullReturn)
+			throws InterruptedException {
+		final String s = line.toString();
+		line.setLength(0);
+		synchronized (pendingLines) {
+			if (count > 0 && !readingErrorStream) {
+				final int last = (first + count - 1) % MAX_PENDING_LINES;
+				if (!pendingFullReturn[last] && (!fullReturn || s.length() > 0)) {
+					/*
+					 * A progress line that has not been displayed yet would be
+					 * replaced by this one anyway. We cannot do that for the
+					 * error stream, since all lines go to the console entry.
+					 */
+					pendingLines[last] = s;
+					pendingFullReturn[last] = fullReturn;
+					return;
 				}
-				final String s2 = s;
-				final boolean ret = fullReturn;
-				try {
-					SwingUtilities.invokeAndWait(new Runnable() {
-						@Override
-						public void run() {
-							if (ret) {
-								list.addLine(new Couple(s2, false));
-							} else {
-								list.addReplacableLine(new Couple(s2, false));
-							}
-							if (entry != null && readingErrorStream) {
-								entry.addErrorMessage(s2);
-							}
-						}
-					});
-				} catch (final InterruptedException e) {
-					/* */
-				} catch (final InvocationTargetException e) {
-					/* */
+			}
+			while (count == MAX_PENDING_LINES) {
+				pendingLines.wait();
+			}
+			final int i = (first + count) % MAX_PENDING_LINES;
+			pendingLines[i] = s;
+			pendingFullReturn[i] = fullReturn;
+			count++;
+			scheduleFlush();
+		}
+	}
+
+	private void scheduleFlush() {
+		if (!flushScheduled) {
+			flushScheduled = true;
+			gate.invokeLater(flusher);
+		}
+	}
+
+	/**
+	 * Adds all the buffered lines to the list. This is invoked in the Swing
+	 * thread. When the stream has ended, the console entry is notified once
+	 * the last lines have been added, so that it contains all of them.
+	 */
+	void flush() {
+		final String[] lines;
+		final boolean[] fullReturn;
+		final boolean end;
+		synchronized (pendingLines) {
+			lines = new String[count];
+			fullReturn = new boolean[count];
+			for (int i = 0; i < count; i++) {
+				final int j = (first + i) % MAX_PENDING_LINES;
+				lines[i] = pendingLines[j];
+				fullReturn[i] = pendingFullReturn[j];
+				pendingLines[j] = null;
+			}
+			first = 0;
+			count = 0;
+			flushScheduled = false;
+			end = ended;
+			pendingLines.notifyAll();
+		}
+		if (lines.length != 0) {
+			list.addLines(lines, fullReturn);
+			if (entry != null && readingErrorStream) {
+				for (final String s : lines) {
+					entry.addErrorMessage(s);
 				}
 			}
 		}
-		if (entry != null) {
+		if (end && entry != null) {
 			if (readingErrorStream) {
 				entry.setErrorStreamEnded(true);
 			} else {
@@ -0,0 +1,77 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.process;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class drains the outputs of external processes on a shared set of
+ * threads, instead of starting new threads for each process. Idle threads are
+ * reused by the next processes, and released after a while. The number of
+ * threads is not bounded, since each stream is read until the process ends,
+ * and a process whose outputs are not read may block.
+ */
+public class StreamPump {
+	private static final ExecutorService pumps = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread t = new Thread(r, "Stream pump");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private StreamPump() {
+		/* Only static methods */
+	}
+
+	/**
+	 * Reads the given stream until its end, ignoring its content.
+	 */
+	public static void eat(InputStream in) {
+		eat(in, null);
+	}
+
+	/**
+	 * Copies the given stream into out until its end. out is closed at the
+	 * end, unless it is System.out or System.err.
+	 */
+	public static void eat(final InputStream in, final OutputStream out) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				EatStreamThread.copy(in, out);
+			}
+		});
+	}
+
+	/**
+	 * Runs the given stream reader, like a {@link ProcessInfoThread}.
+	 */
+	public static void execute(Runnable reader) {
+		pumps.execute(reader);
+	}
+}
@@ -21,19 +21,18 @@
 package fr.umlv.unitex.process.commands;
 
 import java.io.File;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-
-import javax.swing.SwingUtilities;
+import java.util.List;
 
 import fr.umlv.unitex.config.ConfigManager;
 import fr.umlv.unitex.console.Console;
 import fr.umlv.unitex.console.ConsoleEntry;
 import fr.umlv.unitex.console.Couple;
-import fr.umlv.unitex.process.EatStreamThread;
 import fr.umlv.unitex.process.ExecParameters;
 import fr.umlv.unitex.process.Log;
+import fr.umlv.unitex.process.OutputGate;
 import fr.umlv.unitex.process.ProcessInfoThread;
+import fr.umlv.unitex.process.StreamPump;
 import fr.umlv.unitex.process.ToDoAfterSingleCommand;
 import fr.umlv.unitex.process.ToDoBeforeSingleCommand;
 
@@ -58,12 +57,28 @@ public abstract class CommandBuilder implements AbstractCommand {
 	private boolean unitexProgram = true;
 	private int programNamePosition;
 
+	/**
+	 * The files read and written by the command, if it declares them. A
+	 * command that declares its files must declare all of them, including
+	 * the ones it finds by itself like the subgraphs of a graph (see
+	 * {@link Grf2Fst2Command#getInputFiles()}), so that
+	 * {@link fr.umlv.unitex.process.Executor} can run it concurrently with
+	 * the commands that do not use the same files. Commands that do not
+	 * declare anything are always run alone.
+	 */
+	private final ArrayList<File> inputFiles = new ArrayList<File>();
+	private final ArrayList<File> outputFiles = new ArrayList<File>();
+	private boolean filesDeclared = false;
+	/* When logging, all programs share the log directory */
+	private boolean logged = false;
+
 	CommandBuilder(String programName) {
 		list = new ArrayList<String>();
 		ultraSimplifiedList = new ArrayList<String>();
 		protectElement(ConfigManager.getManager().getUnitexToolLogger()
 				.getAbsolutePath());
 		if (ConfigManager.getManager().mustLog(null)) {
+			logged = true;
 			element("{");
 			element("CreateLog");
 			element("-d");
@@ -127,6 +142,61 @@ public abstract class CommandBuilder implements AbstractCommand {
 	public void time(File f) {
 		list.add(programNamePosition, "\"--time=" + f.getAbsolutePath() + "\"");
 		programNamePosition++;
+		outputFiles.add(f.getAbsoluteFile());
+	}
+
+	/**
+	 * Declares that the command reads the given file.
+	 */
+	protected void reads(File f) {
+		inputFiles.add(f.getAbsoluteFile());
+		filesDeclared = true;
+	}
+
+	/**
+	 * Declares that the command writes the given file.
+	 */
+	protected void writes(File f) {
+		outputFiles.add(f.getAbsoluteFile());
+		filesDeclared = true;
+	}
+
+	/**
+	 * Returns true if the command has declared all the files it reads and
+	 * writes, so that it can be run concurrently with other commands.
+	 */
+	public boolean declaresFiles() {
+		return filesDeclared && !logged && getType() == PROGRAM;
+	}
+
+	public List<File> getInputFiles() {
+		return inputFiles;
+	}
+
+	public List<File> getOutputFiles() {
+		return outputFiles;
+	}
+
+	/**
+	 * Returns true if this command and the given one cannot be run at the same
+	 * time, because one of them writes a file that the other one uses.
+	 */
+	public boolean conflictsWith(CommandBuilder c) {
+		if (!declaresFiles() || !c.declaresFiles()) {
+			return true;
+		}
+		return intersects(getOutputFiles(), c.getInputFiles())
+				|| intersects(getOutputFiles(), c.getOutputFiles())
+				|| intersects(getInputFiles(), c.getOutputFiles());
+	}
+
+	private static boolean intersects(List<File> a, List<File> b) {
+		for (final File f : a) {
+			if (b.contains(f)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	public String getCommandLine() {
@@ -212,32 +282,49 @@ public abstract class CommandBuilder implements AbstractCommand {
 	@Override
 	public boolean executeCommand(final ExecParameters parameters,
 			final ConsoleEntry entry) {
+		return executeCommand(parameters, entry, OutputGate.OPEN);
+	}
+
+	/**
+	 * Executes the command, displaying its outputs only once the given gate is
+	 * open.
+	 */
+	public boolean executeCommand(final ExecParameters parameters,
+			final ConsoleEntry entry, final OutputGate gate) {
 		Process p = null;
 		boolean problem = false;
 		final CommandBuilder currentCommand = this;
 		final String[] comm = getCommandArguments(true);
 		try {
 			/* We create the process */
-			parameters.setProcess(Runtime.getRuntime().exec(comm, null,
-					parameters.getWorkingDirectory()));
-			p = parameters.getProcess();
+			p = Runtime.getRuntime().exec(comm, null,
+					parameters.getWorkingDirectory());
+			parameters.addProcess(p);
 			if (parameters.getStdout() == null) {
 				/* If needed, we just consume the output stream */
-				new EatStreamThread(p.getInputStream()).start();
-				entry.setNormalStreamEnded(true);
+				StreamPump.eat(p.getInputStream());
+				if (entry != null) {
+					entry.setNormalStreamEnded(true);
+				}
 			} else {
-				new ProcessInfoThread(parameters.getStdout(),
-						p.getInputStream(), entry, false).start();
+				StreamPump.execute(new ProcessInfoThread(parameters
+						.getStdout(), p.getInputStream(), entry, false, gate));
 			}
 			if (parameters.getStderr() == null) {
 				/* If needed, we just consume the error stream */
-				new EatStreamThread(p.getErrorStream()).start();
-				entry.setErrorStreamEnded(true);
+				StreamPump.eat(p.getErrorStream());
+				if (entry != null) {
+					entry.setErrorStreamEnded(true);
+				}
 			} else {
-				new ProcessInfoThread(parameters.getStderr(),
-						p.getErrorStream(), entry, true).start();
+				StreamPump.execute(new ProcessInfoThread(parameters
+						.getStderr(), p.getErrorStream(), entry, true, gate));
 			}
-			/* Now, we just wait for the end of the process */
+			/*
+			 * Now, we just wait for the end of the process. This blocks
+			 * without using any CPU, and the reading threads will signal the
+			 * console entry when they are done.
+			 */
 			try {
 				p.waitFor();
 				if (parameters.isStopOnProblem()) {
@@ -246,16 +333,18 @@ public abstract class CommandBuilder implements AbstractCommand {
 						problem = true;
 					}
 				}
-				parameters.setProcess(null);
+				parameters.removeProcess(p);
 				return !problem;
 			} catch (final java.lang.InterruptedException e) {
 				/*
 				 * If the process is interrupted for any reason, like a click on
-				 * a "Cancel" button
+				 * a "Cancel" button. The process may not have been destroyed
+				 * yet if the interruption does not come from the Executor.
 				 */
+				p.destroy();
 				if (parameters.isStopOnProblem()) {
-					try {
-						SwingUtilities.invokeAndWait(new Runnable() {
+					if (parameters.getStderr() != null) {
+						gate.invokeLater(new Runnable() {
 							@Override
 							public void run() {
 								parameters.getStderr().addLine(
@@ -264,31 +353,33 @@ public abstract class CommandBuilder implements AbstractCommand {
 												true));
 							}
 						});
-					} catch (final InterruptedException e1) {
-						e1.printStackTrace();
-					} catch (final InvocationTargetException e1) {
-						e1.printStackTrace();
 					}
 					problem = true;
 				}
-				parameters.setProcess(null);
-				return problem;
+				parameters.removeProcess(p);
+				return !problem;
 			}
 		} catch (final java.io.IOException e) {
 			/* If the process could not be created */
 			final String programName = comm[0];
-			SwingUtilities.invokeLater(new Runnable() {
-				@Override
-				public void run() {
-					parameters.getStderr().addLine(
-							new Couple("Cannot launch the program "
-									+ programName + "\n", true));
-				}
-			});
+			if (parameters.getStderr() != null) {
+				gate.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						parameters.getStderr().addLine(
+								new Couple("Cannot launch the program "
+										+ programName + "\n", true));
+					}
+				});
+			}
+			if (entry != null) {
+				/* There is no output to wait for */
+				entry.setNormalStreamEnded(true);
+				entry.setErrorStreamEnded(true);
+			}
 			if (parameters.isStopOnProblem()) {
 				problem = true;
 			}
-			parameters.setProcess(null);
 			return !problem;
 		}
 	}
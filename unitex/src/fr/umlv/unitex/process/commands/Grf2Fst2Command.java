@@ -22,14 +22,25 @@ package fr.umlv.unitex.process.commands;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 
 import fr.umlv.unitex.config.ConfigManager;
 import fr.umlv.unitex.config.NamedRepository;
+import fr.umlv.unitex.files.FileUtil;
+import fr.umlv.unitex.graphtools.Dependancies;
+import fr.umlv.unitex.graphtools.GraphCall;
 
 /**
  * @author Sébastien Paumier
  */
 public class Grf2Fst2Command extends CommandBuilder {
+	/* The .fst2 that is written, which depends on the grf if not given */
+	private File fst2;
+	private boolean explicitOutput = false;
+	/* The main graph, and the files it reads once its subgraphs are known */
+	private File grf;
+	private List<File> inputFiles;
+
 	public Grf2Fst2Command() {
 		super("Grf2Fst2");
 	}
@@ -37,6 +48,13 @@ public class Grf2Fst2Command extends CommandBuilder {
 	public Grf2Fst2Command grf(File s) {
 		protectElement(s.getAbsolutePath());
 		ultraSimplifiedList.add(s.getName());
+		reads(s);
+		grf = s.getAbsoluteFile();
+		inputFiles = null;
+		if (!explicitOutput) {
+			fst2 = new File(FileUtil.getFileNameWithoutExtension(s)
+					+ ".fst2").getAbsoluteFile();
+		}
 		return this;
 	}
 
@@ -54,6 +72,7 @@ public class Grf2Fst2Command extends CommandBuilder {
 		if (f == null)
 			return this;
 		protectElement("--alphabet=" + f.getAbsolutePath());
+		reads(f);
 		return this;
 	}
 
@@ -124,9 +143,41 @@ public class Grf2Fst2Command extends CommandBuilder {
 	public Grf2Fst2Command output(File fst2) {
 		element("-o");
 		protectElement(fst2.getAbsolutePath());
+		this.fst2 = fst2.getAbsoluteFile();
+		explicitOutput = true;
 		return this;
 	}
 
+	/**
+	 * The subgraphs are read too. They are only looked for when the Executor
+	 * needs them, so that building the command stays cheap.
+	 */
+	@Override
+	public List<File> getInputFiles() {
+		if (grf == null) {
+			return super.getInputFiles();
+		}
+		if (inputFiles == null) {
+			final ArrayList<File> l = new ArrayList<File>(
+					super.getInputFiles());
+			for (final GraphCall call : Dependancies.getAllSubgraphs(grf)) {
+				l.add(call.getGrf().getAbsoluteFile());
+			}
+			inputFiles = l;
+		}
+		return inputFiles;
+	}
+
+	@Override
+	public List<File> getOutputFiles() {
+		if (fst2 == null) {
+			return super.getOutputFiles();
+		}
+		final ArrayList<File> l = new ArrayList<File>(super.getOutputFiles());
+		l.add(fst2);
+		return l;
+	}
+
 	public Grf2Fst2Command checkVariables(boolean b) {
 		if (b) {
 			element("-v");
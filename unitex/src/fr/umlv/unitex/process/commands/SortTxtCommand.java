@@ -33,6 +33,8 @@ public class SortTxtCommand extends CommandBuilder {
 
 	public SortTxtCommand file(File s) {
 		protectElement(s.getAbsolutePath());
+		reads(s);
+		writes(s);
 		return this;
 	}
 
@@ -49,12 +51,14 @@ public class SortTxtCommand extends CommandBuilder {
 	public SortTxtCommand sortAlphabet(File alphabet) {
 		if (alphabet != null) {
 			protectElement("-o" + alphabet.getAbsolutePath());
+			reads(alphabet);
 		}
 		return this;
 	}
 
 	public SortTxtCommand saveNumberOfLines(File file) {
 		protectElement("-l" + file.getAbsolutePath());
+		writes(file);
 		return this;
 	}
 
@@ -21,10 +21,13 @@
 package fr.umlv.unitex.process.list;
 
 import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
 import javax.swing.DefaultListCellRenderer;
 import javax.swing.JList;
 import javax.swing.ListModel;
+import javax.swing.Timer;
 
 import fr.umlv.unitex.console.Couple;
 
@@ -36,7 +39,19 @@ import fr.umlv.unitex.console.Couple;
  */
 public class ProcessOutputList extends JList {
 
+	private static final int SCROLL_DELAY = 100;
+
 	private boolean autoscroll;
+	private final Timer scrollTimer = new Timer(SCROLL_DELAY,
+			new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					final int size = getModel().getSize();
+					if (size > 0) {
+						ensureIndexIsVisible(size - 1);
+					}
+				}
+			});
 
 	/**
 	 * If autoscroll is true, then the list will make sure to make every added
@@ -46,6 +61,7 @@ public class ProcessOutputList extends JList {
 	public ProcessOutputList(ProcessOutputListModel model, boolean autoscroll) {
 		super(model);
 		this.autoscroll = autoscroll;
+		scrollTimer.setRepeats(false);
 		setCellRenderer(new DefaultListCellRenderer() {
 			@Override
 			public Component getListCellRendererComponent(JList list,
@@ -74,18 +90,38 @@ public class ProcessOutputList extends JList {
 	}
 
 	public void addLine(Couple c) {
-		final ProcessOutputListModel model = getModel();
-		model.addLine(c);
-		if (autoscroll) {
-			ensureIndexIsVisible(model.getSize() - 1);
-		}
+		getModel().addLine(c);
+		scrollToEnd();
 	}
 
 	public void addReplacableLine(Couple c) {
-		final ProcessOutputListModel model = getModel();
-		model.addReplacableLine(c);
-		if (autoscroll) {
-			ensureIndexIsVisible(model.getSize() - 1);
+		getModel().addReplacableLine(c);
+		scrollToEnd();
+	}
+
+	/**
+	 * Adds several lines at once. If fullReturn[i] is false, the line #i is a
+	 * replaceable one.
+	 */
+	public void addLines(String[] lines, boolean[] fullReturn) {
+		if (lines.length == 0) {
+			return;
+		}
+		final Couple[] c = new Couple[lines.length];
+		for (int i = 0; i < lines.length; i++) {
+			c[i] = new Couple(lines[i], false);
+		}
+		getModel().addLines(c, fullReturn);
+		scrollToEnd();
+	}
+
+	/**
+	 * Scrolling is done at most once every SCROLL_DELAY ms, since making the
+	 * last line visible is expensive when many lines arrive.
+	 */
+	private void scrollToEnd() {
+		if (autoscroll && !scrollTimer.isRunning()) {
+			scrollTimer.start();
 		}
 	}
 
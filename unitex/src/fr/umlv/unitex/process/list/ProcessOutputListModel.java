@@ -20,37 +20,142 @@
  */
 package fr.umlv.unitex.process.list;
 
-import javax.swing.DefaultListModel;
+import javax.swing.AbstractListModel;
 
 import fr.umlv.unitex.console.Couple;
+import fr.umlv.unitex.console.SpillFile;
 
 /**
  * This class provides a list model with a method to replace the last element.
  * It is used for console message: when a message is just ended by \r, we
  * interprete it as a line that must erase the previous one.
  * 
+ * Lines are stored in a ring buffer whose size is bounded. When it is full,
+ * the oldest lines are written into a {@link SpillFile} and removed from the
+ * list. Several lines can be added at once with a single notification.
+ * 
  * @author Sébastien Paumier
  */
-public class ProcessOutputListModel extends DefaultListModel {
+public class ProcessOutputListModel extends AbstractListModel<Couple> {
+	private static final long serialVersionUID = 1L;
+	public static final int DEFAULT_MAX_LINES = 100000;
+
+	private final int maxLines;
+	private Couple[] lines = new Couple[64];
+	private int first = 0;
+	private int size = 0;
+	private SpillFile spill;
 
 	boolean lastLineReplacable = false;
 
+	/*
+	 * Changes made since the last notification: number of lines removed from
+	 * the beginning and added at the end, and whether the last line that was
+	 * already notified has been replaced
+	 */
+	private int removed = 0;
+	private int added = 0;
+	private boolean lastReplaced = false;
+
+	public ProcessOutputListModel() {
+		this(DEFAULT_MAX_LINES);
+	}
+
+	public ProcessOutputListModel(int maxLines) {
+		if (maxLines < 1) {
+			throw new IllegalArgumentException("Invalid maximum size: "
+					+ maxLines);
+		}
+		this.maxLines = maxLines;
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public Couple getElementAt(int index) {
+		if (index < 0 || index >= size) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		return lines[(first + index) % lines.length];
+	}
+
+	public Object get(int index) {
+		return getElementAt(index);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the file that contains the lines that have been removed because
+	 * there were too many of them, or null if there is none.
+	 */
+	public SpillFile getSpillFile() {
+		return spill;
+	}
+
+	/**
+	 * Closes the spill file, if any. This must be called once the model is no
+	 * longer used.
+	 */
+	public void close() {
+		if (spill != null) {
+			spill.close();
+		}
+	}
+
+	public void removeAllElements() {
+		final int n = size;
+		for (int i = 0; i < n; i++) {
+			lines[(first + i) % lines.length] = null;
+		}
+		first = 0;
+		size = 0;
+		lastLineReplacable = false;
+		if (n > 0) {
+			fireIntervalRemoved(this, 0, n - 1);
+		}
+	}
+
 	void addReplacableLine(Couple c) {
+		appendReplacableLine(c);
+		fireChanges();
+	}
+
+	void addLine(Couple c) {
+		appendLine(c);
+		fireChanges();
+	}
+
+	/**
+	 * Adds several lines with a single notification. If fullReturn[i] is
+	 * false, the line #i is a replaceable one.
+	 */
+	void addLines(Couple[] c, boolean[] fullReturn) {
+		for (int i = 0; i < c.length; i++) {
+			if (fullReturn[i]) {
+				appendLine(c[i]);
+			} else {
+				appendReplacableLine(c[i]);
+			}
+		}
+		fireChanges();
+	}
+
+	private void appendReplacableLine(Couple c) {
 		if (lastLineReplacable) {
 			replaceLastLine(c);
 		} else {
-			super.addElement(c);
+			append(c);
 		}
 		lastLineReplacable = true;
 	}
 
-	@Override
-	public void addElement(Object obj) {
-		throw new UnsupportedOperationException(
-				"You should not invoke this method. Please use addLine and replaceLastLine from ProcessOutputList");
-	}
-
-	void addLine(Couple c) {
+	private void appendLine(Couple c) {
 		if (c.getString().equals("")) {
 			/*
 			 * There is a special case for empty lines: an empty line printed
@@ -61,25 +166,81 @@ public class ProcessOutputListModel extends DefaultListModel {
 			if (lastLineReplacable) {
 				lastLineReplacable = false;
 			} else {
-				super.addElement(c);
+				append(c);
 			}
 			return;
 		}
 		if (lastLineReplacable) {
 			replaceLastLine(c);
 		} else {
-			super.addElement(c);
+			append(c);
 		}
 		lastLineReplacable = false;
 	}
 
 	private void replaceLastLine(Couple c) {
-		final int size = size();
 		if (size == 0) {
-			super.addElement(c);
+			append(c);
+		} else {
+			lines[(first + size - 1) % lines.length] = c;
+			if (added == 0) {
+				lastReplaced = true;
+			}
+		}
+	}
+
+	private void append(Couple c) {
+		if (size == maxLines) {
+			removeFirstLine();
+		} else if (size == lines.length) {
+			final Couple[] tmp = new Couple[Math.min(maxLines,
+					2 * lines.length)];
+			for (int i = 0; i < size; i++) {
+				tmp[i] = lines[(first + i) % lines.length];
+			}
+			lines = tmp;
+			first = 0;
+		}
+		lines[(first + size) % lines.length] = c;
+		size++;
+		added++;
+	}
+
+	private void removeFirstLine() {
+		if (spill == null) {
+			spill = new SpillFile("unitex-output");
+		}
+		spill.write(lines[first].getString());
+		lines[first] = null;
+		first = (first + 1) % lines.length;
+		size--;
+		if (size + 1 > added) {
+			/* The lines that have already been notified come first */
+			removed++;
 		} else {
-			set(size - 1, c);
-			fireContentsChanged(this, size - 1, size - 1);
+			added--;
+		}
+	}
+
+	private void fireChanges() {
+		if (removed > 0) {
+			if (spill != null) {
+				spill.flush();
+			}
+			fireIntervalRemoved(this, 0, removed - 1);
+		}
+		if (lastReplaced) {
+			/* The line that was the last one before the additions */
+			final int last = size - added - 1;
+			if (last >= 0) {
+				fireContentsChanged(this, last, last);
+			}
+		}
+		if (added > 0) {
+			fireIntervalAdded(this, size - added, size - 1);
 		}
+		removed = 0;
+		added = 0;
+		lastReplaced = false;
 	}
 }
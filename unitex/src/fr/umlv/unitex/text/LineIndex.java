@@ -0,0 +1,225 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.text;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This is a columnar index of the paragraphs of a text file. Instead of one
+ * Interval object per paragraph, we store the bounds of all paragraphs in
+ * primitive arrays, with long offsets so that files larger than 2 GB can be
+ * described. Paragraphs are supposed to be added in increasing order, which
+ * allows binary searches on both byte and char positions.
+ */
+public class LineIndex {
+	private static final int MAGIC = 0x554C4958; // "ULIX"
+	private static final int VERSION = 1;
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private long[] startInBytes;
+	private long[] endInBytes;
+	private long[] startInChars;
+	private long[] endInChars;
+	private int size;
+
+	public LineIndex() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public LineIndex(int capacity) {
+		if (capacity < 1)
+			capacity = 1;
+		startInBytes = new long[capacity];
+		endInBytes = new long[capacity];
+		startInChars = new long[capacity];
+		endInChars = new long[capacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	private void ensureCapacity(int n) {
+		if (n <= startInBytes.length)
+			return;
+		int newCapacity = startInBytes.length;
+		while (newCapacity < n) {
+			newCapacity = newCapacity + (newCapacity >> 1) + 1;
+		}
+		startInBytes = Arrays.copyOf(startInBytes, newCapacity);
+		endInBytes = Arrays.copyOf(endInBytes, newCapacity);
+		startInChars = Arrays.copyOf(startInChars, newCapacity);
+		endInChars = Arrays.copyOf(endInChars, newCapacity);
+	}
+
+	public void add(long startByte, long endByte, long startChar, long endChar) {
+		ensureCapacity(size + 1);
+		startInBytes[size] = startByte;
+		endInBytes[size] = endByte;
+		startInChars[size] = startChar;
+		endInChars[size] = endChar;
+		size++;
+	}
+
+	/**
+	 * Appends all the paragraphs of the given index to this one.
+	 */
+	public void addAll(LineIndex index) {
+		final int n = index.size;
+		ensureCapacity(size + n);
+		System.arraycopy(index.startInBytes, 0, startInBytes, size, n);
+		System.arraycopy(index.endInBytes, 0, endInBytes, size, n);
+		System.arraycopy(index.startInChars, 0, startInChars, size, n);
+		System.arraycopy(index.endInChars, 0, endInChars, size, n);
+		size += n;
+	}
+
+	public long getStartInBytes(int i) {
+		return startInBytes[i];
+	}
+
+	public long getEndInBytes(int i) {
+		return endInBytes[i];
+	}
+
+	public long getStartInChars(int i) {
+		return startInChars[i];
+	}
+
+	public long getEndInChars(int i) {
+		return endInChars[i];
+	}
+
+	public Interval getInterval(int i) {
+		return new Interval(startInBytes[i], endInBytes[i], startInChars[i],
+				endInChars[i]);
+	}
+
+	/**
+	 * Returns the number of the paragraph that contains the given position in
+	 * chars, or -1 if there is none.
+	 */
+	public int findByChar(long position) {
+		return find(startInChars, endInChars, position);
+	}
+
+	/**
+	 * Returns the number of the paragraph that contains the given position in
+	 * bytes, or -1 if there is none.
+	 */
+	public int findByByte(long position) {
+		return find(startInBytes, endInBytes, position);
+	}
+
+	private int find(long[] starts, long[] ends, long position) {
+		if (position < 0)
+			return -1;
+		/*
+		 * We look for the last paragraph whose start is <= position. As
+		 * paragraphs may have been filtered, we still have to check that its
+		 * end covers the position.
+		 */
+		int low = 0;
+		int high = size - 1;
+		int candidate = -1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			if (starts[middle] <= position) {
+				candidate = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if (candidate == -1 || position > ends[candidate])
+			return -1;
+		return candidate;
+	}
+
+	/**
+	 * Saves this index into the given file.
+	 */
+	public void save(File f) throws IOException {
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(f), 65536));
+		try {
+			write(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeLong(startInBytes[i]);
+			out.writeLong(endInBytes[i]);
+			out.writeLong(startInChars[i]);
+			out.writeLong(endInChars[i]);
+		}
+	}
+
+	/**
+	 * Loads an index previously saved with save(File).
+	 * 
+	 * @return the index, or null if the file is not a valid index file
+	 */
+	public static LineIndex load(File f) throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(f), 65536));
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public static LineIndex read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION)
+			return null;
+		final int n = in.readInt();
+		if (n < 0)
+			return null;
+		final LineIndex index = new LineIndex(n);
+		for (int i = 0; i < n; i++) {
+			index.startInBytes[i] = in.readLong();
+			index.endInBytes[i] = in.readLong();
+			index.startInChars[i] = in.readLong();
+			index.endInChars[i] = in.readLong();
+		}
+		index.size = n;
+		return index;
+	}
+}
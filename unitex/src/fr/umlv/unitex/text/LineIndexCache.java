@@ -0,0 +1,289 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.text;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+import fr.umlv.unitex.config.Config;
+import fr.umlv.unitex.files.FileUtil;
+
+/**
+ * This class manages the sidecar files that store the paragraph index of a
+ * text file, so that reopening an unchanged file does not require to decode
+ * it again. A sidecar is only considered valid if the size, the modification
+ * date and a content fingerprint of the text file are the ones that were
+ * recorded when the index was built.
+ *
+ * For a .snt file, the sidecar is stored in its _snt directory. Other files
+ * are only cached if they are big enough for decoding them to take time, and
+ * their sidecars are stored in a cache directory of the user directory, so
+ * that we never write into the directories of the user's files. Each time a
+ * sidecar is written there, the sidecars of files that do not exist anymore
+ * are deleted, and so are the least recently used ones if the directory
+ * gets larger than MAX_CACHE_LENGTH.
+ */
+public class LineIndexCache {
+	private static final int MAGIC = 0x554C4943; // "ULIC"
+	private static final int VERSION = 2;
+	private static final String EXTENSION = ".idx";
+	private static final String CACHE_DIR = "line_index_cache";
+	/* Files smaller than this are decoded quickly enough */
+	private static final long MIN_CACHED_LENGTH = 1024 * 1024;
+	private static final long MAX_CACHE_LENGTH = 256L * 1024 * 1024;
+	/**
+	 * The fingerprint is computed on SAMPLES blocks of SAMPLE_SIZE bytes
+	 * regularly spread over the file, including its first and last bytes.
+	 */
+	private static final int SAMPLES = 16;
+	private static final int SAMPLE_SIZE = 4096;
+
+	private LineIndexCache() {
+		/* No instance */
+	}
+
+	/**
+	 * Returns the sidecar file of the given file, or null if the file must
+	 * not be cached.
+	 */
+	public static File getIndexFile(File f) {
+		if ("snt".equals(FileUtil.getExtensionInLowerCase(f))) {
+			final File sntDir = SntUtil.getSntDir(f);
+			if (sntDir.isDirectory()) {
+				return new File(sntDir, f.getName() + EXTENSION);
+			}
+		}
+		if (f.length() < MIN_CACHED_LENGTH) {
+			return null;
+		}
+		final File userDir = Config.getUserDir();
+		if (userDir == null) {
+			return null;
+		}
+		/* Files with the same name in different directories must not clash */
+		final String path = f.getAbsolutePath();
+		return new File(new File(userDir, CACHE_DIR), f.getName() + "-"
+				+ Integer.toHexString(path.hashCode()) + EXTENSION);
+	}
+
+	/**
+	 * Returns the cached index of the given file, or null if there is no
+	 * valid one.
+	 */
+	public static LineIndex get(File f) {
+		final File indexFile = getIndexFile(f);
+		if (indexFile == null || !indexFile.exists()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(indexFile), 65536));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION
+					|| !in.readUTF().equals(f.getAbsolutePath())) {
+				return null;
+			}
+			final long length = in.readLong();
+			final long lastModified = in.readLong();
+			final long fingerprint = in.readLong();
+			if (length != f.length() || lastModified != f.lastModified()
+					|| fingerprint != getFingerprint(f)) {
+				return null;
+			}
+			final LineIndex index = LineIndex.read(in);
+			/* The date of a sidecar is the date of its last use */
+			indexFile.setLastModified(System.currentTimeMillis());
+			return index;
+		} catch (final IOException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (final IOException e) {
+					/* Nothing to do */
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves the given index as the cached index of the given file. Errors are
+	 * ignored, since the only consequence is that the file will be decoded
+	 * again next time.
+	 */
+	public static void put(File f, LineIndex index) {
+		final File indexFile = getIndexFile(f);
+		if (indexFile == null) {
+			return;
+		}
+		final File dir = indexFile.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			return;
+		}
+		final File tmp = new File(indexFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			final long length = f.length();
+			final long lastModified = f.lastModified();
+			final long fingerprint = getFingerprint(f);
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmp), 65536));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(f.getAbsolutePath());
+			out.writeLong(length);
+			out.writeLong(lastModified);
+			out.writeLong(fingerprint);
+			index.write(out);
+			out.close();
+			out = null;
+			if (indexFile.exists() && !indexFile.delete()) {
+				tmp.delete();
+				return;
+			}
+			if (!tmp.renameTo(indexFile)) {
+				tmp.delete();
+				return;
+			}
+			if (dir.getName().equals(CACHE_DIR)) {
+				prune(dir, indexFile);
+			}
+		} catch (final IOException e) {
+			tmp.delete();
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (final IOException e) {
+					/* Nothing to do */
+				}
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the sidecars of the cache directory whose file does not exist
+	 * anymore, and then the least recently used ones until the directory is
+	 * not larger than MAX_CACHE_LENGTH. The given sidecar, that has just been
+	 * written, is always kept.
+	 */
+	private static void prune(File dir, File keep) {
+		final File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		/* Most recently used first */
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				final long x = a.lastModified();
+				final long y = b.lastModified();
+				return (x > y) ? -1 : ((x == y) ? 0 : 1);
+			}
+		});
+		long total = 0;
+		for (final File idx : files) {
+			if (idx.equals(keep)) {
+				total += idx.length();
+				continue;
+			}
+			if (!idx.getName().endsWith(EXTENSION)) {
+				continue;
+			}
+			final String source = getSourcePath(idx);
+			if (source == null || !new File(source).exists()
+					|| total + idx.length() > MAX_CACHE_LENGTH) {
+				idx.delete();
+			} else {
+				total += idx.length();
+			}
+		}
+	}
+
+	/**
+	 * Returns the path of the file whose index is stored in the given
+	 * sidecar, or null if it is not a valid sidecar.
+	 */
+	private static String getSourcePath(File indexFile) {
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(indexFile), 1024));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			return in.readUTF();
+		} catch (final IOException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (final IOException e) {
+					/* Nothing to do */
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes a CRC32 on some blocks of the file. Hashing the whole file
+	 * would cost as much as decoding it, which is what we want to avoid.
+	 */
+	private static long getFingerprint(File f) throws IOException {
+		final CRC32 crc = new CRC32();
+		final RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			final long length = raf.length();
+			final byte[] block = new byte[SAMPLE_SIZE];
+			long previousEnd = 0;
+			for (int i = 0; i < SAMPLES; i++) {
+				long start = (length - SAMPLE_SIZE) * i / (SAMPLES - 1);
+				if (start < previousEnd)
+					start = previousEnd;
+				if (start >= length)
+					break;
+				raf.seek(start);
+				final int n = raf.read(block, 0,
+						(int) Math.min(SAMPLE_SIZE, length - start));
+				if (n <= 0)
+					break;
+				crc.update(block, 0, n);
+				previousEnd = start + n;
+			}
+		} finally {
+			raf.close();
+		}
+		return crc.getValue();
+	}
+}
@@ -21,15 +21,10 @@
 package fr.umlv.unitex.text;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.lang.ref.PhantomReference;
-import java.lang.ref.ReferenceQueue;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,6 +32,9 @@ import javax.swing.AbstractListModel;
 import javax.swing.SwingWorker;
 
 import fr.umlv.unitex.io.Encoding;
+import fr.umlv.unitex.io.LineHandler;
+import fr.umlv.unitex.io.MappedFile;
+import fr.umlv.unitex.io.ParallelLineScanner;
 
 /**
  * This is a model for representing a text file as the list of its paragraphs.
@@ -46,111 +44,225 @@ import fr.umlv.unitex.io.Encoding;
  * @author Sébastien Paumier
  */
 public class TextAsListModelImpl extends AbstractListModel {
-	private MappedByteBuffer mappedBuffer;
-	private SwingWorker<Void, Interval> worker;
+	private MappedFile mappedFile;
+	private SwingWorker<Void, LineIndex> worker;
 	private Interval selection;
 	private String content = null;
-	private FileChannel channel;
-	private FileInputStream stream;
 	private File file;
 	private boolean dataFromFile;
-	ByteBuffer parseBuffer;
 	Encoding encoding;
-	private final ArrayList<Interval> lines = new ArrayList<Interval>();
+	private final LineIndex lines = new LineIndex();
+	/**
+	 * The worker does not publish paragraphs one by one, but by blocks that
+	 * correspond to the chunks of the ParallelLineScanner. PUBLISH_CHUNK_SIZE
+	 * is only the initial capacity of such blocks.
+	 */
+	private static final int PUBLISH_CHUNK_SIZE = 4096;
 
 	public void load(File f) {
 		load(f, null);
 	}
 
-	public void load(File f, final Pattern filter) {
+	public void load(final File f, final Pattern filter) {
 		content = null;
 		dataFromFile = true;
 		this.file = f;
-		final long fileLength = file.length();
 		this.encoding = Encoding.getEncoding(f);
+		final MappedFile previous = mappedFile;
 		try {
-			stream = new FileInputStream(file);
-		} catch (final FileNotFoundException e) {
-			e.printStackTrace();
-			return;
-		}
-		channel = stream.getChannel();
-		try {
-			/* We skip the BOM for UTF16 encodings */
+			/*
+			 * We skip the BOM for UTF16 encodings. The new mapping is opened
+			 * before the previous one is released, so that reloading the same
+			 * file reuses it
+			 */
 			if (encoding == Encoding.UTF16LE || encoding == Encoding.UTF16BE) {
-				mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 2,
-						fileLength - 2);
+				mappedFile = MappedFile.open(file, 2);
 			} else {
-				mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
-						fileLength);
+				mappedFile = MappedFile.open(file);
 			}
 		} catch (final IOException e) {
 			e.printStackTrace();
 			return;
 		}
+		if (worker != null) {
+			worker.cancel(true);
+			worker = null;
+		}
+		if (previous != null) {
+			previous.release();
+		}
+		if (filter == null) {
+			final LineIndex cached = LineIndexCache.get(file);
+			if (cached != null) {
+				/*
+				 * The file has not changed since its index was saved, so we
+				 * don't need to decode it again
+				 */
+				lines.addAll(cached);
+				fireIntervalAdded(this, 0, lines.size());
+				return;
+			}
+		}
 		/*
-		 * parseBuffer must NOT be a final variable, because it would keep a
-		 * reference on the buffer that would never be null, so that the buffer
-		 * can never be garbage collected. As a consequence, the underlying file
-		 * mapping would never be released.
+		 * The worker must not use the mappedFile field, that is released by
+		 * reset, so it holds its own reference to the mapping. It is
+		 * released either at the end of doInBackground, or by done if the
+		 * worker was cancelled before starting
 		 */
-		parseBuffer = mappedBuffer.duplicate();
-		worker = new SwingWorker<Void, Interval>() {
+		final MappedFile parsedFile = mappedFile.retain();
+		final AtomicBoolean owned = new AtomicBoolean(false);
+		worker = new SwingWorker<Void, LineIndex>() {
 			@Override
 			protected Void doInBackground() throws Exception {
-				int lastStartInChars = 0;
-				int lastStartInBytes = 0;
-				final StringBuilder builder1 = new StringBuilder();
-				int pos;
-				for (pos = 0; parseBuffer.position() < parseBuffer.capacity(); pos = pos + 1) {
-					final int posInBuffer = parseBuffer.position();
-					final int c = encoding.readChar(parseBuffer);
-					if (c == '\n') {
-						// if we have an end-of-line
-						boolean publish = false;
-						if (filter == null) {
-							publish = true;
-						} else {
-							final Matcher m = filter.matcher(builder1
-									.toString());
-							if (m.matches())
-								publish = true;
+				if (!owned.compareAndSet(false, true)) {
+					return null;
+				}
+				try {
+					return scan();
+				} finally {
+					parsedFile.release();
+				}
+			}
+
+			private Void scan() {
+				/*
+				 * If there is no filter, we keep the whole index in order to
+				 * save it for next time
+				 */
+				final LineIndex all = (filter == null) ? new LineIndex() : null;
+				final long capacity = parsedFile.length();
+				final LineCollector collector = new LineCollector(encoding,
+						parsedFile, filter);
+				final ParallelLineScanner scanner = new ParallelLineScanner(
+						encoding, parsedFile);
+				try {
+					for (int i = 0; i < scanner.getChunkCount(); i++) {
+						if (isCancelled()) {
+							return null;
 						}
-						builder1.setLength(0);
-						setProgress((int) ((long) parseBuffer.position() * 100 / parseBuffer
-								.capacity()));
-						if (publish) {
-							publish(new Interval(lastStartInBytes, posInBuffer,
-									lastStartInChars, pos));
+						final ParallelLineScanner.Chunk chunk = scanner
+								.getChunk(i);
+						final int trailingChars = chunk.replay(collector);
+						collector.pendingChars += trailingChars;
+						if (collector.chunk.size() > 0) {
+							if (all != null)
+								all.addAll(collector.chunk);
+							publish(collector.chunk);
+							collector.chunk = new LineIndex(PUBLISH_CHUNK_SIZE);
 						}
-						lastStartInChars = pos + 1;
-						lastStartInBytes = parseBuffer.position();
-					} else {
-						if (filter != null && c != '\r')
-							builder1.append(c);
+						setProgress((int) (chunk.getEnd() * 100 / capacity));
 					}
+				} catch (final CancellationException e) {
+					return null;
+				} finally {
+					/*
+					 * No chunk may still be reading the mapping when we
+					 * release it
+					 */
+					scanner.cancelAndWait();
+				}
+				collector.finish(capacity);
+				if (collector.chunk.size() > 0) {
+					if (all != null)
+						all.addAll(collector.chunk);
+					publish(collector.chunk);
 				}
-				if (lastStartInBytes < parseBuffer.capacity()) {
-					publish(new Interval(lastStartInBytes,
-							parseBuffer.position(), lastStartInChars, pos - 1));
-					setProgress(100);
+				if (all != null && !isCancelled()) {
+					LineIndexCache.put(f, all);
 				}
+				setProgress(100);
 				return null;
 			}
 
 			@SuppressWarnings("synthetic-access")
 			@Override
-			protected void process(java.util.List<Interval> chunks) {
+			protected void process(java.util.List<LineIndex> chunks) {
 				final int oldSize = lines.size();
-				for (final Interval i : chunks) {
-					lines.add(i);
+				for (final LineIndex i : chunks) {
+					lines.addAll(i);
 				}
 				fireIntervalAdded(this, oldSize, lines.size());
 			}
+
+			@Override
+			protected void done() {
+				if (owned.compareAndSet(false, true)) {
+					parsedFile.release();
+				}
+			}
 		};
 		worker.execute();
 	}
 
+	/**
+	 * Builds the paragraphs from the ends of line found by
+	 * Encoding.scanLines. If there is a filter, the paragraphs that don't
+	 * match it are ignored.
+	 */
+	private static class LineCollector implements LineHandler {
+		private final Encoding encoding;
+		private final MappedFile mappedFile;
+		private final Pattern filter;
+		private final StringBuilder line = new StringBuilder();
+		LineIndex chunk = new LineIndex(PUBLISH_CHUNK_SIZE);
+		long startInBytes = 0;
+		long startInChars = 0;
+		/*
+		 * Number of chars of the current paragraph that were found in the
+		 * previous chunks
+		 */
+		long pendingChars = 0;
+
+		LineCollector(Encoding encoding, MappedFile mappedFile, Pattern filter) {
+			this.encoding = encoding;
+			this.mappedFile = mappedFile;
+			this.filter = filter;
+		}
+
+		@Override
+		public void newLine(long position, int chars) {
+			final long endInChars = startInChars + pendingChars + chars;
+			if (filter == null
+					|| filter.matcher(
+							readParagraph(mappedFile, encoding, startInBytes,
+									position, line)).matches()) {
+				chunk.add(startInBytes, position, startInChars, endInChars);
+			}
+			startInChars = endInChars + 1;
+			startInBytes = position + encoding.getBytesPerNewLine();
+			pendingChars = 0;
+		}
+
+		/**
+		 * Adds the last paragraph if the file does not end with a new line.
+		 */
+		void finish(long capacity) {
+			if (startInBytes < capacity
+					&& (filter == null || filter.matcher(
+							readParagraph(mappedFile, encoding, startInBytes,
+									capacity, line)).matches())) {
+				chunk.add(startInBytes, capacity, startInChars, startInChars
+						+ pendingChars - 1);
+			}
+		}
+	}
+
+	/**
+	 * Decodes the bytes from start (inclusive) to end (exclusive), ignoring
+	 * '\r' and '\n' chars.
+	 */
+	static String readParagraph(MappedFile mappedFile, Encoding encoding,
+			long start, long end, StringBuilder builder) {
+		builder.setLength(0);
+		final ByteBuffer b = ByteBuffer.wrap(mappedFile.getBytes(start, end));
+		while (b.hasRemaining()) {
+			final char c = encoding.readChar(b);
+			if (c != '\r' && c != '\n')
+				builder.append(c);
+		}
+		return builder.toString();
+	}
+
 	public TextAsListModelImpl() {
 		super();
 		dataFromFile = false;
@@ -183,24 +295,15 @@ public class TextAsListModelImpl extends AbstractListModel {
 		if (!dataFromFile)
 			return content;
 		final Interval interval = getInterval(i);
-		builder.setLength(0);
-		final int start = interval.getStartInChars();
-		final int end = interval.getEndInChars();
-		mappedBuffer.position(interval.getStartInBytes());
-		for (int pos = start; pos <= end; pos++) {
-			final int c = encoding.readChar(mappedBuffer);
-			if (c != '\r' && c != '\n') {
-				builder.append((char) c);
-			}
-		}
-		return builder.toString();
+		return readParagraph(mappedFile, encoding,
+				interval.getStartInBytes(), interval.getEndInBytes(), builder);
 	}
 
 	Interval getInterval(int i) {
 		if (!dataFromFile || i >= lines.size()) {
 			return null;
 		}
-		return lines.get(i);
+		return lines.getInterval(i);
 	}
 
 	public Interval getSelection() {
@@ -229,22 +332,10 @@ public class TextAsListModelImpl extends AbstractListModel {
 	 * @return the number of the interval, or -1 if the position is not
 	 *         contained in an interval of the model
 	 */
-	public int getElementContainingPositionInChars(int position) {
+	public int getElementContainingPositionInChars(long position) {
 		if (!dataFromFile)
 			return -1;
-		if (position < 0)
-			return -1;
-		/*
-		 * We cache the size and length in case there is a publish operation
-		 * that updates the array
-		 */
-		for (int i = 0; i < lines.size(); i++) {
-			final Interval tmp = lines.get(i);
-			if (position >= tmp.getStartInChars()
-					&& position <= tmp.getEndInChars())
-				return i;
-		}
-		return -1;
+		return lines.findByChar(position);
 	}
 
 	public String getContent() {
@@ -256,39 +347,9 @@ public class TextAsListModelImpl extends AbstractListModel {
 			worker.cancel(true);
 			worker = null;
 		}
-		if (mappedBuffer != null) {
-			ReferenceQueue<MappedByteBuffer> queue=new ReferenceQueue<MappedByteBuffer>();
-			new PhantomReference<MappedByteBuffer>(mappedBuffer,queue);
-			mappedBuffer = null;
-			System.gc();
-			while (queue.poll()!=null) {
-				System.gc();
-				try {
-					Thread.sleep(500);
-				} catch (InterruptedException e) {
-					/* do nothing */
-				}
-				Thread.yield();
-			}
-		}
-		if (parseBuffer != null)
-			parseBuffer = null;
-		System.gc();
-		if (channel != null) {
-			try {
-				channel.close();
-			} catch (final IOException e) {
-				e.printStackTrace();
-			}
-			channel = null;
-		}
-		if (stream != null) {
-			try {
-				stream.close();
-			} catch (final IOException e) {
-				e.printStackTrace();
-			}
-			stream = null;
+		if (mappedFile != null) {
+			mappedFile.release();
+			mappedFile = null;
 		}
 		setText("");
 		final int size = lines.size();
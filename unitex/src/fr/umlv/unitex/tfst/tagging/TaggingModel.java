@@ -23,10 +23,12 @@ package fr.umlv.unitex.tfst.tagging;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 
 import fr.umlv.unitex.graphrendering.GenericGraphBox;
 import fr.umlv.unitex.graphrendering.TfstGraphBox;
 import fr.umlv.unitex.graphrendering.TfstGraphicalZone;
+import fr.umlv.unitex.graphtools.Reachability;
 import fr.umlv.unitex.listeners.GraphListener;
 
 /**
@@ -43,6 +45,8 @@ public class TaggingModel {
 	 * constant indices, even if some boxes are removed
 	 */
 	TfstGraphBox[] boxes;
+	/* The index of each box in boxes */
+	private final IdentityHashMap<TfstGraphBox, Integer> boxIndex = new IdentityHashMap<TfstGraphBox, Integer>();
 	TaggingState[] taggingStates;
 	int[] renumber;
 	int[] sortedNodes;
@@ -115,8 +119,10 @@ public class TaggingModel {
 		taggingStates = new TaggingState[n];
 		factorization = new boolean[n];
 		renumber = new int[n];
+		boxIndex.clear();
 		for (int i = 0; i < n; i++) {
 			boxes[i] = (TfstGraphBox) zone.graphBoxes.get(i);
+			boxIndex.put(boxes[i], i);
 			if (boxes[i].type == GenericGraphBox.INITIAL)
 				initialState = i;
 			else if (boxes[i].type == GenericGraphBox.FINAL)
@@ -235,13 +241,10 @@ public class TaggingModel {
 	}
 
 	private void markUselessStates() {
-		final boolean[] accessible = new boolean[boxes.length];
-		final boolean[] coaccessible = new boolean[boxes.length];
-		checkAccessibility(initialState, accessible);
-		final ArrayList<Integer>[] reverse = computeReverseTransitions();
-		checkCoaccessibility(finalState, coaccessible, reverse);
-		for (int i = 0; i < accessible.length; i++) {
-			if (!accessible[i] || !coaccessible[i]) {
+		final boolean[] useful = getReachability().getUseful(initialState,
+				finalState);
+		for (int i = 0; i < useful.length; i++) {
+			if (!useful[i]) {
 				setBoxStateInternal(i, TaggingState.USELESS);
 			} else {
 				if (taggingStates[i] == TaggingState.USELESS) {
@@ -255,24 +258,23 @@ public class TaggingModel {
 		}
 	}
 
-	private void checkAccessibility(int current, boolean[] visited) {
-		if (visited[current])
-			return;
-		visited[current] = true;
-		for (final GenericGraphBox gb : boxes[current].transitions) {
-			final int destIndex = getBoxIndex((TfstGraphBox) gb);
-			checkAccessibility(destIndex, visited);
+	/**
+	 * Returns the transitions of the automaton in a form that allows linear
+	 * time explorations.
+	 */
+	private Reachability getReachability() {
+		final int[] start = new int[boxes.length + 1];
+		for (int i = 0; i < boxes.length; i++) {
+			start[i + 1] = start[i] + boxes[i].transitions.size();
 		}
-	}
-
-	private void checkCoaccessibility(int current, boolean[] visited,
-			ArrayList<Integer>[] reverse) {
-		if (visited[current])
-			return;
-		visited[current] = true;
-		for (final int srcIndex : reverse[current]) {
-			checkCoaccessibility(srcIndex, visited, reverse);
+		final int[] dest = new int[start[boxes.length]];
+		for (int i = 0; i < boxes.length; i++) {
+			int j = start[i];
+			for (final GenericGraphBox gb : boxes[i].transitions) {
+				dest[j++] = getBoxIndex((TfstGraphBox) gb);
+			}
 		}
+		return new Reachability(start, dest);
 	}
 
 	private boolean isFactorizationNode(int boxIndex) {
@@ -521,11 +523,10 @@ public class TaggingModel {
 	int getBoxIndex(TfstGraphBox b) {
 		if (b == null)
 			return -1;
-		for (int i = 0; i < boxes.length; i++) {
-			if (b.equals(boxes[i]))
-				return i;
-		}
-		throw new IllegalStateException("Should not have an unknown box");
+		final Integer i = boxIndex.get(b);
+		if (i == null)
+			throw new IllegalStateException("Should not have an unknown box");
+		return i;
 	}
 
 	public TaggingState getBoxState(TfstGraphBox b) {
@@ -0,0 +1,64 @@
+/*
+ * Unitex
+ *
+ * Copyright (C) 2001-2017 Université Paris-Est Marne-la-Vallée <unitex@univ-mlv.fr>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA.
+ *
+ */
+package fr.umlv.unitex.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This is the pool shared by all the CPU-bound parallel tasks, like scanning
+ * files, filtering concordances or crawling graphs. Having a single pool
+ * sized to the number of processors ensures that such tasks never compete
+ * with each other for more threads than there are processors.
+ */
+public class ComputePool {
+	private static final ForkJoinPool pool = new ForkJoinPool(Runtime
+			.getRuntime().availableProcessors());
+
+	private ComputePool() {
+		/* Only static methods */
+	}
+
+	public static ForkJoinPool get() {
+		return pool;
+	}
+
+	/**
+	 * Waits until the given latch reaches zero. If the current thread is a
+	 * worker of the pool, the pool may start another worker meanwhile, so
+	 * that the tasks the latch waits for can still run.
+	 */
+	public static void await(final CountDownLatch latch)
+			throws InterruptedException {
+		ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+			@Override
+			public boolean block() throws InterruptedException {
+				latch.await();
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable() {
+				return latch.getCount() == 0;
+			}
+		});
+	}
+}
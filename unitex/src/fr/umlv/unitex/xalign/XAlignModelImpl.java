@@ -21,13 +21,10 @@
 package fr.umlv.unitex.xalign;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -36,6 +33,7 @@ import java.util.concurrent.ExecutionException;
 
 import javax.swing.SwingWorker;
 
+import fr.umlv.unitex.io.MappedFile;
 import fr.umlv.unitex.listeners.AlignmentListener;
 
 public class XAlignModelImpl implements XAlignModel {
@@ -46,7 +44,7 @@ public class XAlignModelImpl implements XAlignModel {
 	HashMap<String, ArrayList<String>> group;
 	String sourceFile;
 	String destFile;
-	int startPosition = -1;
+	long startPosition = -1;
 	boolean modified = false;
 
 	class Couple {
@@ -94,11 +92,9 @@ public class XAlignModelImpl implements XAlignModel {
 		alignments = new ArrayList<Couple>();
 	}
 
-	private MappedByteBuffer buffer;
-	private int dataLength = 0;
+	private MappedFile buffer;
+	private long dataLength = 0;
 	private SwingWorker<Void, PublishInfo> worker;
-	private FileChannel channel;
-	private FileInputStream stream;
 	private File file;
 	Charset utf8 = Charset.forName("UTF-8");
 
@@ -108,87 +104,112 @@ public class XAlignModelImpl implements XAlignModel {
 		if (f == null) {
 			return;
 		}
-		setDataLength((int) file.length());
+		setDataLength(file.length());
 		group = new HashMap<String, ArrayList<String>>();
-		stream = new FileInputStream(file);
-		channel = stream.getChannel();
-		setBuffer(channel
-				.map(FileChannel.MapMode.READ_ONLY, 0, getDataLength()));
+		reset();
+		setBuffer(MappedFile.open(file));
+		/*
+		 * The worker has its own reference on the mapping, so that reset
+		 * cannot unmap it while it is being parsed
+		 */
+		final MappedFile parsedFile = getBuffer().retain();
 		worker = new SwingWorker<Void, PublishInfo>() {
 			@Override
 			protected Void doInBackground() throws Exception {
-				int pos;
+				final MappedFile.Cursor cursor = parsedFile.cursor();
+				try {
+					parse(cursor);
+				} finally {
+					cursor.close();
+					parsedFile.release();
+				}
+				return null;
+			}
+
+			@Override
+			protected void done() {
+				/*
+				 * The mapping is not needed anymore, and it must not prevent
+				 * the alignments from being saved into the same file
+				 */
+				if (getBuffer() == parsedFile) {
+					reset();
+				}
+			}
+
+			private void parse(MappedFile.Cursor cursor) {
+				long pos;
 				/*
 				 * First, we look for the description of the source and targets
 				 * files
 				 */
 				for (pos = 0; pos < getDataLength(); pos = pos + 1) {
-					if (getBuffer().get(pos) == '<'
-							&& getBuffer().get(pos + 1) == 'p'
-							&& getBuffer().get(pos + 2) == 't'
-							&& getBuffer().get(pos + 3) == 'r'
-							&& (getBuffer().get(pos + 4) == ' '
-									|| getBuffer().get(pos + 4) == '\n'
-									|| getBuffer().get(pos + 4) == '\r' || getBuffer()
+					if (cursor.get(pos) == '<'
+							&& cursor.get(pos + 1) == 'p'
+							&& cursor.get(pos + 2) == 't'
+							&& cursor.get(pos + 3) == 'r'
+							&& (cursor.get(pos + 4) == ' '
+									|| cursor.get(pos + 4) == '\n'
+									|| cursor.get(pos + 4) == '\r' || cursor
 									.get(pos + 4) == '\t')) {
 						/* If we have a ptr tag, we read its target */
 						do {
 							pos++;
-						} while (!(getBuffer().get(pos) == '"'
-								&& getBuffer().get(pos - 1) == '='
-								&& getBuffer().get(pos - 2) == 't'
-								&& getBuffer().get(pos - 3) == 'e'
-								&& getBuffer().get(pos - 4) == 'g'
-								&& getBuffer().get(pos - 5) == 'r'
-								&& getBuffer().get(pos - 6) == 'a' && getBuffer()
+						} while (!(cursor.get(pos) == '"'
+								&& cursor.get(pos - 1) == '='
+								&& cursor.get(pos - 2) == 't'
+								&& cursor.get(pos - 3) == 'e'
+								&& cursor.get(pos - 4) == 'g'
+								&& cursor.get(pos - 5) == 'r'
+								&& cursor.get(pos - 6) == 'a' && cursor
 								.get(pos - 7) == 't'));
 						String target = "";
 						pos++;
 						do {
-							target = target + (char) getBuffer().get(pos);
+							target = target + (char) cursor.get(pos);
 							pos++;
-						} while (getBuffer().get(pos) != '"');
+						} while (cursor.get(pos) != '"');
 						/*
 						 * Then we check if it was the source or destination
 						 * file
 						 */
 						do {
 							pos++;
-						} while (!((getBuffer().get(pos) == 'e'
-								&& getBuffer().get(pos - 1) == 'c'
-								&& getBuffer().get(pos - 2) == 'r'
-								&& getBuffer().get(pos - 3) == 'u'
-								&& getBuffer().get(pos - 4) == 'o' && getBuffer()
-								.get(pos - 5) == 's') || (getBuffer().get(pos) == 'n'
-								&& getBuffer().get(pos - 1) == 'o'
-								&& getBuffer().get(pos - 2) == 'i'
-								&& getBuffer().get(pos - 3) == 't'
-								&& getBuffer().get(pos - 4) == 'a'
-								&& getBuffer().get(pos - 5) == 'l'
-								&& getBuffer().get(pos - 6) == 's'
-								&& getBuffer().get(pos - 7) == 'n'
-								&& getBuffer().get(pos - 8) == 'a'
-								&& getBuffer().get(pos - 9) == 'r' && getBuffer()
+						} while (!((cursor.get(pos) == 'e'
+								&& cursor.get(pos - 1) == 'c'
+								&& cursor.get(pos - 2) == 'r'
+								&& cursor.get(pos - 3) == 'u'
+								&& cursor.get(pos - 4) == 'o' && cursor
+								.get(pos - 5) == 's') || (cursor.get(pos) == 'n'
+								&& cursor.get(pos - 1) == 'o'
+								&& cursor.get(pos - 2) == 'i'
+								&& cursor.get(pos - 3) == 't'
+								&& cursor.get(pos - 4) == 'a'
+								&& cursor.get(pos - 5) == 'l'
+								&& cursor.get(pos - 6) == 's'
+								&& cursor.get(pos - 7) == 'n'
+								&& cursor.get(pos - 8) == 'a'
+								&& cursor.get(pos - 9) == 'r' && cursor
 								.get(pos - 10) == 't')));
-						if (getBuffer().get(pos) == 'e') {
+						if (cursor.get(pos) == 'e') {
 							sourceFile = target;
 						} else {
 							destFile = target;
 						}
-					} else if (getBuffer().get(pos) == '"'
-							&& getBuffer().get(pos + 1) == 'r'
-							&& getBuffer().get(pos + 2) == 'e'
-							&& getBuffer().get(pos + 3) == 's'
-							&& getBuffer().get(pos + 4) == 'u'
-							&& getBuffer().get(pos + 5) == 'l'
-							&& getBuffer().get(pos + 6) == 't'
-							&& getBuffer().get(pos + 7) == 'X'
-							&& getBuffer().get(pos + 8) == 'A'
-							&& getBuffer().get(pos + 9) == 'l'
-							&& getBuffer().get(pos + 10) == 'i'
-							&& getBuffer().get(pos + 11) == 'g'
-							&& getBuffer().get(pos + 12) == 'n'
-							&& getBuffer().get(pos + 13) == '"') {
+					} else if (cursor.get(pos) == '"'
+							&& cursor.get(pos + 1) == 'r'
+							&& cursor.get(pos + 2) == 'e'
+							&& cursor.get(pos + 3) == 's'
+							&& cursor.get(pos + 4) == 'u'
+							&& cursor.get(pos + 5) == 'l'
+							&& cursor.get(pos + 6) == 't'
+							&& cursor.get(pos + 7) == 'X'
+							&& cursor.get(pos + 8) == 'A'
+							&& cursor.get(pos + 9) == 'l'
+							&& cursor.get(pos + 10) == 'i'
+							&& cursor.get(pos + 11) == 'g'
+							&& cursor.get(pos + 12) == 'n'
+							&& cursor.get(pos + 13) == '"') {
 						/*
 						 * If we are at the beginning of the aligment
 						 * declarations, we note the current position and we
@@ -200,61 +221,61 @@ public class XAlignModelImpl implements XAlignModel {
 					}
 				}
 				for (; pos < getDataLength(); pos = pos + 1) {
-					if (getBuffer().get(pos) == '<'
-							&& getBuffer().get(pos + 1) == '!'
-							&& getBuffer().get(pos + 2) == '-'
-							&& getBuffer().get(pos + 3) == '-') {
+					if (cursor.get(pos) == '<'
+							&& cursor.get(pos + 1) == '!'
+							&& cursor.get(pos + 2) == '-'
+							&& cursor.get(pos + 3) == '-') {
 						/* If we have a XML comment, we skip it */
 						pos = pos + 4;
 						do {
 							pos++;
-						} while (!(getBuffer().get(pos) == '>'
-								&& getBuffer().get(pos - 1) == '-' && getBuffer()
+						} while (!(cursor.get(pos) == '>'
+								&& cursor.get(pos - 1) == '-' && cursor
 								.get(pos - 2) == '-'));
 						continue;
 					}
-					if (getBuffer().get(pos) == '<'
-							&& getBuffer().get(pos + 1) == 'l'
-							&& getBuffer().get(pos + 2) == 'i'
-							&& getBuffer().get(pos + 3) == 'n'
-							&& getBuffer().get(pos + 4) == 'k'
-							&& (getBuffer().get(pos + 5) == ' '
-									|| getBuffer().get(pos + 5) == '\n'
-									|| getBuffer().get(pos + 5) == '\r' || getBuffer()
+					if (cursor.get(pos) == '<'
+							&& cursor.get(pos + 1) == 'l'
+							&& cursor.get(pos + 2) == 'i'
+							&& cursor.get(pos + 3) == 'n'
+							&& cursor.get(pos + 4) == 'k'
+							&& (cursor.get(pos + 5) == ' '
+									|| cursor.get(pos + 5) == '\n'
+									|| cursor.get(pos + 5) == '\r' || cursor
 									.get(pos + 5) == '\t')) {
 						/* If we have a link tag, we read its targets */
 						do {
 							pos++;
-						} while (!(getBuffer().get(pos) == '"'
-								&& getBuffer().get(pos - 1) == '='
-								&& getBuffer().get(pos - 2) == 's'
-								&& getBuffer().get(pos - 3) == 't'
-								&& getBuffer().get(pos - 4) == 'e'
-								&& getBuffer().get(pos - 5) == 'g'
-								&& getBuffer().get(pos - 6) == 'r'
-								&& getBuffer().get(pos - 7) == 'a' && getBuffer()
+						} while (!(cursor.get(pos) == '"'
+								&& cursor.get(pos - 1) == '='
+								&& cursor.get(pos - 2) == 's'
+								&& cursor.get(pos - 3) == 't'
+								&& cursor.get(pos - 4) == 'e'
+								&& cursor.get(pos - 5) == 'g'
+								&& cursor.get(pos - 6) == 'r'
+								&& cursor.get(pos - 7) == 'a' && cursor
 								.get(pos - 8) == 't'));
 						String targets = "";
 						pos++;
 						do {
-							targets = targets + (char) getBuffer().get(pos);
+							targets = targets + (char) cursor.get(pos);
 							pos++;
-						} while (getBuffer().get(pos) != '"');
+						} while (cursor.get(pos) != '"');
 						/* Then we read the link type */
 						do {
 							pos++;
-						} while (!(getBuffer().get(pos) == '"'
-								&& getBuffer().get(pos - 1) == '='
-								&& getBuffer().get(pos - 2) == 'e'
-								&& getBuffer().get(pos - 3) == 'p'
-								&& getBuffer().get(pos - 4) == 'y' && getBuffer()
+						} while (!(cursor.get(pos) == '"'
+								&& cursor.get(pos - 1) == '='
+								&& cursor.get(pos - 2) == 'e'
+								&& cursor.get(pos - 3) == 'p'
+								&& cursor.get(pos - 4) == 'y' && cursor
 								.get(pos - 5) == 't'));
 						String type = "";
 						pos++;
 						do {
-							type = type + (char) getBuffer().get(pos);
+							type = type + (char) cursor.get(pos);
 							pos++;
-						} while (getBuffer().get(pos) != '"');
+						} while (cursor.get(pos) != '"');
 						final ArrayList<String> l = split(targets);
 						if (type.equals("alignment")) {
 							/* If we have an alignement */
@@ -272,33 +293,30 @@ public class XAlignModelImpl implements XAlignModel {
 							 */
 							do {
 								pos++;
-							} while (!(getBuffer().get(pos) == '"'
-									&& getBuffer().get(pos - 1) == '='
-									&& getBuffer().get(pos - 2) == 'd'
-									&& getBuffer().get(pos - 3) == 'i'
-									&& getBuffer().get(pos - 4) == ':'
-									&& getBuffer().get(pos - 5) == 'l'
-									&& getBuffer().get(pos - 6) == 'm' && getBuffer()
+							} while (!(cursor.get(pos) == '"'
+									&& cursor.get(pos - 1) == '='
+									&& cursor.get(pos - 2) == 'd'
+									&& cursor.get(pos - 3) == 'i'
+									&& cursor.get(pos - 4) == ':'
+									&& cursor.get(pos - 5) == 'l'
+									&& cursor.get(pos - 6) == 'm' && cursor
 									.get(pos - 7) == 'x'));
 							String id = "";
 							pos++;
 							do {
-								id = id + (char) getBuffer().get(pos);
+								id = id + (char) cursor.get(pos);
 								pos++;
-							} while (getBuffer().get(pos) != '"');
+							} while (cursor.get(pos) != '"');
 							publish(new PublishInfo(id, null, l));
 						}
 						/* Then we look for the end of the tag */
-						while (getBuffer().get(pos - 1) != '>') {
+						while (cursor.get(pos - 1) != '>') {
 							pos++;
 						}
 						setProgress((int) (100. * pos / getDataLength()));
 					}
 				}
 				setProgress(100);
-				setBuffer(null);
-				System.gc();
-				return null;
 			}
 
 			@Override
@@ -322,6 +340,23 @@ public class XAlignModelImpl implements XAlignModel {
 		}
 	}
 
+	/**
+	 * Reads the beginning of the alignment file, up to startPosition.
+	 */
+	private byte[] readHeader() throws IOException {
+		if (startPosition > Integer.MAX_VALUE) {
+			throw new IOException("Header too large in " + file);
+		}
+		final RandomAccessFile inputFile = new RandomAccessFile(file, "r");
+		try {
+			final byte[] header = new byte[(int) startPosition];
+			inputFile.readFully(header);
+			return header;
+		} finally {
+			inputFile.close();
+		}
+	}
+
 	private final ArrayList<AlignmentListener> listeners = new ArrayList<AlignmentListener>();
 
 	void fireAlignmentChanged(AlignmentEvent e) {
@@ -465,10 +500,7 @@ public class XAlignModelImpl implements XAlignModel {
 			 * If we have to dump into the same file, then we can skip the
 			 * beginning marked by startPosition.
 			 */
-			final RandomAccessFile inputFile = new RandomAccessFile(file, "rw");
-			final byte[] header = new byte[startPosition];
-			inputFile.readFully(header);
-			inputFile.close();
+			final byte[] header = readHeader();
 			output = new FileOutputStream(f);
 			writer = new OutputStreamWriter(output, "UTF8");
 			output.write(header);
@@ -477,10 +509,7 @@ public class XAlignModelImpl implements XAlignModel {
 			 * If we have to dump an existing alignment into a new file, we must
 			 * copy the beginning marked by startPosition.
 			 */
-			final RandomAccessFile inputFile = new RandomAccessFile(file, "rw");
-			final byte[] header = new byte[startPosition];
-			inputFile.readFully(header);
-			inputFile.close();
+			final byte[] header = readHeader();
 			output = new FileOutputStream(f);
 			writer = new OutputStreamWriter(output, "UTF8");
 			output.write(header);
@@ -671,9 +700,10 @@ public class XAlignModelImpl implements XAlignModel {
 
 	@Override
 	public void reset() {
-		if (getBuffer() != null)
+		if (getBuffer() != null) {
+			getBuffer().release();
 			setBuffer(null);
-		System.gc();
+		}
 	}
 
 	@Override
@@ -682,19 +712,19 @@ public class XAlignModelImpl implements XAlignModel {
 		fireAlignmentChanged(AlignmentEvent.CLEAR);
 	}
 
-	public void setDataLength(int dataLength) {
+	public void setDataLength(long dataLength) {
 		this.dataLength = dataLength;
 	}
 
-	public int getDataLength() {
+	public long getDataLength() {
 		return dataLength;
 	}
 
-	public void setBuffer(MappedByteBuffer buffer) {
+	public void setBuffer(MappedFile buffer) {
 		this.buffer = buffer;
 	}
 
-	public MappedByteBuffer getBuffer() {
+	public MappedFile getBuffer() {
 		return buffer;
 	}
 }
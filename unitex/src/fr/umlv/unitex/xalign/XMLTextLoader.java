@@ -21,14 +21,13 @@
 package fr.umlv.unitex.xalign;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.concurrent.ExecutionException;
 
 import javax.swing.SwingWorker;
 
+import fr.umlv.unitex.io.MappedFile;
+
 /**
  * This is a loader for XML text files manipulated by XAlign.
  * 
@@ -37,21 +36,36 @@ import javax.swing.SwingWorker;
 public class XMLTextLoader {
 
 	final XMLTextModel model;
-	final MappedByteBuffer buffer;
+	final MappedFile buffer;
 
-	public XMLTextLoader(XMLTextModel model, MappedByteBuffer buffer) {
+	public XMLTextLoader(XMLTextModel model, MappedFile buffer) {
 		this.model = model;
 		this.buffer = buffer;
 	}
 
 	public void load() {
+		/*
+		 * The worker has its own reference on the mapping, so that the model
+		 * cannot unmap it while it is being parsed
+		 */
+		final MappedFile parsedFile = buffer.retain();
 		final SwingWorker<Void, Sentence> worker = new SwingWorker<Void, Sentence>() {
 			@Override
 			protected Void doInBackground() throws Exception {
-				final int dataLength = buffer.capacity();
+				final MappedFile.Cursor cursor = parsedFile.cursor();
+				try {
+					parse(cursor, parsedFile.length());
+				} finally {
+					cursor.close();
+					parsedFile.release();
+				}
+				return null;
+			}
+
+			private void parse(MappedFile.Cursor buffer, long dataLength) {
 				final StringBuilder ID = new StringBuilder();
-				int start, end;
-				for (int pos = 0; pos < dataLength; pos = pos + 1) {
+				long start, end;
+				for (long pos = 0; pos < dataLength; pos = pos + 1) {
 					if (buffer.get(pos) == '<' && buffer.get(pos + 1) == 's'
 							&& buffer.get(pos + 2) == ' ') {
 						/* If we have a sentence tag, we read its id */
@@ -88,7 +102,6 @@ public class XMLTextLoader {
 					}
 				}
 				setProgress(100);
-				return null;
 			}
 
 			@Override
@@ -107,15 +120,10 @@ public class XMLTextLoader {
 	}
 
 	/**
-	 * Builds and returns a read-only mapped byte buffer for the given file.
+	 * Builds and returns a read-only mapped file for the given file. The
+	 * caller must release it when it does not need it anymore.
 	 */
-	public static MappedByteBuffer buildMappedByteBuffer(File file)
-			throws IOException {
-		final FileInputStream fileInputStream = new FileInputStream(file);
-		final FileChannel channel = fileInputStream.getChannel();
-		final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
-				0, file.length());
-		fileInputStream.close();
-		return map;
+	public static MappedFile buildMappedFile(File file) throws IOException {
+		return MappedFile.open(file);
 	}
 }
@@ -20,7 +20,6 @@
  */
 package fr.umlv.unitex.xalign;
 
-import java.nio.MappedByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -29,6 +28,8 @@ import java.util.List;
 import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 
+import fr.umlv.unitex.io.MappedFile;
+
 /**
  * This is a model for representing a XML text file as the list of its
  * sentences. It is used for alignements.
@@ -36,12 +37,12 @@ import javax.swing.event.ListDataListener;
  * @author Sébastien Paumier
  */
 public class XMLTextModelImpl implements XMLTextModel {
-	private MappedByteBuffer buffer;
+	private MappedFile buffer;
 	private static final Charset utf8 = Charset.forName("UTF-8");
 	private final ArrayList<Sentence> sentences;
 	private final HashMap<String, Integer> id;
 
-	public XMLTextModelImpl(MappedByteBuffer buffer) {
+	public XMLTextModelImpl(MappedFile buffer) {
 		this.buffer = buffer;
 		sentences = new ArrayList<Sentence>();
 		id = new HashMap<String, Integer>();
@@ -62,30 +63,35 @@ public class XMLTextModelImpl implements XMLTextModel {
 		final long end = s.end;
 		final byte[] tmp = new byte[(int) (end - start + 1)];
 		int z = 0;
-		for (long pos = start; pos <= end; pos++) {
-			if (buffer.get((int) pos) == '&') {
-				if (buffer.get((int) pos + 1) == 'a'
-						&& buffer.get((int) pos + 2) == 'm'
-						&& buffer.get((int) pos + 3) == 'p'
-						&& buffer.get((int) pos + 4) == ';') {
-					tmp[z++] = '&';
-					pos = pos + 4;
-				} else if (buffer.get((int) pos + 1) == 'l'
-						&& buffer.get((int) pos + 2) == 't'
-						&& buffer.get((int) pos + 3) == ';') {
-					tmp[z++] = '<';
-					pos = pos + 3;
-				} else if (buffer.get((int) pos + 1) == 'g'
-						&& buffer.get((int) pos + 2) == 't'
-						&& buffer.get((int) pos + 3) == ';') {
-					tmp[z++] = '>';
-					pos = pos + 3;
+		final MappedFile.Cursor cursor = buffer.cursor();
+		try {
+			for (long pos = start; pos <= end; pos++) {
+				if (cursor.get(pos) == '&') {
+					if (cursor.get(pos + 1) == 'a'
+							&& cursor.get(pos + 2) == 'm'
+							&& cursor.get(pos + 3) == 'p'
+							&& cursor.get(pos + 4) == ';') {
+						tmp[z++] = '&';
+						pos = pos + 4;
+					} else if (cursor.get(pos + 1) == 'l'
+							&& cursor.get(pos + 2) == 't'
+							&& cursor.get(pos + 3) == ';') {
+						tmp[z++] = '<';
+						pos = pos + 3;
+					} else if (cursor.get(pos + 1) == 'g'
+							&& cursor.get(pos + 2) == 't'
+							&& cursor.get(pos + 3) == ';') {
+						tmp[z++] = '>';
+						pos = pos + 3;
+					} else {
+						tmp[z++] = cursor.get(pos);
+					}
 				} else {
-					tmp[z++] = buffer.get((int) pos);
+					tmp[z++] = cursor.get(pos);
 				}
-			} else {
-				tmp[z++] = buffer.get((int) pos);
 			}
+		} finally {
+			cursor.close();
 		}
 		return new String(tmp, 0, z, utf8);
 	}
@@ -144,8 +150,9 @@ public class XMLTextModelImpl implements XMLTextModel {
 
 	@Override
 	public void reset() {
-		if (buffer != null)
+		if (buffer != null) {
+			buffer.release();
 			buffer = null;
-		System.gc();
+		}
 	}
 }